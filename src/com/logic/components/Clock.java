@@ -1,15 +1,13 @@
 package com.logic.components;
 
 import com.logic.engine.LogicEngine;
+import com.logic.engine.LogicWorker;
 import com.logic.ui.CircuitPanel;
 import com.logic.util.Constants;
 
-import javax.swing.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-
 /**
- * This class represents the clock component, which that toggles its output at a specified interval through the use of swing timers
+ * This class represents the clock component, which toggles its output whenever the ClockDriver ticks. Every clock is driven by the
+ * same ClockDriver on the simulation thread, so clocks stay in step with each other and can run much faster than a swing timer.
  * @author Hank Stennes
  *
  */
@@ -18,12 +16,12 @@ public class Clock extends SComponent {
 	private static final long serialVersionUID = 1L;
 	
 	/**
-	 * The interval at which to toggle the output
+	 * The default delay value
 	 */
 	public static final int DEFAULT_DELAY = 500;
 	
 	/**
-	 * The current delay value
+	 * The current delay value, which is saved with the clock and recorded in CustomType.clocks
 	 */
 	private int delay;
 	
@@ -32,11 +30,6 @@ public class Clock extends SComponent {
 	 */
 	private boolean on = false;
 	
-	/**
-	 * The swing timer instance used to operate the clock
-	 */
-	private Timer timer;
-	
 	/**
 	 * Constructs a new Clock
 	 * @param x The x position of the clock
@@ -70,22 +63,12 @@ public class Clock extends SComponent {
 	}
 	
 	/**
-	 * Creates and starts the timer in this clock. If the clock already has a timer, the reference to this timer is overwritten. The 
-	 * CircuitPanel parameter is necessary for repainting when the state of the clock changes.
-	 * @param cp The CircuitPanel that should be repainted when this Clock changes state 
+	 * Registers this clock with the ClockDriver, so that it toggles whenever the driver ticks. Registering a clock twice has no effect.
+	 * @param cp The CircuitPanel that contains the clock
 	 */
 	@Override
 	public void start(CircuitPanel cp) {
-		if(timer != null) timer.stop();
-		/*timer = new Timer(delay, new ActionListener() {
-			@Override
-			public void actionPerformed(ActionEvent e) {
-				on = !on;
-				innerChange();
-				cp.repaint();
-			}
-		});
-		timer.start();*/
+		LogicWorker.getClockDriver().addClock(this);
 	}
 
 	@Override
@@ -95,14 +78,14 @@ public class Clock extends SComponent {
 	}
 	
 	/**
-	 * Stops the timer in this clock
+	 * Unregisters this clock from the ClockDriver
 	 */
 	public void stop() {
-		timer.stop();
+		LogicWorker.getClockDriver().removeClock(this);
 	}
 	
 	/**
-	 * Returns the current delay value on this clock's timer (measured in milliseconds)
+	 * Returns the current delay value (measured in milliseconds)
 	 * @return The current delay value
 	 */
 	public int getDelay() {
@@ -110,12 +93,11 @@ public class Clock extends SComponent {
 	}
 	
 	/**
-	 * Sets the delay value on this clock's timer (measured in milliseconds)
+	 * Sets the delay value (measured in milliseconds)
 	 * @param delay The new delay value
 	 */
 	public void setDelay(int delay) {
 		this.delay = delay;
-		if(timer != null) timer.setDelay(delay);
 	}
 
 	public boolean isOn() {
@@ -3,6 +3,7 @@ package com.logic.components;
 import com.logic.engine.LogicEngine;
 import com.logic.main.LogicSimApp;
 import com.logic.ui.CompProperties;
+import com.logic.ui.IconLoader;
 import com.logic.util.CompUtils;
 import com.logic.util.Constants;
 import com.logic.util.Deletable;
@@ -11,6 +12,11 @@ import org.apache.batik.gvt.GraphicsNode;
 
 import java.awt.*;
 import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashSet;
 
 /**
  * The superclass for all logic components (CircuitElements that have inputs, outputs, and perform logic)
@@ -53,6 +59,31 @@ public abstract class LComponent extends CircuitElement implements Deletable, Se
 	 * Comments about the component, which is display in the CompProperties panel
 	 */
 	private String comments;
+
+	/**
+	 * The next logic ID that has never been used. IDs start at 1 so that 0 can mean that an ID has not been assigned yet.
+	 */
+	private static int nextLogicId = 1;
+
+	/**
+	 * The IDs of components that have been garbage collected, which are given out again before new ones
+	 */
+	private static final ArrayDeque<Integer> freeLogicIds = new ArrayDeque<>();
+
+	/**
+	 * Receives the LogicIdReference of each component with an ID once the component has been garbage collected
+	 */
+	private static final ReferenceQueue<LComponent> collectedComps = new ReferenceQueue<>();
+
+	/**
+	 * Keeps the LogicIdReferences reachable until they are enqueued
+	 */
+	private static final HashSet<LogicIdReference> logicIdReferences = new HashSet<>();
+
+	/**
+	 * A small unique number used by LogicEngine to index its arrays, or 0 if it has not been assigned yet (see getLogicId)
+	 */
+	private transient volatile int logicId;
 	
 	/**
 	 * Constructs a new LComponent
@@ -71,7 +102,7 @@ public abstract class LComponent extends CircuitElement implements Deletable, Se
 	}
 	
 	/**
-	 * Updates the components outputs based on its inputs and internal state. Only call from LogicWorker.doInBackground()
+	 * Updates the components outputs based on its inputs and internal state. Only call from the LogicWorker thread
 	 * @param logicEngine The LogicEngine instance calling update
 	 */
 	public abstract void update(LogicEngine logicEngine);
@@ -99,7 +130,7 @@ public abstract class LComponent extends CircuitElement implements Deletable, Se
 	 */
 	public Rectangle getBoundsRight() {
 		int index = images[getActiveImageIndex(CompUtils.getSensitiveCompData(this))];
-		return new Rectangle(x, y, LogicSimApp.iconLoader.imageWidth[index], LogicSimApp.iconLoader.imageHeight[index]);
+		return new Rectangle(x, y, IconLoader.imageWidth[index], IconLoader.imageHeight[index]);
 	}
 
 	/**
@@ -226,6 +257,52 @@ public abstract class LComponent extends CircuitElement implements Deletable, Se
 		this.comments = comments;
 	}
 	
+	/**
+	 * Returns the logic ID of this component. IDs are assigned in the order that components are first simulated, so they stay
+	 * dense even though many components are created for the clipboard, previews, etc. and never simulated. The ID of a component
+	 * that has been garbage collected is given to the next component that needs one, so the IDs never go much higher than the
+	 * number of simulated components that exist at one time. A collected component can't still be marked by a LogicEngine, since
+	 * the engine would hold a reference to it.
+	 * @return The logic ID, which is always at least 1
+	 */
+	public int getLogicId() {
+		int id = logicId;
+		return id != 0 ? id : assignLogicId();
+	}
+
+	/**
+	 * Assigns the logic ID the first time this component is simulated, which can happen on the simulation thread and on the
+	 * threads of parallel partitions at the same time
+	 * @return The logic ID
+	 */
+	private synchronized int assignLogicId() {
+		if(logicId == 0) logicId = allocateLogicId(this);
+		return logicId;
+	}
+
+	private static synchronized int allocateLogicId(LComponent lcomp) {
+		for(Reference<? extends LComponent> ref; (ref = collectedComps.poll()) != null;) {
+			logicIdReferences.remove(ref);
+			freeLogicIds.push(((LogicIdReference) ref).id);
+		}
+		int id = freeLogicIds.isEmpty() ? nextLogicId++ : freeLogicIds.pop();
+		logicIdReferences.add(new LogicIdReference(lcomp, id));
+		return id;
+	}
+
+	/**
+	 * Remembers the logic ID of a component so that it can be reused once the component has been garbage collected
+	 */
+	private static class LogicIdReference extends WeakReference<LComponent> {
+
+		private final int id;
+
+		private LogicIdReference(LComponent lcomp, int id) {
+			super(lcomp, collectedComps);
+			this.id = id;
+		}
+	}
+	
 	@Override
 	public void delete() {
 		io.delete();
@@ -1,20 +1,30 @@
 package com.logic.custom;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Stack;
+import com.logic.engine.LogicEngine;
 
-public class ActiveStack implements Iterator<Integer> {
+/**
+ * The nodes that must be updated by an event based NodeBox. Nodes marked during one iteration are updated in the next, and
+ * startInner/finishInner save and restore the state of the enclosing NodeBox when a custom chip node updates its inner nodes.
+ * Everything is stored in primitive int stacks, so marking and updating nodes does not allocate.
+ *
+ * A level that runs for more than LogicEngine.getIterationLimit() iterations is oscillating. Its marks are dropped, and every
+ * level stops at its next call to nextIteration until the owner of the stack calls pollOscillation, so that an unstable loop
+ * inside of a custom chip ends the whole update instead of hanging the simulation thread.
+ */
+public class ActiveStack {
 
-    private final Stack<Integer> activeA;
+    private final IntStack activeA;
 
-    private final Stack<Integer> activeB;
+    private final IntStack activeB;
 
-    private final Stack<LevelData> levelStack;
+    /**
+     * The markCount, remainCount, flip (0 or 1), and iterations of each enclosing level, pushed in that order
+     */
+    private final IntStack levelStack;
 
-    private Stack<Integer> markStackPtr;
+    private IntStack markStackPtr;
 
-    private Stack<Integer> remainStackPtr;
+    private IntStack remainStackPtr;
 
     private boolean flip;
 
@@ -22,29 +32,48 @@ public class ActiveStack implements Iterator<Integer> {
 
     private int remainCount;
 
+    /**
+     * The number of iterations run by the current level
+     */
+    private int iterations;
+
+    /**
+     * The iteration limit, read from LogicEngine when a level starts
+     */
+    private int iterationLimit;
+
+    /**
+     * True if a level has reached the iteration limit since the last call to pollOscillation
+     */
+    private boolean oscillating;
+
     public ActiveStack(){
-        activeA = new Stack<>();
-        activeB = new Stack<>();
-        levelStack = new Stack<>();
+        activeA = new IntStack();
+        activeB = new IntStack();
+        levelStack = new IntStack();
 
         markStackPtr = activeA;
         remainStackPtr = activeB;
     }
 
     public void startInner(){
-        levelStack.push(new LevelData(markCount, remainCount, flip));
+        levelStack.push(markCount);
+        levelStack.push(remainCount);
+        levelStack.push(flip ? 1 : 0);
+        levelStack.push(iterations);
         markCount = 0;
         remainCount = 0;
+        iterations = 0;
         flip = false;
         markStackPtr = activeA;
         remainStackPtr = activeB;
     }
 
     public void finishInner(){
-        LevelData ld = levelStack.pop();
-        markCount = ld.markCount;
-        remainCount = ld.remainCount;
-        flip = ld.flip;
+        iterations = levelStack.pop();
+        flip = levelStack.pop() == 1;
+        remainCount = levelStack.pop();
+        markCount = levelStack.pop();
         if(flip){
             remainStackPtr = activeA;
             markStackPtr = activeB;
@@ -55,13 +84,35 @@ public class ActiveStack implements Iterator<Integer> {
         }
     }
 
-    public void mark(Integer[] n){
+    public void mark(int[] n){
         markCount += n.length;
-        for(Integer i : n) markStackPtr.push(i);
+        markStackPtr.pushAll(n);
+    }
+
+    /**
+     * Marks the nodes array[from] to array[to - 1]. Used by packed NodeBoxes, which store every mark list in one array.
+     * @param array The array that holds the node indices
+     * @param from The index of the first node to mark
+     * @param to The index after the last node to mark
+     */
+    public void mark(int[] array, int from, int to){
+        markCount += to - from;
+        markStackPtr.pushRange(array, from, to);
     }
 
     public boolean nextIteration(){
-        if(markCount == 0) return false;
+        if(markCount == 0) {
+            iterations = 0;
+            return false;
+        }
+        if(iterations == 0) iterationLimit = LogicEngine.getIterationLimit();
+        if(oscillating || ++iterations > iterationLimit) {
+            oscillating = true;
+            markStackPtr.drop(markCount);
+            markCount = 0;
+            iterations = 0;
+            return false;
+        }
         remainCount = markCount;
         markCount = 0;
 
@@ -78,26 +129,37 @@ public class ActiveStack implements Iterator<Integer> {
         return true;
     }
 
-    @Override
     public boolean hasNext() {
         return remainCount > 0;
     }
 
-    @Override
-    public Integer next() {
+    public int next() {
         remainCount--;
         return remainStackPtr.pop();
     }
 
-    private static class LevelData{
-        public int markCount;
-        public int remainCount;
-        public boolean flip;
+    /**
+     * Tells if a level has reached the iteration limit since the last call to pollOscillation
+     * @return True if the update was stopped
+     */
+    public boolean isOscillating() {
+        return oscillating;
+    }
 
-        public LevelData(int markCount, int remainCount, boolean flip) {
-            this.remainCount = remainCount;
-            this.markCount = markCount;
-            this.flip = flip;
-        }
+    /**
+     * Tells if a level has reached the iteration limit, and allows updates to run again
+     * @return True if the update was stopped
+     */
+    public boolean pollOscillation() {
+        boolean result = oscillating;
+        oscillating = false;
+        return result;
+    }
+
+    /**
+     * Stops every level as if it had reached the iteration limit. Used when a chip that was updated on another thread oscillated.
+     */
+    void reportOscillation() {
+        oscillating = true;
     }
 }
@@ -50,6 +50,14 @@ public class BasicGateNode extends Node{
         return newSignal;
     }
 
+    /**
+     * Returns the index of the gate's function in LogicFunctions
+     * @return The function index
+     */
+    public byte getFunction(){
+        return function;
+    }
+
     @Override
     public int getNumOutputs(){
         return 1;
@@ -0,0 +1,251 @@
+package com.logic.custom;
+
+/**
+ * Updates many instances of one combinational custom chip at once. The signals of the instances are copied into a column major
+ * (structure of arrays) buffer, in which signal s of instance k is at s * n + k, and the chip is compiled to a flat list of
+ * operations that each compute one signal for every instance in a tight loop over the column. Afterwards every signal is copied
+ * back, so the instances are left in the same state as if each one had been updated by its NodeBox.
+ *
+ * Only chips made of gates, NOT gates, buffers and splitters, without feedback, can be compiled (nested chips are supported when
+ * node boxes are flattened, see CustomType.setFlattenNodeBoxes). The loops only use int arrays and simple bitwise operations, so
+ * the JIT compiler can vectorize them.
+ */
+public class BatchEvaluator {
+
+    /**
+     * Operations. The gate functions are 0-5 as in BasicGateNode, and take two operand signals. COPY copies a signal, XOR_CONST
+     * applies a NOT gate or buffer mask, SHIFT_IN and OR_SHIFT_IN put one input of a SplitInNode in place, and SHIFT_OUT takes
+     * one output of a SplitOutNode.
+     */
+    private static final int COPY = 6, XOR_CONST = 7, SHIFT_IN = 8, OR_SHIFT_IN = 9, SHIFT_OUT = 10;
+
+    /**
+     * The column buffer of each thread, which grows to fit the largest batch
+     */
+    private static final ThreadLocal<int[][]> columnBuffer = ThreadLocal.withInitial(() -> new int[1][0]);
+
+    /**
+     * The NodeBox that was compiled. Instances are only batched while it is still the NodeBox of the chip.
+     */
+    private final NodeBox2 source;
+
+    /**
+     * The operations, in groups of five: operation, result signal, first operand signal, second operand signal or constant mask,
+     * and shift
+     */
+    private final int[] program;
+
+    /**
+     * The signal address of each input
+     */
+    private final int[] inputs;
+
+    /**
+     * The signals that are written by the chip's nodes, which are copied back to the instances
+     */
+    private final int[] written;
+
+    /**
+     * The signals other than 0 that are read but never written, which are constants of the chip (see NetlistOptimizer) and are
+     * copied from the instances
+     */
+    private final int[] constants;
+
+    private final int[] outNodes;
+
+    private final int numSignals;
+
+    private BatchEvaluator(NodeBox2 source, int[] program, int[] inputs, int[] written, int[] constants, int numSignals){
+        this.source = source;
+        this.program = program;
+        this.inputs = inputs;
+        this.written = written;
+        this.constants = constants;
+        this.numSignals = numSignals;
+        outNodes = source.getOutNodes();
+    }
+
+    /**
+     * Compiles the current NodeBox of a chip
+     * @param type The chip
+     * @return The BatchEvaluator, or null if the chip has feedback, nodes that can't be batched, a truth table or cache, or a model
+     */
+    public static BatchEvaluator compile(CustomType type){
+        NodeBox2 nodeBox = type.nodeBox;
+        //a table already updates each instance with one lookup, a memoized chip is meant to be looked up, and the nodes of a
+        //model are only its inputs
+        if(nodeBox == null || nodeBox instanceof TableNodeBox || nodeBox instanceof MemoNodeBox || nodeBox instanceof ModelNodeBox) {
+            return null;
+        }
+        Node[] nodes = nodeBox.getNodes();
+        int numSignals = 1;
+        int numInputs = 0;
+        for(Node node : nodes){
+            if(node == null) return null;
+            if(node instanceof StartNode) numInputs++;
+            else if(!(node instanceof BasicGateNode || node instanceof SingleInputGateNode || node instanceof SplitInNode ||
+                    node instanceof SplitOutNode)) return null;
+            numSignals = Math.max(numSignals, node.address + node.getNumOutputs());
+            for(int address : node.in) numSignals = Math.max(numSignals, address + 1);
+        }
+        for(int i = 0; i < numInputs; i++) if(!(nodes[i] instanceof StartNode)) return null;
+        int[] levels = LCCCompiler.nodeCompile(nodes);
+        if(levels == null) return null;
+
+        IntStack code = new IntStack();
+        IntStack written = new IntStack();
+        int[] inputs = new int[numInputs];
+        for(int i = 0; i < numInputs; i++){
+            inputs[i] = nodes[i].address;
+            written.push(nodes[i].address);
+        }
+        boolean[] isWritten = new boolean[numSignals];
+        isWritten[0] = true;
+        for(int address : inputs) isWritten[address] = true;
+        for(Node node : nodes){
+            for(int o = 0; o < node.getNumOutputs(); o++) isWritten[node.address + o] = true;
+        }
+        //a signal that no node writes keeps its value in every instance, so it is loaded like an input
+        IntStack constants = new IntStack();
+        boolean[] isConstant = new boolean[numSignals];
+        for(Node node : nodes){
+            for(int address : node.in) addConstant(address, isWritten, isConstant, constants);
+        }
+        for(int address : nodeBox.getOutNodes()) addConstant(address, isWritten, isConstant, constants);
+        for(int id : levels){
+            Node node = nodes[id];
+            if(!compileNode(node, code)) return null;
+            for(int o = 0; o < node.getNumOutputs(); o++) written.push(node.address + o);
+        }
+        return new BatchEvaluator(nodeBox, toArray(code), inputs, toArray(written), toArray(constants), numSignals);
+    }
+
+    private static void addConstant(int address, boolean[] isWritten, boolean[] isConstant, IntStack constants){
+        if(isWritten[address] || isConstant[address]) return;
+        isConstant[address] = true;
+        constants.push(address);
+    }
+
+    private static int[] toArray(IntStack stack){
+        int[] array = new int[stack.size()];
+        for(int i = array.length - 1; i >= 0; i--) array[i] = stack.pop();
+        return array;
+    }
+
+    /**
+     * Adds the operations for one node, matching its updateLCC method
+     * @return False if the node can't be compiled
+     */
+    private static boolean compileNode(Node node, IntStack code){
+        if(node instanceof BasicGateNode) {
+            int function = ((BasicGateNode) node).getFunction();
+            if(node.in.length == 1) emit(code, COPY, node.address, node.in[0], 0, 0);
+            else emit(code, function, node.address, node.in[0], node.in[1], 0);
+            for(int i = 2; i < node.in.length; i++) emit(code, function, node.address, node.address, node.in[i], 0);
+        }
+        else if(node instanceof SingleInputGateNode) {
+            emit(code, XOR_CONST, node.address, node.in[0], ((SingleInputGateNode) node).getMask(), 0);
+        }
+        else if(node instanceof SplitInNode) {
+            int[] split = ((SplitInNode) node).getSplit();
+            int shift = 0;
+            for(int i = 0; i < split.length; i++){
+                emit(code, i == 0 ? SHIFT_IN : OR_SHIFT_IN, node.address, node.in[i], (1 << split[i]) - 1, shift);
+                shift += split[i];
+            }
+        }
+        else {
+            int[] split = ((SplitOutNode) node).getSplit();
+            int shift = 0;
+            for(int i = 0; i < split.length; i++){
+                //SplitOutNode shifts by each width in turn, which is the same as one shift of the total, up to 31
+                if(split[i] >= 32) return false;
+                emit(code, SHIFT_OUT, node.address + i, node.in[0], (1 << split[i]) - 1, Math.min(shift, 31));
+                shift += split[i];
+            }
+        }
+        return true;
+    }
+
+    private static void emit(IntStack code, int op, int result, int a, int b, int shift){
+        code.push(op);
+        code.push(result);
+        code.push(a);
+        code.push(b);
+        code.push(shift);
+    }
+
+    /**
+     * Tells if this BatchEvaluator was compiled from the current NodeBox of its chip
+     * @param type The chip
+     * @return False if the chip has been rebuilt since
+     */
+    public boolean isCurrent(CustomType type){
+        return type.nodeBox == source;
+    }
+
+    /**
+     * Updates every given instance, the same way as CustomNode.updateLCC. All instances must be nodes of the chip this
+     * BatchEvaluator was compiled from.
+     * @param instances The instances
+     * @param signals The signals array that holds the instances
+     * @param offset The signal address offset of the NodeBox that holds the instances
+     */
+    public void update(CustomNode[] instances, int[] signals, int offset){
+        int n = instances.length;
+        int[][] buffer = columnBuffer.get();
+        if(buffer[0].length < numSignals * n) buffer[0] = new int[numSignals * n];
+        int[] columns = buffer[0];
+        //signal 0 is the constant 0
+        for(int k = 0; k < n; k++) columns[k] = 0;
+
+        for(int i = 0; i < inputs.length; i++){
+            int column = inputs[i] * n;
+            for(int k = 0; k < n; k++) columns[column + k] = signals[offset + instances[k].in[i]];
+        }
+        for(int s : constants){
+            int column = s * n;
+            for(int k = 0; k < n; k++) columns[column + k] = signals[offset + instances[k].getInnerOffset() + s];
+        }
+        run(columns, n);
+        for(int s : written){
+            int column = s * n;
+            for(int k = 0; k < n; k++) signals[offset + instances[k].getInnerOffset() + s] = columns[column + k];
+        }
+        for(int o = 0; o < outNodes.length; o++){
+            int column = outNodes[o] * n;
+            for(int k = 0; k < n; k++) signals[offset + instances[k].address + o] = columns[column + k];
+        }
+    }
+
+    /**
+     * Runs the program on every column
+     */
+    private void run(int[] c, int n){
+        int[] p = program;
+        for(int pc = 0; pc < p.length; pc += 5){
+            int r = p[pc + 1] * n, a = p[pc + 2] * n, b = p[pc + 3] * n, m = p[pc + 3], s = p[pc + 4];
+            switch(p[pc]){
+                case 0: for(int k = 0; k < n; k++) c[r + k] = c[a + k] & c[b + k]; break;
+                case 1: for(int k = 0; k < n; k++) c[r + k] = c[a + k] | c[b + k]; break;
+                case 2: for(int k = 0; k < n; k++) c[r + k] = c[a + k] ^ c[b + k]; break;
+                case 3: for(int k = 0; k < n; k++) c[r + k] = ~(c[a + k] & c[b + k]); break;
+                case 4: for(int k = 0; k < n; k++) c[r + k] = ~(c[a + k] | c[b + k]); break;
+                case 5: for(int k = 0; k < n; k++) c[r + k] = ~(c[a + k] ^ c[b + k]); break;
+                case COPY: System.arraycopy(c, a, c, r, n); break;
+                case XOR_CONST: for(int k = 0; k < n; k++) c[r + k] = c[a + k] ^ m; break;
+                case SHIFT_IN: for(int k = 0; k < n; k++) c[r + k] = (c[a + k] & m) << s; break;
+                case OR_SHIFT_IN: for(int k = 0; k < n; k++) c[r + k] |= (c[a + k] & m) << s; break;
+                default: for(int k = 0; k < n; k++) c[r + k] = c[a + k] >> s & m; break;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of operations run for each batch
+     * @return The number of column operations
+     */
+    public int getNumOperations(){
+        return program.length / 5;
+    }
+}
@@ -0,0 +1,17 @@
+package com.logic.custom;
+
+/**
+ * The superclass of the classes generated by ChipCompiler. Each generated class updates every leveled node of one NodeBox in
+ * level order, with the node logic written out as straight line bytecode.
+ */
+public abstract class ChipCode {
+
+    /**
+     * Updates every leveled node, like LCCNodeBox does when all inputs have changed
+     * @param signals The signals array
+     * @param offset The signal address offset of the NodeBox
+     * @param nodes The nodes of the NodeBox, used for nodes that are not written out (custom chips)
+     * @param active The active stack
+     */
+    public abstract void update(int[] signals, int offset, Node[] nodes, ActiveStack active);
+}
@@ -0,0 +1,497 @@
+package com.logic.custom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns the level order of an LCCNodeBox into a generated class (see ChipCode) in which every gate and splitter is written out
+ * as straight line bytecode. Signals that are read or written more than once are kept in local variables, so each address is
+ * only read from the signals array once per update, and the JIT can compile the whole chip as a few plain methods. Nodes
+ * without a bytecode form (custom chips) are updated by calling updateLCC on the node, as in LCCNodeBox.
+ *
+ * The class file is written directly, without a bytecode library. The generated code has no branches, so it needs no stack map
+ * frames, and it is split into several methods so that each one stays small enough for the JIT to compile. Signal addresses and
+ * node ids are pushed relative to a base kept in a local variable, which is moved along as the code goes, so they always fit
+ * in a SIPUSH and large chips don't need a constant pool entry for each of them.
+ */
+public class ChipCompiler {
+
+    /**
+     * Methods are ended after this many bytes of code. HotSpot does not compile methods of more than 8000 bytes.
+     */
+    private static final int CHUNK_LIMIT = 6000;
+
+    /**
+     * The constant pool of a class file can't have more than this many entries
+     */
+    private static final int MAX_CONSTANTS = 65535;
+
+    /**
+     * The locals of a chunk method that hold offset + signalBase and nodeBase
+     */
+    private static final int SIGNAL_BASE = 4, NODE_BASE = 5;
+
+    private static final String CHIP_CODE = "com/logic/custom/ChipCode";
+    private static final String NODE = "com/logic/custom/Node";
+    private static final String CHUNK_DESCRIPTOR = "([II[L" + NODE + ";Lcom/logic/custom/ActiveStack;)V";
+
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, ILOAD = 0x15,
+            ALOAD = 0x19, IALOAD = 0x2e, AALOAD = 0x32, ISTORE = 0x36, IASTORE = 0x4f, DUP = 0x59, IADD = 0x60, ISHL = 0x78,
+            ISHR = 0x7a, IAND = 0x7e, IOR = 0x80, IXOR = 0x82, RETURN = 0xb1, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7,
+            INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+    /**
+     * Used to give every generated class a unique name
+     */
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Generates and loads the code for a levelized NodeBox
+     * @param nodes The nodes
+     * @param levels The level order
+     * @return An instance of the generated class
+     * @throws IllegalArgumentException If the chip is too large for a class file
+     */
+    public static ChipCode compile(Node[] nodes, int[] levels){
+        String name = "com/logic/custom/generated/Chip" + nextId.getAndIncrement();
+        byte[] bytes = new ChipCompiler(name, nodes).write(levels);
+        try {
+            Class<?> c = new ChipClassLoader().define(name.replace('/', '.'), bytes);
+            return (ChipCode) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Generated chip class could not be loaded", e);
+        }
+    }
+
+    /**
+     * Each generated class gets its own loader, so that the class can be unloaded when the chip is recompiled
+     */
+    private static class ChipClassLoader extends ClassLoader {
+
+        ChipClassLoader(){
+            super(ChipCode.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes){
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private final String className;
+
+    private final Node[] nodes;
+
+    private final ConstantPool pool;
+
+    /**
+     * The local variable that holds each signal address in the current method, or -1
+     */
+    private final int[] local;
+
+    /**
+     * The addresses that have a local variable in the current method
+     */
+    private final ArrayList<Integer> cached;
+
+    private Code code;
+
+    private int nextLocal;
+
+    /**
+     * The signal address and node id that the base locals of the current method point to
+     */
+    private int signalBase, nodeBase;
+
+    private ChipCompiler(String className, Node[] nodes){
+        this.className = className;
+        this.nodes = nodes;
+        pool = new ConstantPool();
+        int numSignals = 1;
+        for(Node node : nodes){
+            if(node == null) continue;
+            numSignals = Math.max(numSignals, node.address + node.getNumOutputs());
+            for(int address : node.in) numSignals = Math.max(numSignals, address + 1);
+        }
+        local = new int[numSignals];
+        Arrays.fill(local, -1);
+        cached = new ArrayList<>();
+    }
+
+    private byte[] write(int[] levels){
+        ArrayList<byte[]> methods = new ArrayList<>();
+        ArrayList<String> chunks = new ArrayList<>();
+        int i = 0;
+        while(i < levels.length || chunks.isEmpty()){
+            startMethod();
+            while(i < levels.length && code.length() < CHUNK_LIMIT) writeNode(levels[i++]);
+            code.op(RETURN);
+            String chunkName = "chunk" + chunks.size();
+            chunks.add(chunkName);
+            methods.add(method(0x000a, chunkName, CHUNK_DESCRIPTOR, 6, nextLocal, code));
+        }
+
+        //update(signals, offset, nodes, active) calls each chunk in order
+        code = new Code();
+        for(String chunkName : chunks){
+            code.aload(1);
+            code.iload(2);
+            code.aload(3);
+            code.aload(4);
+            code.op(INVOKESTATIC);
+            code.u2(pool.methodRef(className, chunkName, CHUNK_DESCRIPTOR));
+        }
+        code.op(RETURN);
+        methods.add(method(0x0001, "update", CHUNK_DESCRIPTOR, 4, 5, code));
+
+        code = new Code();
+        code.aload(0);
+        code.op(INVOKESPECIAL);
+        code.u2(pool.methodRef(CHIP_CODE, "<init>", "()V"));
+        code.op(RETURN);
+        methods.add(method(0x0001, "<init>", "()V", 1, 1, code));
+
+        return classFile(methods);
+    }
+
+    private void startMethod(){
+        for(int address : cached) local[address] = -1;
+        cached.clear();
+        code = new Code();
+        code.iload(1);
+        code.istore(SIGNAL_BASE);
+        code.pushInt(0);
+        code.istore(NODE_BASE);
+        signalBase = 0;
+        nodeBase = 0;
+        nextLocal = NODE_BASE + 1;
+    }
+
+    /**
+     * Writes the code for one node of a chunk method, whose arguments are signals (0), offset (1), nodes (2), and active (3)
+     */
+    private void writeNode(int id){
+        Node node = nodes[id];
+        if(node instanceof BasicGateNode) {
+            int function = ((BasicGateNode) node).getFunction();
+            load(node.in[0]);
+            for(int n = 1; n < node.in.length; n++){
+                load(node.in[n]);
+                code.op(function == 0 || function == 3 ? IAND : function == 1 || function == 4 ? IOR : IXOR);
+                if(function >= 3) {
+                    code.pushInt(-1);
+                    code.op(IXOR);
+                }
+            }
+            store(node.address);
+        }
+        else if(node instanceof SingleInputGateNode) {
+            load(node.in[0]);
+            if(((SingleInputGateNode) node).getMask() != 0) {
+                code.pushInt(((SingleInputGateNode) node).getMask());
+                code.op(IXOR);
+            }
+            store(node.address);
+        }
+        else if(node instanceof SplitInNode) {
+            int[] split = ((SplitInNode) node).getSplit();
+            code.pushInt(0);
+            int shift = 0;
+            for(int n = 0; n < split.length; n++){
+                load(node.in[n]);
+                code.pushInt((1 << split[n]) - 1);
+                code.op(IAND);
+                code.pushInt(shift);
+                code.op(ISHL);
+                code.op(IOR);
+                shift += split[n];
+            }
+            store(node.address);
+        }
+        else if(node instanceof SplitOutNode) {
+            int[] split = ((SplitOutNode) node).getSplit();
+            //the remaining input is shifted one field at a time, the same way SplitOutNode does
+            load(node.in[0]);
+            int input = nextLocal++;
+            code.istore(input);
+            for(int n = 0; n < split.length; n++){
+                code.iload(input);
+                code.pushInt((1 << split[n]) - 1);
+                code.op(IAND);
+                store(node.address + n);
+                code.iload(input);
+                code.pushInt(split[n]);
+                code.op(ISHR);
+                code.istore(input);
+            }
+        }
+        else {
+            //nodes[id].updateLCC(signals, offset, active)
+            code.aload(2);
+            nodeBase = pushRelative(NODE_BASE, nodeBase, id);
+            code.op(AALOAD);
+            code.aload(0);
+            code.iload(1);
+            code.aload(3);
+            code.op(INVOKEVIRTUAL);
+            code.u2(pool.methodRef(NODE, "updateLCC", "([IILcom/logic/custom/ActiveStack;)V"));
+        }
+    }
+
+    /**
+     * Pushes a signal. Address 0 is always 0, and other addresses are read from the signals array the first time and then kept in
+     * a local variable. Every address is written by one node, which comes before all nodes that read it, so the local variable
+     * can't go out of date.
+     */
+    private void load(int address){
+        if(address == 0) {
+            code.pushInt(0);
+            return;
+        }
+        if(local[address] != -1) {
+            code.iload(local[address]);
+            return;
+        }
+        code.aload(0);
+        signalBase = pushRelative(SIGNAL_BASE, signalBase, address);
+        code.op(IALOAD);
+        code.op(DUP);
+        cache(address);
+        code.istore(local[address]);
+    }
+
+    /**
+     * Pops a new signal, keeps it in a local variable, and writes it to the signals array
+     */
+    private void store(int address){
+        cache(address);
+        code.istore(local[address]);
+        code.aload(0);
+        signalBase = pushRelative(SIGNAL_BASE, signalBase, address);
+        code.iload(local[address]);
+        code.op(IASTORE);
+    }
+
+    /**
+     * Pushes a value as the value of a base local plus a difference that fits in a SIPUSH, moving the base first if it is too far
+     * from the value
+     * @param baseLocal The local that holds the base
+     * @param base The value that the base local stands for
+     * @param value The value to push
+     * @return The value that the base local stands for afterwards
+     */
+    private int pushRelative(int baseLocal, int base, int value){
+        while(value - base > Short.MAX_VALUE || value - base < Short.MIN_VALUE) {
+            int step = value > base ? Short.MAX_VALUE : Short.MIN_VALUE;
+            code.iload(baseLocal);
+            code.pushInt(step);
+            code.op(IADD);
+            code.istore(baseLocal);
+            base += step;
+        }
+        code.iload(baseLocal);
+        if(value != base) {
+            code.pushInt(value - base);
+            code.op(IADD);
+        }
+        return base;
+    }
+
+    private void cache(int address){
+        local[address] = nextLocal++;
+        cached.add(address);
+    }
+
+    private byte[] method(int access, String name, String descriptor, int maxStack, int maxLocals, Code body){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(access);
+            out.writeShort(pool.utf8(name));
+            out.writeShort(pool.utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(pool.utf8("Code"));
+            out.writeInt(12 + body.length());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(body.length());
+            body.writeTo(out);
+            out.writeShort(0);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] classFile(ArrayList<byte[]> methods){
+        int thisClass = pool.classRef(className);
+        int superClass = pool.classRef(CHIP_CODE);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(52);
+            pool.writeTo(out);
+            out.writeShort(0x0031);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for(byte[] method : methods) out.write(method);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The bytecode of one method
+     */
+    private class Code {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        void op(int opcode){
+            bytes.write(opcode);
+        }
+
+        void u2(int value){
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        void pushInt(int value){
+            if(value >= -1 && value <= 5) op(ICONST_0 + value);
+            else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                op(value & 0xff);
+            }
+            else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value & 0xffff);
+            }
+            else {
+                op(LDC_W);
+                u2(pool.integer(value));
+            }
+        }
+
+        void iload(int index){
+            localOp(ILOAD, 0x1a, index);
+        }
+
+        void istore(int index){
+            localOp(ISTORE, 0x3b, index);
+        }
+
+        void aload(int index){
+            localOp(ALOAD, 0x2a, index);
+        }
+
+        /**
+         * Writes a load or store, using the short forms for locals 0 to 3 and the wide form for locals above 255
+         */
+        private void localOp(int opcode, int shortForm, int index){
+            if(index <= 3) op(shortForm + index);
+            else if(index <= 0xff) {
+                op(opcode);
+                op(index);
+            }
+            else {
+                op(WIDE);
+                op(opcode);
+                u2(index);
+            }
+        }
+
+        int length(){
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * The constant pool of the generated class. Equal constants share an entry.
+     */
+    private static class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private final Map<String, Integer> entries = new HashMap<>();
+
+        private int count = 1;
+
+        int utf8(String value){
+            return entry("U" + value, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int integer(int value){
+            return entry("I" + value, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        int classRef(String name){
+            int nameIndex = utf8(name);
+            return entry("C" + name, () -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        int methodRef(String owner, String name, String descriptor){
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + " " + descriptor, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("M" + owner + "." + name + descriptor, () -> {
+                out.writeByte(10);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String key, Writer writer){
+            Integer index = entries.get(key);
+            if(index != null) return index;
+            if(count >= MAX_CONSTANTS) throw new IllegalArgumentException("The chip is too large for a generated class");
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+
+        void writeTo(DataOutputStream classOut) throws IOException {
+            classOut.writeShort(count);
+            bytes.writeTo(classOut);
+        }
+
+        private interface Writer {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.logic.custom;
+
+import com.logic.components.*;
+import com.logic.engine.LogicEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * A top level circuit lowered to the same node and signal representation that CustomType uses for custom chips. Gates,
+ * splitters and custom chips get specialized nodes, and every other component is wrapped in a ComponentNode. After each
+ * call to doLogic, the signals are copied back to the output connections so that rendering and event mode see the same state.
+ *
+ * A levelized circuit updates every node once per pass in the order computed by LCCCompiler.compile, instead of marking the
+ * nodes that are affected by each change. This is only possible when the circuit has no feedback, so levelizing falls back
+ * to event driven updates if compile returns null.
+ */
+public class CompiledCircuit implements SimulatedCircuit {
+
+    /**
+     * The index of components that do not need a node (lights and labels) in nbIndex
+     */
+    private static final int NO_NODE = -1;
+
+    /**
+     * Maps components to their index in the nodes array, or NO_NODE
+     */
+    private final Map<LComponent, Integer> nbIndex;
+
+    /**
+     * Maps components to the address of their first output in the signals array
+     */
+    private final Map<LComponent, Integer> sigIndex;
+
+    private Node[] nodes;
+
+    /**
+     * All output signals in the circuit. signals[0] is always 0, and empty inputs point to this address.
+     */
+    private int[] signals;
+
+    /**
+     * The output connection that each address in the signals array corresponds to
+     */
+    private OutputPin[] pins;
+
+    /**
+     * The node that owns each address in the signals array
+     */
+    private int[] addrNode;
+
+    private final ActiveStack active;
+
+    /**
+     * The order in which the nodes are updated in a levelized circuit, or null if the circuit is event driven
+     */
+    private int[] levels;
+
+    /**
+     * True for each node that appears in levels. Other nodes (inputs) are only updated when they are given to doLogic.
+     */
+    private boolean[] leveled;
+
+    /**
+     * The components that were oscillating when the last call to doLogic was stopped
+     */
+    private final ArrayList<LComponent> oscillating;
+
+    public CompiledCircuit(Collection<LComponent> lcomps){
+        this(lcomps, false);
+    }
+
+    /**
+     * Compiles the given components
+     * @param lcomps The components in the circuit
+     * @param levelize True to use levelized updates if the circuit has no feedback
+     */
+    public CompiledCircuit(Collection<LComponent> lcomps, boolean levelize){
+        nbIndex = new HashMap<>();
+        sigIndex = new HashMap<>();
+        active = new ActiveStack();
+        oscillating = new ArrayList<>();
+        init(lcomps);
+        if(levelize) levelize(lcomps);
+    }
+
+    /**
+     * Builds the nodes and the signals array. Current signals are read from the output connections.
+     * @param lcomps The components in the circuit
+     */
+    private void init(Collection<LComponent> lcomps){
+        ArrayList<LComponent> nodeComps = new ArrayList<>();
+        int sigLength = 1;
+        for(LComponent lcomp : lcomps){
+            if(lcomp instanceof Light || lcomp instanceof UserLabel) {
+                nbIndex.put(lcomp, NO_NODE);
+                continue;
+            }
+            nbIndex.put(lcomp, nodeComps.size());
+            sigIndex.put(lcomp, sigLength);
+            nodeComps.add(lcomp);
+            sigLength += lcomp.getIO().getNumOutputs();
+        }
+
+        nodes = new Node[nodeComps.size()];
+        signals = new int[sigLength];
+        pins = new OutputPin[sigLength];
+        addrNode = new int[sigLength];
+        for(int i = 0; i < nodes.length; i++){
+            LComponent lcomp = nodeComps.get(i);
+            int address = sigIndex.get(lcomp);
+            IOManager io = lcomp.getIO();
+            for(int o = 0; o < io.getNumOutputs(); o++){
+                pins[address + o] = io.outputConnection(o);
+                signals[address + o] = io.outputConnection(o).getSignal();
+                addrNode[address + o] = i;
+            }
+            nodes[i] = makeNode(lcomp, getNodeIn(lcomp), getMarkList(lcomp), address);
+        }
+    }
+
+    private void levelize(Collection<LComponent> lcomps){
+        levels = LCCCompiler.compile(new ArrayList<>(lcomps), nbIndex);
+        if(levels == null) return;
+        leveled = new boolean[nodes.length];
+        for(int i : levels) leveled[i] = true;
+    }
+
+    private Node makeNode(LComponent lcomp, int[] in, int[][] mark, int address){
+        if(lcomp instanceof BasicGate) return new BasicGateNode(in, mark, address, lcomp.getType());
+        else if(lcomp instanceof SingleInputGate) return new SingleInputGateNode(in, mark, address, lcomp.getType());
+        else if(lcomp instanceof SplitIn) return new SplitInNode(in, mark, address, ((SplitIn) lcomp).getSplit());
+        else if(lcomp instanceof SplitOut) return new SplitOutNode(in, mark, address, ((SplitOut) lcomp).getSplit());
+        else if(lcomp instanceof OpCustom2) return new OpCustomNode(in, mark, address, (OpCustom2) lcomp);
+        else return new ComponentNode(in, mark, address, lcomp, getSources(lcomp));
+    }
+
+    /**
+     * Updates the given components and everything they influence, then copies the new signals back to the output connections.
+     * The given components must already be part of this circuit (see refresh). Like LogicEngine.doLogic, the update is stopped if
+     * it reaches the iteration limit or a custom chip oscillates, and the oscillating components are available from getOscillating.
+     * @param startingComps The components to update first
+     * @return The number of iterations it took to complete the logic, or LogicEngine.OSCILLATION if it was stopped
+     */
+    @Override
+    public int doLogic(Collection<LComponent> startingComps){
+        oscillating.clear();
+        if(levels != null) return doLevelizedLogic(startingComps);
+        int[] start = new int[startingComps.size()];
+        int numStart = 0;
+        for(LComponent lcomp : startingComps){
+            int id = nbIndex.get(lcomp);
+            if(id != NO_NODE) start[numStart++] = id;
+        }
+        active.mark(numStart == start.length ? start : Arrays.copyOf(start, numStart));
+
+        int watchFrom = Math.max(0, LogicEngine.getIterationLimit() - LogicEngine.OSCILLATION_WINDOW);
+        boolean[] watched = null;
+        int culprit = NO_NODE;
+        int iterations = 0;
+        while(active.nextIteration()) {
+            if(iterations >= watchFrom && watched == null) watched = new boolean[nodes.length];
+            while(active.hasNext()) {
+                int id = active.next();
+                nodes[id].updateEvent(signals, 0, active);
+                if(watched != null) watched[id] = true;
+                if(culprit == NO_NODE && active.isOscillating()) culprit = id;
+            }
+            iterations++;
+        }
+        writeBack();
+        if(!active.pollOscillation()) return iterations;
+
+        //a custom chip that oscillated on its own is reported by itself, and otherwise the loop is found among the nodes that
+        //changed just before the limit
+        int first = culprit;
+        boolean[] changing = watched;
+        if(first != NO_NODE) oscillating.addAll(getComponents(id -> id == first));
+        else oscillating.addAll(LogicEngine.findLoops(getComponents(id -> changing != null && changing[id])));
+        return LogicEngine.OSCILLATION;
+    }
+
+    /**
+     * Updates the given inputs, then updates every leveled node once in level order
+     * @param startingComps The components that changed
+     * @return Always 1, or LogicEngine.OSCILLATION if a custom chip oscillated
+     */
+    private int doLevelizedLogic(Collection<LComponent> startingComps){
+        for(LComponent lcomp : startingComps){
+            int id = nbIndex.get(lcomp);
+            if(id != NO_NODE && !leveled[id]) nodes[id].updateLCC(signals, 0, active);
+        }
+        int culprit = NO_NODE;
+        for(int i : levels){
+            nodes[i].updateLCC(signals, 0, active);
+            if(culprit == NO_NODE && active.isOscillating()) culprit = i;
+        }
+        writeBack();
+        if(!active.pollOscillation()) return 1;
+        int first = culprit;
+        oscillating.addAll(getComponents(id -> id == first));
+        return LogicEngine.OSCILLATION;
+    }
+
+    /**
+     * Returns the components whose nodes are accepted by the given filter
+     */
+    ArrayList<LComponent> getComponents(IntPredicate filter){
+        ArrayList<LComponent> lcomps = new ArrayList<>();
+        for(Map.Entry<LComponent, Integer> entry : nbIndex.entrySet()){
+            if(entry.getValue() != NO_NODE && filter.test(entry.getValue())) lcomps.add(entry.getKey());
+        }
+        return lcomps;
+    }
+
+    /**
+     * Returns the components that were oscillating when the last call to doLogic was stopped
+     * @return The oscillating components, which is empty if the last update was not stopped
+     */
+    @Override
+    public ArrayList<LComponent> getOscillating(){
+        return oscillating;
+    }
+
+    /**
+     * Copies every signal to its output connection
+     */
+    void writeBack(){
+        //nodes don't clear the unused high bits of their outputs (a 1 bit NOT gate outputs -1 for 0), so the signals are masked
+        //the same way as setOutputStrict
+        for(int i = 1; i < signals.length; i++) pins[i].setSignal(signals[i] & (1 << pins[i].getBitWidth()) - 1);
+    }
+
+    /**
+     * Tells if the given component was part of the circuit when it was compiled
+     * @param lcomp The component
+     * @return True if the component has been compiled
+     */
+    @Override
+    public boolean contains(LComponent lcomp){
+        return nbIndex.containsKey(lcomp);
+    }
+
+    /**
+     * Brings the node for the given component up to date after the user has edited its input wires. Only the node itself and the
+     * mark lists of its old and new sources are changed. If the change can't be handled locally (the component or one of its
+     * sources is new, or its number of outputs changed), nothing is changed and the circuit must be recompiled. A levelized
+     * circuit must always be recompiled when its wires change, since the level order may no longer be valid.
+     * @param lcomp The component that may have been edited
+     * @return False if the circuit must be recompiled
+     */
+    @Override
+    public boolean refresh(LComponent lcomp){
+        Integer id = nbIndex.get(lcomp);
+        if(id == null) return false;
+        if(id == NO_NODE) return true;
+        Node node = nodes[id];
+        IOManager io = lcomp.getIO();
+        if(io.getNumOutputs() != node.mark.length) return false;
+
+        for(int n = 0; n < io.getNumInputs(); n++){
+            InputPin inputPin = io.inputConnection(n);
+            OutputPin source = inputPin.numWires() > 0 ? inputPin.getWire().getSourceConnection() : null;
+            if(source != null && !sigIndex.containsKey(source.getLcomp())) return false;
+        }
+        int[] newIn = getNodeIn(lcomp);
+        if(sameInputs(node.in, newIn)) return true;
+        if(levels != null) return false;
+
+        for(int address : node.in) if(address != 0) removeMark(address, id);
+        for(int address : newIn) if(address != 0) addMark(address, id);
+        if(newIn.length == node.in.length && !(node instanceof ComponentNode)) System.arraycopy(newIn, 0, node.in, 0, newIn.length);
+        else {
+            nodes[id] = makeNode(lcomp, newIn, node.mark, node.address);
+        }
+        return true;
+    }
+
+    private boolean sameInputs(int[] in, int[] newIn){
+        if(in.length != newIn.length) return false;
+        for(int i = 0; i < in.length; i++) if(in[i] != newIn[i]) return false;
+        return true;
+    }
+
+    private void addMark(int address, int id){
+        Node source = nodes[addrNode[address]];
+        int output = address - source.address;
+        int[] oldMark = source.mark[output];
+        int[] newMark = Arrays.copyOf(oldMark, oldMark.length + 1);
+        newMark[oldMark.length] = id;
+        source.mark[output] = newMark;
+    }
+
+    private void removeMark(int address, int id){
+        Node source = nodes[addrNode[address]];
+        int output = address - source.address;
+        int[] oldMark = source.mark[output];
+        for(int i = 0; i < oldMark.length; i++){
+            if(oldMark[i] != id) continue;
+            int[] newMark = new int[oldMark.length - 1];
+            System.arraycopy(oldMark, 0, newMark, 0, i);
+            System.arraycopy(oldMark, i + 1, newMark, i, newMark.length - i);
+            source.mark[output] = newMark;
+            return;
+        }
+    }
+
+    private int[] getNodeIn(LComponent lcomp){
+        IOManager io = lcomp.getIO();
+        int[] in = new int[io.getNumInputs()];
+        for(int n = 0; n < in.length; n++){
+            InputPin inputPin = io.inputConnection(n);
+            OutputPin source = inputPin.numWires() > 0 ? inputPin.getWire().getSourceConnection() : null;
+            //wires that are still being built by the user have no source yet
+            if(source != null) in[n] = sigIndex.get(source.getLcomp()) + source.getIndex();
+            else in[n] = 0;
+        }
+        return in;
+    }
+
+    private OutputPin[] getSources(LComponent lcomp){
+        IOManager io = lcomp.getIO();
+        OutputPin[] sources = new OutputPin[io.getNumInputs()];
+        for(int n = 0; n < sources.length; n++){
+            InputPin inputPin = io.inputConnection(n);
+            if(inputPin.numWires() > 0) sources[n] = inputPin.getWire().getSourceConnection();
+            if(sources[n] != null && !sigIndex.containsKey(sources[n].getLcomp())) sources[n] = null;
+        }
+        return sources;
+    }
+
+    private int[][] getMarkList(LComponent lcomp){
+        IOManager io = lcomp.getIO();
+        int[][] mark = new int[io.getNumOutputs()][];
+        for(int n = 0; n < io.getNumOutputs(); n++){
+            OutputPin outputPin = io.outputConnection(n);
+
+            ArrayList<Integer> connected = new ArrayList<>();
+            for(int w = 0; w < outputPin.numWires(); w++){
+                InputPin dest = outputPin.getWire(w).getDestConnection();
+                if(dest == null) continue;
+                Integer id = nbIndex.get(dest.getLcomp());
+                if(id != null && id != NO_NODE) connected.add(id);
+            }
+
+            mark[n] = new int[connected.size()];
+            for(int o = 0; o < mark[n].length; o++) mark[n][o] = connected.get(o);
+        }
+        return mark;
+    }
+
+    /**
+     * Tells if the circuit is updated in level order
+     * @return False if the circuit is event driven, either because it was not levelized or because it has feedback
+     */
+    public boolean isLevelized(){
+        return levels != null;
+    }
+
+    public Node[] getNodes(){
+        return nodes;
+    }
+
+    public int getNumSignals(){
+        return signals.length;
+    }
+
+    int[] getSignals(){
+        return signals;
+    }
+
+    /**
+     * Returns the node that owns each address in the signals array
+     */
+    int[] getAddrNode(){
+        return addrNode;
+    }
+
+    /**
+     * Returns the index of a component's node
+     * @param lcomp The component
+     * @return The index in the nodes array, or -1 if the component doesn't have a node or is not part of the circuit
+     */
+    int getNodeIndex(LComponent lcomp){
+        Integer id = nbIndex.get(lcomp);
+        return id == null ? NO_NODE : id;
+    }
+
+    ActiveStack getActive(){
+        return active;
+    }
+}
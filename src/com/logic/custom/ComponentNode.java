@@ -0,0 +1,83 @@
+package com.logic.custom;
+
+import com.logic.components.IOManager;
+import com.logic.components.LComponent;
+import com.logic.components.OutputPin;
+import com.logic.engine.LogicEngine;
+
+/**
+ * Wraps an LComponent that has no specialized Node (inputs, clocks, RAM, ROM, screens, etc.) so that it can take part in a
+ * compiled top level circuit. The input wires of the component are brought up to date from the signals array, the component is
+ * updated normally, and any output that changed is copied back into the signals array.
+ */
+public class ComponentNode extends Node{
+
+    private final LComponent lcomp;
+
+    /**
+     * The output connections that feed each input of the component, or null for empty inputs
+     */
+    private final OutputPin[] sources;
+
+    /**
+     * Receives the marks made by the component, which are discarded after each update
+     */
+    private final LogicEngine engine;
+
+    public ComponentNode(int[] in, int[][] mark, int address, LComponent lcomp, OutputPin[] sources){
+        super(in, mark, address);
+        this.lcomp = lcomp;
+        this.sources = sources;
+        engine = new LogicEngine();
+    }
+
+    @Override
+    public void updateEvent(int[] signals, int offset, ActiveStack active) {
+        for(int i = 0; i < in.length; i++){
+            if(sources[i] != null) sources[i].setSignal(signals[in[i] + offset] & (1 << sources[i].getBitWidth()) - 1);
+        }
+        //the component marks its own wires as usual, but those marks are not needed here
+        lcomp.update(engine);
+        engine.clear();
+
+        IOManager io = lcomp.getIO();
+        for(int i = 0; i < io.getNumOutputs(); i++){
+            int index = address + offset + i;
+            int newSignal = io.outputConnection(i).getSignal();
+            if(newSignal == signals[index]) continue;
+            signals[index] = newSignal;
+            active.mark(mark[i]);
+        }
+    }
+
+    @Override
+    public void updateLCC(int[] signals, int offset, ActiveStack active) {
+        for(int i = 0; i < in.length; i++){
+            if(sources[i] != null) sources[i].setSignal(signals[in[i] + offset] & (1 << sources[i].getBitWidth()) - 1);
+        }
+        lcomp.update(engine);
+        engine.clear();
+
+        IOManager io = lcomp.getIO();
+        for(int i = 0; i < io.getNumOutputs(); i++) signals[address + offset + i] = io.outputConnection(i).getSignal();
+    }
+
+    public LComponent getLcomp(){
+        return lcomp;
+    }
+
+    @Override
+    public int getNumOutputs(){
+        return lcomp.getIO().getNumOutputs();
+    }
+
+    /**
+     * The copy wraps the same component, which keeps its own state, so only one of the two should be updated
+     */
+    @Override
+    public Node makeCopyWithOffset(int sigOffset, int nodeOffset){
+        int[] newIn = new int[in.length];
+        for(int i = 0; i < newIn.length; i++) newIn[i] = in[i] + sigOffset;
+        return new ComponentNode(newIn, copyMarkWithOffset(nodeOffset), address + sigOffset, lcomp, sources);
+    }
+}
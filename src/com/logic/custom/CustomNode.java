@@ -19,15 +19,14 @@ public class CustomNode extends Node{
 
     @Override
     public void updateEvent(int[] signals, int offset, ActiveStack active){
-        int[] inputs = new int[in.length];
-        for(int i = 0; i < inputs.length; i++) inputs[i] = signals[offset + in[i]];
-
+        NodeBox2 nodeBox = type.nodeBox;
+        int innerAddress = offset + innerOffset;
         active.startInner();
-        int[] outputs = type.nodeBox.update(signals, inputs, offset + innerOffset, active);
+        nodeBox.update(signals, innerAddress, signals, in, offset, active);
         active.finishInner();
-        for(int i = 0; i < outputs.length; i++){
+        for(int i = 0; i < mark.length; i++){
             int index = address + offset + i;
-            int newSignal = outputs[i];
+            int newSignal = nodeBox.getOutput(signals, innerAddress, i);
             int oldSignal = signals[index];
             if(newSignal == oldSignal) continue;
             signals[index] = newSignal;
@@ -37,11 +36,10 @@ public class CustomNode extends Node{
 
     @Override
     public void updateLCC(int[] signals, int offset, ActiveStack active) {
-        int[] inputs = new int[in.length];
-        for(int i = 0; i < inputs.length; i++) inputs[i] = signals[offset + in[i]];
-
-        int[] outputs = type.nodeBox.update(signals, inputs, offset + innerOffset, active);
-        for(int i = 0; i < outputs.length; i++) signals[address + offset + i] = outputs[i];
+        NodeBox2 nodeBox = type.nodeBox;
+        int innerAddress = offset + innerOffset;
+        nodeBox.update(signals, innerAddress, signals, in, offset, active);
+        for(int i = 0; i < mark.length; i++) signals[address + offset + i] = nodeBox.getOutput(signals, innerAddress, i);
     }
 
     public CustomType getType(){
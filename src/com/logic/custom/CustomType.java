@@ -6,8 +6,11 @@ import com.logic.util.Constants;
 import com.logic.util.CustomHelper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class CustomType {
 
@@ -36,6 +39,92 @@ public class CustomType {
      */
     public NodeBox2 nodeBox;
 
+    /**
+     * The nodes that the chip was compiled to, with one node per component. The IDs in nbIndex refer to this array. Unless the
+     * type is flattened, these are also the nodes in nodeBox.
+     */
+    private Node[] nodes;
+
+    /**
+     * The output addresses of the unoptimized nodes. The NodeBox may read its outputs from other addresses (see NetlistOptimizer).
+     */
+    private int[] outNodes;
+
+    /**
+     * The optimization that produced the nodes of nodeBox, or null if the type is not optimized
+     */
+    private NetlistOptimizer netlist;
+
+    /**
+     * True if nested custom chips are inlined into nodeBox (see flatten)
+     */
+    private boolean flattened;
+
+    /**
+     * True if nodeBox is packed when the chip has feedback, or when bytecode is not used
+     */
+    private boolean packed;
+
+    /**
+     * True if nodeBox runs generated bytecode when the chip has no feedback (see ChipCompiler)
+     */
+    private boolean bytecode;
+
+    /**
+     * True if nodeBox is built from nodes simplified by a NetlistOptimizer
+     */
+    private boolean optimized;
+
+    /**
+     * True if nodeBox is a TableNodeBox when the chip is combinational and small enough
+     */
+    private boolean tabled;
+
+    /**
+     * True if nodeBox is a MemoNodeBox when the chip is combinational and too large for a table
+     */
+    private boolean memoized;
+
+    /**
+     * The structural fingerprint of the chip (see getFingerprint), or null if it has not been computed since the chip was built
+     */
+    private String fingerprint;
+
+    /**
+     * True if types should be compiled to packed NodeBoxes (see PackedNodeBox) instead of NodeBoxes of Node objects
+     */
+    private static volatile boolean packedNodeBoxes = false;
+
+    /**
+     * True if types should be compiled with their nested custom chips inlined
+     */
+    private static volatile boolean flattenNodeBoxes = false;
+
+    /**
+     * True if types without feedback should be compiled to bytecode
+     */
+    private static volatile boolean bytecodeNodeBoxes = false;
+
+    /**
+     * True if types should be compiled with a NetlistOptimizer
+     */
+    private static volatile boolean optimizeNodeBoxes = false;
+
+    /**
+     * True if small combinational types should be compiled to truth tables
+     */
+    private static volatile boolean tableNodeBoxes = false;
+
+    /**
+     * True if combinational types that are too large for a table should be memoized
+     */
+    private static volatile boolean memoNodeBoxes = false;
+
+    /**
+     * True if a line is printed for every type that is compiled, which is only useful for debugging
+     */
+    private static volatile boolean compileLogging = false;
+
     /**
      * The custom chip label
      */
@@ -77,8 +166,9 @@ public class CustomType {
     private boolean didModify = false;
 
     /**
-     * Each int[] corresponds to an individual clock nested at any level in the custom chip. Each int[] has the the format
-     * {clock delay, ID in enclosing NodeBox, innermost spIndex, ...outermost spIndex}
+     * Each int[] corresponds to an individual clock nested at any level in the custom chip. Each clock is a hidden input of the
+     * NodeBox that comes after the inputs for the switches (see init), and each int[] has the format
+     * {clock delay, ID of the input node, address of the input node's signal}
      */
     public final ArrayList<int[]> clocks;
 
@@ -121,9 +211,34 @@ public class CustomType {
         int[] numConnect = mapIO(content, nbIndex, sigIndex, lightIndex, nodeComps);
         int sigLength = numConnect[0] + 1;
         customs = new ArrayList<>();
+        clocks.clear();
+
+        /*Clocks become input nodes that come right after the switches, so that every kind of NodeBox sees a clock tick as an
+        input change. A nested chip gets an input node here for each clock inside of it, which is passed on to the chip as an
+        extra input after its real inputs.*/
+        Map<OpCustom2, Integer> nestedClockIndex = new HashMap<>();
+        for(LComponent lcomp : lcomps){
+            if(lcomp instanceof Clock) {
+                nbIndex.put(lcomp, nodeComps.size());
+                sigIndex.put(lcomp, sigLength);
+                clocks.add(new int[] {((Clock) lcomp).getDelay(), nodeComps.size(), sigLength});
+                nodeComps.add(lcomp);
+                sigLength++;
+            }
+            else if(lcomp instanceof OpCustom2) {
+                ArrayList<int[]> innerClocks = ((OpCustom2) lcomp).getCustomType().clocks;
+                if(!innerClocks.isEmpty()) nestedClockIndex.put((OpCustom2) lcomp, nodeComps.size());
+                for(int[] clock : innerClocks){
+                    clocks.add(new int[] {clock[0], nodeComps.size(), sigLength});
+                    nodeComps.add(lcomp);
+                    sigLength++;
+                }
+            }
+        }
+        int numStartNodes = nodeComps.size();
 
         for (LComponent lcomp : lcomps) {
-            if(lcomp instanceof Light || lcomp instanceof Switch) continue;
+            if(lcomp instanceof Light || lcomp instanceof Switch || lcomp instanceof Clock) continue;
             if(lcomp instanceof OpCustom2) customs.add((OpCustom2) lcomp);
             nbIndex.put(lcomp, nodeComps.size());
             sigIndex.put(lcomp, sigLength);
@@ -146,6 +261,14 @@ public class CustomType {
 
         for(int i = 0; i < nodes.length; i++){
             LComponent lcomp = nodeComps.get(i);
+            if(lcomp instanceof OpCustom2 && i < numStartNodes) {
+                //the input for a clock inside of a nested chip, which starts with the value that the chip already has
+                OpCustom2 custom = (OpCustom2) lcomp;
+                int[] clock = custom.getCustomType().clocks.get(i - nestedClockIndex.get(custom));
+                signals[i + 1] = custom.getSignals()[clock[2]];
+                nodes[i] = new StartNode(new int[0], new int[][] {{nbIndex.get(custom)}}, i + 1);
+                continue;
+            }
             int[] in = getNodeIn(lcomp, sigIndex);
             int[][] mark = getMarkList(lcomp, nbIndex, sigIndex, lightIndex, outNodes);
             int address = sigIndex.get(lcomp);
@@ -154,28 +277,527 @@ public class CustomType {
 
             if(lcomp instanceof BasicGate) nodes[i] = new BasicGateNode(in, mark, address, lcomp.getType());
             else if(lcomp instanceof SingleInputGate) nodes[i] = new SingleInputGateNode(in, mark, address, lcomp.getType());
-            else if(lcomp instanceof Switch) nodes[i] = new StartNode(in, mark, address);
+            else if(lcomp instanceof Switch || lcomp instanceof Clock) nodes[i] = new StartNode(in, mark, address);
             else if(lcomp instanceof SplitIn) nodes[i] = new SplitInNode(in, mark, address, ((SplitIn) lcomp).getSplit());
             else if(lcomp instanceof SplitOut) nodes[i] = new SplitOutNode(in, mark, address, ((SplitOut) lcomp).getSplit());
-            else if(lcomp instanceof Clock) {
-                //TODO clocks inside custom chips are currently not supported. Create node and add to clock list.
-            }
             else if(lcomp instanceof OpCustom2) {
                 OpCustom2 custom = (OpCustom2) lcomp;
                 int nestedOffset = nestedIndex.get(custom);
                 int[] innerSignals = custom.getSignals();
+                Integer firstClock = nestedClockIndex.get(custom);
+                if(firstClock != null) {
+                    int numInputs = in.length;
+                    in = Arrays.copyOf(in, numInputs + custom.getCustomType().clocks.size());
+                    for(int n = numInputs; n < in.length; n++) in[n] = firstClock + n - numInputs + 1;
+                }
                 nodes[i] = new CustomNode(in, mark, address, custom.getCustomType(), nestedOffset);
                 System.arraycopy(innerSignals, 0, signals, nestedOffset, innerSignals.length);
-                //TODO add all clocks inside the inner custom component to the clock list
             }
             else nodes[i] = new PlaceholderNode(in, mark, address, lcomp.getType());
         }
 
         defaultSignals = signals;
+        this.nodes = nodes;
+        this.outNodes = outNodes;
+        fingerprint = null;
+        flattened = flattenNodeBoxes && !customs.isEmpty();
+        packed = packedNodeBoxes;
+        bytecode = bytecodeNodeBoxes;
+        optimized = optimizeNodeBoxes;
+        tabled = tableNodeBoxes;
+        memoized = memoNodeBoxes;
+        Node[] boxNodes = flattened ? flatten() : nodes;
+        nodeBox = makeNodeBox(boxNodes, outNodes);
+        if(compileLogging) {
+            String mode = nodeBox instanceof ModelNodeBox ? "MODEL (" + nodeBox.getClass().getName() + ")" :
+                    nodeBox instanceof TableNodeBox ? "ON (table of " + ((TableNodeBox) nodeBox).getTableSize() + ")" :
+                    nodeBox instanceof MemoNodeBox ? "ON (memoized)" :
+                    nodeBox instanceof BytecodeNodeBox ? "ON (bytecode)" :
+                    nodeBox instanceof LCCNodeBox || nodeBox instanceof PackedLCCNodeBox ? "ON" :
+                    nodeBox instanceof HybridNodeBox ? "HYBRID (" + ((HybridNodeBox) nodeBox).getNumLoops() + " loops)" :
+                    nodeBox instanceof PackedHybridNodeBox ? "HYBRID (" + ((PackedHybridNodeBox) nodeBox).getNumLoops() + " loops)" : "OFF";
+            System.out.println("Compiling " + label + ", LCC " + mode + (flattened ? ", flattened to " + boxNodes.length + " nodes" : "") +
+                    (netlist != null ? ", optimized " + netlist.getReport() : ""));
+        }
+    }
+
+    /**
+     * Chooses the NodeBox for the given nodes, which is the behavioral model of the chip if one is registered for its fingerprint
+     * and matches the NodeBox of its gates (see ModelRegistry). The model's state is initialized in defaultSignals.
+     */
+    private NodeBox2 makeNodeBox(Node[] nodes, int[] outNodes){
+        NodeBox2 gates = makeGateNodeBox(nodes, outNodes);
+        ModelNodeBox model = ModelRegistry.choose(this, gates);
+        if(model == null) return gates;
+        //the model keeps its state in the signals of the gates, so nothing is left to restore
+        netlist = null;
+        model.initialize(defaultSignals, 0);
+        return model;
+    }
+
+    /**
+     * Chooses the NodeBox for the gates of the given nodes. Chips without feedback are levelized. Combinational chips with few
+     * enough input bits are compiled to a truth table, and larger ones are memoized if memoization is enabled. Other chips without feedback
+     * are compiled to bytecode if it is enabled. Chips with feedback use a HybridNodeBox, which levelizes everything outside of the feedback loops, unless the whole
+     * chip is one loop, in which case they are event driven. Packed NodeBoxes use the same update order as the others. If the
+     * type is optimized, the nodes are simplified first, which writes the constants it finds to defaultSignals.
+     */
+    private NodeBox2 makeGateNodeBox(Node[] nodes, int[] outNodes){
+        netlist = optimized ? new NetlistOptimizer(nodes, outNodes, defaultSignals) : null;
+        if(netlist != null) {
+            nodes = netlist.getNodes();
+            outNodes = netlist.getOutNodes();
+        }
         int[] levels = LCCCompiler.nodeCompile(nodes);
-        boolean lccMode = levels != null;
-        System.out.println("Compiling " + label + ", LCC " + (lccMode ? "ON" : "OFF"));
-        nodeBox = lccMode ? new LCCNodeBox(nodes, outNodes, levels) : new EventNodeBox(nodes, outNodes);
+        if((tabled || memoized) && levels != null && clocks.isEmpty() && nestedCombinational()) {
+            int[] widths = inputWidths();
+            if(tabled && TableNodeBox.fits(widths, outNodes.length)) return new TableNodeBox(nodes, outNodes, levels, widths, defaultSignals);
+            if(memoized && MemoNodeBox.fits(widths)) return new MemoNodeBox(nodes, outNodes, levels, widths);
+        }
+        if(bytecode && levels != null) {
+            try {
+                return new BytecodeNodeBox(nodes, outNodes, levels);
+            } catch (RuntimeException | LinkageError e) {
+                //too large for a class file, or rejected by the JVM. The interpreted NodeBoxes below do the same thing
+            }
+        }
+        if(levels != null) return packed ? new PackedLCCNodeBox(nodes, outNodes, levels) : new LCCNodeBox(nodes, outNodes, levels);
+        int[] component = LCCCompiler.condense(nodes);
+        if(component == null) return packed ? new PackedEventNodeBox(nodes, outNodes) : new EventNodeBox(nodes, outNodes);
+        return packed ? new PackedHybridNodeBox(nodes, outNodes, component) : new HybridNodeBox(nodes, outNodes, component);
+    }
+
+    /**
+     * Tells if the outputs of this type depend only on its current inputs, which is true if it has no feedback, no clocks, and
+     * only combinational chips nested inside of it
+     * @return True if the type is combinational
+     */
+    public boolean isCombinational(){
+        boolean leveled = nodeBox instanceof LCCNodeBox || nodeBox instanceof PackedLCCNodeBox || nodeBox instanceof TableNodeBox;
+        return leveled && clocks.isEmpty() && nestedCombinational();
+    }
+
+    private boolean nestedCombinational(){
+        for(OpCustom2 custom : customs) if(!custom.getCustomType().isCombinational()) return false;
+        return true;
+    }
+
+    /**
+     * Returns the bit width of each input, in the order of the input nodes
+     */
+    int[] inputWidths(){
+        IntStack widths = new IntStack();
+        for(int s = Constants.RIGHT; s <= Constants.UP; s++){
+            if(content[s] == null) continue;
+            for(LComponent lcomp : content[s]){
+                if(lcomp instanceof Switch) widths.push(lcomp.getIO().outputConnection(0).getBitWidth());
+            }
+        }
+        int[] result = new int[widths.size()];
+        for(int i = result.length - 1; i >= 0; i--) result[i] = widths.pop();
+        return result;
+    }
+
+    /**
+     * Switches this type and every type nested inside of it between packed and object NodeBoxes. The nodes and signals are not
+     * changed, so this can be done at any time.
+     * @param packed True to use packed NodeBoxes
+     */
+    public void setPacked(boolean packed){
+        setPacked(packed, new HashSet<>());
+    }
+
+    private void setPacked(boolean packed, Set<CustomType> visited){
+        //nested types are shared by every chip that contains them, so each one is only visited once
+        if(!visited.add(this)) return;
+        for(OpCustom2 custom : customs) custom.getCustomType().setPacked(packed, visited);
+        if(packed == this.packed) return;
+        this.packed = packed;
+        buildNodeBox();
+    }
+
+    /**
+     * Tells if this type uses packed NodeBoxes
+     * @return True if the NodeBox is packed, or would be packed if bytecode were not used
+     */
+    public boolean isPacked(){
+        return packed;
+    }
+
+    /**
+     * Chooses whether types that are compiled from now on use packed NodeBoxes. Existing types must be changed with setPacked.
+     * @param packed True to use packed NodeBoxes
+     */
+    public static void setPackedNodeBoxes(boolean packed){
+        packedNodeBoxes = packed;
+    }
+
+    public static boolean isPackedNodeBoxes(){
+        return packedNodeBoxes;
+    }
+
+    /**
+     * Builds a copy of the nodes in which every nested custom chip is replaced by the nodes inside of it, so that the whole chip
+     * is updated by one NodeBox instead of entering a NodeBox for each nested chip. The signal layout does not change: the inner
+     * nodes are moved to the nested chip's signals with makeCopyWithOffset, the inputs of a nested chip become buffers that copy
+     * from the enclosing chip, and its outputs become buffers that write to the addresses of the CustomNode they replace. This
+     * means that nbIndex and the unflattened nodes still map every component to its signals (see projectInnerState).
+     *
+     * A nested chip copies every output to the CustomNode's addresses whenever it is updated, but an output buffer is only updated
+     * when its inner cone changes, so the default signal of each output buffer is set to the inner output that it copies.
+     * @return The flattened nodes
+     */
+    Node[] flatten(){
+        ArrayList<Node> flat = new ArrayList<>();
+        inline(nodes, 0, null, flat, defaultSignals);
+        Node[] flatNodes = flat.toArray(new Node[0]);
+        linkMarks(flatNodes, defaultSignals.length);
+        return flatNodes;
+    }
+
+    /**
+     * Adds copies of the given nodes to the flattened node list, inlining nested custom chips recursively. Mark lists are left
+     * for linkMarks to fill in.
+     * @param nodes The unflattened nodes of a chip
+     * @param sigOffset The address of the chip's signals in the outermost chip
+     * @param parentIn The addresses that the chip's inputs are read from, or null for the outermost chip
+     * @param flat The flattened node list
+     * @param signals The default signals of the outermost chip, in which the output buffers are seeded
+     */
+    private static void inline(Node[] nodes, int sigOffset, int[] parentIn, ArrayList<Node> flat, int[] signals){
+        for(int i = 0; i < nodes.length; i++){
+            Node node = nodes[i];
+            if(node == null) continue;
+            if(node instanceof StartNode && parentIn != null) {
+                //StartNodes come first, so node i reads input i
+                flat.add(new SingleInputGateNode(new int[] {parentIn[i]}, new int[1][], node.address + sigOffset, CompType.BUFFER));
+            }
+            else if(node instanceof CustomNode && !(((CustomNode) node).getType().nodeBox instanceof ModelNodeBox)) {
+                //a modeled chip stays a CustomNode, so that its model is still used
+                CustomNode custom = (CustomNode) node;
+                CustomType type = custom.getType();
+                int innerOffset = custom.getInnerOffset() + sigOffset;
+                int[] in = new int[node.in.length];
+                for(int n = 0; n < in.length; n++) in[n] = node.in[n] == 0 ? 0 : node.in[n] + sigOffset;
+                inline(type.nodes, innerOffset, in, flat, signals);
+
+                int[] innerOut = type.outNodes;
+                for(int o = 0; o < innerOut.length; o++) {
+                    flat.add(new SingleInputGateNode(new int[] {innerOut[o] + innerOffset}, new int[1][], node.address + sigOffset + o, CompType.BUFFER));
+                    signals[node.address + sigOffset + o] = signals[innerOut[o] + innerOffset];
+                }
+            }
+            else {
+                Node copy = node.makeCopyWithOffset(sigOffset, 0);
+                //empty inputs must keep pointing to address 0 so that LCCCompiler sees them as unconnected
+                for(int n = 0; n < copy.in.length; n++) if(node.in[n] == 0) copy.in[n] = 0;
+                flat.add(copy);
+            }
+        }
+    }
+
+    /**
+     * Replaces the mark list of every node so that each output marks the nodes that read it
+     * @param nodes The nodes
+     * @param numSignals The length of the signals array
+     */
+    static void linkMarks(Node[] nodes, int numSignals){
+        int[] addrNode = new int[numSignals];
+        Arrays.fill(addrNode, -1);
+        for(int i = 0; i < nodes.length; i++){
+            for(int o = 0; o < nodes[i].getNumOutputs(); o++) addrNode[nodes[i].address + o] = i;
+        }
+
+        int[] count = new int[numSignals];
+        for(Node node : nodes){
+            for(int address : node.in) if(addrNode[address] != -1) count[address]++;
+        }
+        for(Node node : nodes){
+            for(int o = 0; o < node.mark.length; o++) {
+                node.mark[o] = new int[count[node.address + o]];
+                count[node.address + o] = 0;
+            }
+        }
+        for(int i = 0; i < nodes.length; i++){
+            for(int address : nodes[i].in) {
+                if(addrNode[address] == -1) continue;
+                Node source = nodes[addrNode[address]];
+                source.mark[address - source.address][count[address]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Switches this type and every type nested inside of it between flattened and nested NodeBoxes (see flatten). The signals are
+     * not changed, so this can be done at any time.
+     * @param flatten True to inline nested custom chips
+     */
+    public void setFlattened(boolean flatten){
+        setFlattened(flatten, new HashSet<>());
+    }
+
+    private void setFlattened(boolean flatten, Set<CustomType> visited){
+        if(!visited.add(this)) return;
+        for(OpCustom2 custom : customs) custom.getCustomType().setFlattened(flatten, visited);
+        flatten &= !customs.isEmpty();
+        if(flatten == flattened) return;
+        flattened = flatten;
+        buildNodeBox();
+    }
+
+    /**
+     * Rebuilds nodeBox from the unflattened nodes, keeping the current packed, flattened, bytecode, and optimized settings
+     */
+    private void buildNodeBox(){
+        Node[] boxNodes = flattened ? flatten() : nodes;
+        nodeBox = makeNodeBox(boxNodes, outNodes);
+    }
+
+    /**
+     * Returns the output addresses of the unoptimized nodes, which are the ones that flatten keeps
+     * @return The output addresses
+     */
+    int[] getOutNodes(){
+        return outNodes;
+    }
+
+    /**
+     * Returns the unflattened and unoptimized nodes, with one node per component
+     * @return The nodes
+     */
+    Node[] getNodes(){
+        return nodes;
+    }
+
+    /**
+     * Returns a fingerprint of the structure of this type, which is the same for every chip that is built the same way: the kind,
+     * parameters, address and inputs of each node, the output addresses, the bit widths of the connections, the clock delays,
+     * and the fingerprints of the nested chips. The label and the values of the signals are not part of it.
+     * @return The fingerprint, as 16 hex digits
+     */
+    public String getFingerprint(){
+        if(fingerprint != null) return fingerprint;
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, defaultSignals.length);
+        for(int[] side : getIOStructure()){
+            hash = mix(hash, side.length);
+            for(int width : side) hash = mix(hash, width);
+        }
+        for(int[] clock : clocks) hash = mix(hash, clock[0]);
+        for(int address : outNodes) hash = mix(hash, address);
+        for(Node node : nodes){
+            hash = mix(hash, node.address);
+            hash = mix(hash, node.in.length);
+            for(int address : node.in) hash = mix(hash, address);
+            int[] split = null;
+            if(node instanceof StartNode) hash = mix(hash, 0);
+            else if(node instanceof BasicGateNode) hash = mix(mix(hash, 1), ((BasicGateNode) node).getFunction());
+            else if(node instanceof SingleInputGateNode) hash = mix(mix(hash, 2), ((SingleInputGateNode) node).getMask());
+            else if(node instanceof SplitInNode) {
+                hash = mix(hash, 3);
+                split = ((SplitInNode) node).getSplit();
+            }
+            else if(node instanceof SplitOutNode) {
+                hash = mix(hash, 4);
+                split = ((SplitOutNode) node).getSplit();
+            }
+            else if(node instanceof CustomNode) {
+                CustomNode custom = (CustomNode) node;
+                long nested = Long.parseUnsignedLong(custom.getType().getFingerprint(), 16);
+                hash = mix(mix(mix(mix(hash, 5), (int) nested), (int) (nested >>> 32)), custom.getInnerOffset());
+            }
+            else hash = mix(mix(hash, 6), ((PlaceholderNode) node).getType().ordinal());
+            if(split != null) for(int width : split) hash = mix(hash, width);
+        }
+        fingerprint = String.format("%016x", hash);
+        return fingerprint;
+    }
+
+    private static long mix(long hash, int value){
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Tells if this type's NodeBox has its nested custom chips inlined
+     * @return True if the type is flattened
+     */
+    public boolean isFlattened(){
+        return flattened;
+    }
+
+    /**
+     * Chooses whether types that are compiled from now on are flattened. Existing types must be changed with setFlattened.
+     * @param flatten True to inline nested custom chips
+     */
+    public static void setFlattenNodeBoxes(boolean flatten){
+        flattenNodeBoxes = flatten;
+    }
+
+    public static boolean isFlattenNodeBoxes(){
+        return flattenNodeBoxes;
+    }
+
+    /**
+     * Switches this type and every type nested inside of it between bytecode and interpreted NodeBoxes (see ChipCompiler). Only
+     * types without feedback are compiled to bytecode.
+     * @param bytecode True to generate bytecode
+     */
+    public void setBytecode(boolean bytecode){
+        setBytecode(bytecode, new HashSet<>());
+    }
+
+    private void setBytecode(boolean bytecode, Set<CustomType> visited){
+        if(!visited.add(this)) return;
+        for(OpCustom2 custom : customs) custom.getCustomType().setBytecode(bytecode, visited);
+        if(bytecode == this.bytecode) return;
+        this.bytecode = bytecode;
+        buildNodeBox();
+    }
+
+    public boolean isBytecode(){
+        return bytecode;
+    }
+
+    /**
+     * Chooses whether types that are compiled from now on use bytecode. Existing types must be changed with setBytecode.
+     * @param bytecode True to generate bytecode
+     */
+    public static void setBytecodeNodeBoxes(boolean bytecode){
+        bytecodeNodeBoxes = bytecode;
+    }
+
+    public static boolean isBytecodeNodeBoxes(){
+        return bytecodeNodeBoxes;
+    }
+
+    /**
+     * Switches this type and every type nested inside of it between optimized and unoptimized NodeBoxes (see NetlistOptimizer).
+     * Constants that were already written to the default signals are kept, so this can be done at any time.
+     * @param optimize True to optimize the nodes
+     */
+    public void setOptimized(boolean optimize){
+        setOptimized(optimize, new HashSet<>());
+    }
+
+    private void setOptimized(boolean optimize, Set<CustomType> visited){
+        if(!visited.add(this)) return;
+        for(OpCustom2 custom : customs) custom.getCustomType().setOptimized(optimize, visited);
+        if(optimize == optimized) return;
+        optimized = optimize;
+        buildNodeBox();
+    }
+
+    public boolean isOptimized(){
+        return optimized;
+    }
+
+    /**
+     * Returns the optimization of this type's nodes
+     * @return The NetlistOptimizer, or null if the type is not optimized
+     */
+    public NetlistOptimizer getNetlist(){
+        return netlist;
+    }
+
+    /**
+     * Chooses whether types that are compiled from now on are optimized. Existing types must be changed with setOptimized.
+     * @param optimize True to optimize the nodes
+     */
+    public static void setOptimizeNodeBoxes(boolean optimize){
+        optimizeNodeBoxes = optimize;
+    }
+
+    public static boolean isOptimizeNodeBoxes(){
+        return optimizeNodeBoxes;
+    }
+
+    /**
+     * Switches this type and every type nested inside of it between truth tables and other NodeBoxes (see TableNodeBox). Only
+     * small combinational types are compiled to tables.
+     * @param table True to use truth tables
+     */
+    public void setTabled(boolean table){
+        setTabled(table, new HashSet<>());
+    }
+
+    private void setTabled(boolean table, Set<CustomType> visited){
+        if(!visited.add(this)) return;
+        for(OpCustom2 custom : customs) custom.getCustomType().setTabled(table, visited);
+        if(table == tabled) return;
+        tabled = table;
+        buildNodeBox();
+    }
+
+    public boolean isTabled(){
+        return tabled;
+    }
+
+    /**
+     * Chooses whether types that are compiled from now on use truth tables. Existing types must be changed with setTabled.
+     * @param table True to use truth tables
+     */
+    public static void setTableNodeBoxes(boolean table){
+        tableNodeBoxes = table;
+    }
+
+    public static boolean isTableNodeBoxes(){
+        return tableNodeBoxes;
+    }
+
+    /**
+     * Chooses whether a line describing the NodeBox is printed to standard output each time a type is compiled
+     * @param logging True to print the lines
+     */
+    public static void setCompileLogging(boolean logging){
+        compileLogging = logging;
+    }
+
+    public static boolean isCompileLogging(){
+        return compileLogging;
+    }
+
+    /**
+     * Chooses whether this type is memoized (see MemoNodeBox). Unlike the other settings, this only changes this type and not
+     * the types nested inside of it, since whether memoization pays off depends on how each chip is used.
+     * @param memoize True to memoize the type if it is combinational and too large for a table
+     */
+    public void setMemoized(boolean memoize){
+        if(memoize == memoized) return;
+        memoized = memoize;
+        buildNodeBox();
+    }
+
+    public boolean isMemoized(){
+        return memoized;
+    }
+
+    /**
+     * Chooses whether types that are compiled from now on are memoized. Existing types must be changed with setMemoized.
+     * @param memoize True to memoize combinational types that are too large for a table
+     */
+    public static void setMemoNodeBoxes(boolean memoize){
+        memoNodeBoxes = memoize;
+    }
+
+    public static boolean isMemoNodeBoxes(){
+        return memoNodeBoxes;
+    }
+
+    /**
+     * Returns the number of updates that were answered from the memoization cache since the NodeBox was built or the counters
+     * were reset
+     * @return The number of hits, or 0 if the NodeBox is not memoized
+     */
+    public long getMemoHits(){
+        return nodeBox instanceof MemoNodeBox ? ((MemoNodeBox) nodeBox).getHits() : 0;
+    }
+
+    /**
+     * Returns the number of updates that missed the memoization cache since the NodeBox was built or the counters were reset
+     * @return The number of misses, or 0 if the NodeBox is not memoized
+     */
+    public long getMemoMisses(){
+        return nodeBox instanceof MemoNodeBox ? ((MemoNodeBox) nodeBox).getMisses() : 0;
     }
 
     public void modify(ArrayList<LComponent> newComps){
@@ -195,7 +817,24 @@ public class CustomType {
             //didRebuild is used so that we don't have to make another boolean, but here it's more like "mustRebuild"
             if(custom.invalidate()) didRebuild = true;
         }
-        if(didRebuild) rebuild();
+        if(!didRebuild) return;
+        //the clocks of nested chips are inputs of this chip, so a change in their number changes the structure of this chip
+        if(countClocks() != clocks.size()) {
+            nbIndex.clear();
+            init();
+            didModify = true;
+        }
+        else rebuild();
+    }
+
+    /**
+     * Counts the clocks in this chip and its nested chips, using the current clock lists of the nested types
+     */
+    private int countClocks(){
+        int numClocks = 0;
+        for(LComponent lcomp : lcomps) if(lcomp instanceof Clock) numClocks++;
+        for(OpCustom2 custom : customs) numClocks += custom.getCustomType().clocks.size();
+        return numClocks;
     }
 
     /**
@@ -212,24 +851,36 @@ public class CustomType {
 
         pos = nestedAddr;
         for(OpCustom2 custom : customs){
-            ((CustomNode) nodeBox.getNodes()[nbIndex.get(custom)]).setInnerOffset(pos);
+            ((CustomNode) nodes[nbIndex.get(custom)]).setInnerOffset(pos);
             int[] innerSignals = custom.getSignals();
             System.arraycopy(innerSignals, 0, newSignals, pos, innerSignals.length);
             pos += innerSignals.length;
         }
         defaultSignals = newSignals;
+        fingerprint = null;
+        //the inlined copies of the nested chips use the old offsets and structure, optimized nodes are copies, and a table or
+        //cache holds the outputs of the old nested chips, and a model has to be checked against the new structure and put its
+        //state back into the new signals
+        if(flattened || netlist != null || nodeBox instanceof TableNodeBox || nodeBox instanceof MemoNodeBox ||
+                nodeBox instanceof ModelNodeBox) buildNodeBox();
     }
 
     public void projectInnerState(OpCustom2 custom){
         if(custom.getCustomType() != this)
             throw new IllegalArgumentException("Custom component supplied to projectInnerState must be of the same CompType");
+        //table and cache lookups don't update the inner nodes, and the signals of nodes removed by the optimizer are never updated
         int[] signals = custom.getSignals();
-        Node[] nodes = nodeBox.getNodes();
+        if(nodeBox instanceof TableNodeBox) signals = ((TableNodeBox) nodeBox).evaluate(signals);
+        else if(nodeBox instanceof MemoNodeBox) signals = ((MemoNodeBox) nodeBox).evaluate(signals);
+        if(netlist != null) signals = netlist.restore(signals);
 
+        //a model keeps its own state in the signals, so only the inputs can be shown
+        boolean modeled = nodeBox instanceof ModelNodeBox;
         for(LComponent lcomp : lcomps){
-            if(lcomp instanceof Light) continue;
+            if(lcomp instanceof Light || modeled && !(lcomp instanceof Switch)) continue;
             int id = nbIndex.get(lcomp);
             if(lcomp instanceof Switch) ((Switch) lcomp).setState(signals[nodes[id].address]);
+            else if(lcomp instanceof Clock) ((Clock) lcomp).setOn(signals[nodes[id].address] != 0);
             IOManager io = lcomp.getIO();
             for(int i = 0; i < io.getNumOutputs(); i++){
                 OutputPin outputPin = io.outputConnection(i);
@@ -264,14 +915,6 @@ public class CustomType {
         return new int[] {numInputs, numOutputs};
     }
 
-    private int[] nestClock(int[] oldClock, int spIndex){
-        int[] newClock = new int[oldClock.length + 1];
-        newClock[0] = oldClock[0];
-        newClock[1] = spIndex;
-        System.arraycopy(oldClock, 1, newClock, 2, oldClock.length - 1);
-        return newClock;
-    }
-
     private int[] getSignals(LComponent lcomp){
         IOManager io = lcomp.getIO();
         int[] signals = new int[io.getNumOutputs()];
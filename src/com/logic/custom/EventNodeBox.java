@@ -7,12 +7,12 @@ public class EventNodeBox extends NodeBox2{
     }
 
     @Override
-    public int[] update(int[] signals, int[] in, int offset, ActiveStack active){
+    public void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active){
         boolean change = false;
         for(int i = 0; i < in.length; i++){
             int address = nodes[i].address + offset;
             int currentSignal = signals[address];
-            int newSignal = in[i];
+            int newSignal = source[sourceOffset + in[i]];
 
             if(currentSignal != newSignal) {
                 change = true;
@@ -20,14 +20,12 @@ public class EventNodeBox extends NodeBox2{
                 nodes[i].updateEvent(signals, offset, active);
             }
         }
-        if(!change) return getOutputs(signals, offset);
+        if(!change) return;
 
         while(active.nextIteration()) {
             while(active.hasNext()) {
                 nodes[active.next()].updateEvent(signals, offset, active);
             }
         }
-
-        return getOutputs(signals, offset);
     }
 }
@@ -0,0 +1,145 @@
+package com.logic.custom;
+
+import java.util.Arrays;
+
+/**
+ * A NodeBox for chips with feedback that updates the acyclic parts of the chip in level order, like LCCNodeBox, and only
+ * runs event based updates inside feedback loops. The order comes from LCCCompiler.condense: each node that is not part of a
+ * loop is updated once with updateLCC, and each loop (strongly connected component) is updated with updateEvent until it is
+ * stable before moving on to the nodes after it.
+ */
+public class HybridNodeBox extends NodeBox2{
+
+    /**
+     * The update order. Values of at least 0 are nodes that are updated once, and a value of -(k + 1) updates loop k.
+     */
+    private final int[] steps;
+
+    /**
+     * The loop that each node belongs to, or -1 if the node is not part of a loop
+     */
+    private final int[] loop;
+
+    /**
+     * The nodes in loop k that have inputs from outside of the loop are entries[entryStart[k]] to entries[entryStart[k + 1] - 1].
+     * Only these nodes are updated at the start of a loop, since the other nodes can only change when another node in the loop does.
+     */
+    private final int[] entryStart, entries;
+
+    /**
+     * Creates a HybridNodeBox
+     * @param nodes The nodes
+     * @param outNodes The output addresses
+     * @param component The strongly connected component of each node, from LCCCompiler.condense
+     */
+    public HybridNodeBox(Node[] nodes, int[] outNodes, int[] component){
+        super(nodes, outNodes);
+        Schedule schedule = new Schedule(nodes, component);
+        steps = schedule.steps;
+        loop = schedule.loop;
+        entryStart = schedule.entryStart;
+        entries = schedule.entries;
+    }
+
+    /**
+     * The update order of a chip with feedback, which is shared with PackedHybridNodeBox
+     */
+    static class Schedule {
+
+        final int[] steps, loop, entryStart, entries;
+
+        Schedule(Node[] nodes, int[] component){
+            int numComponents = 0;
+            for(int c : component) numComponents = Math.max(numComponents, c + 1);
+
+            //sort the nodes by component
+            int[] compStart = new int[numComponents + 1];
+            for(int c : component) if(c != -1) compStart[c + 1]++;
+            for(int c = 0; c < numComponents; c++) compStart[c + 1] += compStart[c];
+            int[] order = new int[compStart[numComponents]];
+            int[] fill = compStart.clone();
+            for(int i = 0; i < component.length; i++) if(component[i] != -1) order[fill[component[i]]++] = i;
+
+            boolean[] entry = new boolean[nodes.length];
+            boolean[] selfLoop = new boolean[nodes.length];
+            for(int i = 0; i < nodes.length; i++){
+                if(nodes[i] == null) continue;
+                for(int[] targets : nodes[i].mark){
+                    for(int t : targets) {
+                        if(t == i) selfLoop[i] = true;
+                        else if(component[t] != component[i]) entry[t] = true;
+                    }
+                }
+            }
+
+            loop = new int[nodes.length];
+            Arrays.fill(loop, -1);
+            IntStack stepList = new IntStack(), entryList = new IntStack(), entryStartList = new IntStack();
+            for(int c = 0; c < numComponents; c++){
+                int first = order[compStart[c]];
+                if(compStart[c + 1] - compStart[c] == 1 && !selfLoop[first]) {
+                    stepList.push(first);
+                    continue;
+                }
+                int k = entryStartList.size();
+                entryStartList.push(entryList.size());
+                stepList.push(-(k + 1));
+                for(int i = compStart[c]; i < compStart[c + 1]; i++){
+                    loop[order[i]] = k;
+                    if(entry[order[i]]) entryList.push(order[i]);
+                }
+            }
+            entryStartList.push(entryList.size());
+            steps = toArray(stepList);
+            entries = toArray(entryList);
+            entryStart = toArray(entryStartList);
+        }
+
+        private static int[] toArray(IntStack stack){
+            int[] array = new int[stack.size()];
+            for(int i = array.length - 1; i >= 0; i--) array[i] = stack.pop();
+            return array;
+        }
+    }
+
+    @Override
+    public void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active){
+        boolean change = false;
+        for(int i = 0; i < in.length; i++){
+            int address = nodes[i].address + offset;
+            int newSignal = source[sourceOffset + in[i]];
+            if(signals[address] != newSignal) {
+                change = true;
+                signals[address] = newSignal;
+            }
+        }
+        if(!change) return;
+
+        for(int step : steps){
+            if(step >= 0) nodes[step].updateLCC(signals, offset, active);
+            else updateLoop(-step - 1, signals, offset, active);
+        }
+    }
+
+    /**
+     * Updates the nodes in a loop until none of them change
+     */
+    private void updateLoop(int k, int[] signals, int offset, ActiveStack active){
+        for(int i = entryStart[k]; i < entryStart[k + 1]; i++) nodes[entries[i]].updateEvent(signals, offset, active);
+        while(active.nextIteration()) {
+            while(active.hasNext()) {
+                int node = active.next();
+                //nodes outside of the loop come later in the order and are updated when it reaches them
+                if(loop[node] == k) nodes[node].updateEvent(signals, offset, active);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of feedback loops that are updated with events
+     * @return The number of loops
+     */
+    public int getNumLoops(){
+        return entryStart.length - 1;
+    }
+}
@@ -0,0 +1,74 @@
+package com.logic.custom;
+
+import java.util.Arrays;
+
+/**
+ * A growable stack of primitive ints. Used in place of java.util.Stack on the innermost simulation loops, where boxing and the
+ * synchronization in Vector are too expensive.
+ */
+public class IntStack {
+
+    private int[] elements;
+
+    private int size;
+
+    public IntStack(){
+        this(64);
+    }
+
+    public IntStack(int capacity){
+        elements = new int[Math.max(capacity, 1)];
+    }
+
+    public void push(int element){
+        if(size == elements.length) elements = Arrays.copyOf(elements, size * 2);
+        elements[size++] = element;
+    }
+
+    /**
+     * Pushes every element of the given array, in order
+     * @param array The elements to push
+     */
+    public void pushAll(int[] array){
+        if(size + array.length > elements.length) elements = Arrays.copyOf(elements, Math.max(size * 2, size + array.length));
+        System.arraycopy(array, 0, elements, size, array.length);
+        size += array.length;
+    }
+
+    /**
+     * Pushes the elements of the given array from index from (inclusive) to index to (exclusive), in order
+     * @param array The array
+     * @param from The index of the first element to push
+     * @param to The index after the last element to push
+     */
+    public void pushRange(int[] array, int from, int to){
+        int length = to - from;
+        if(size + length > elements.length) elements = Arrays.copyOf(elements, Math.max(size * 2, size + length));
+        System.arraycopy(array, from, elements, size, length);
+        size += length;
+    }
+
+    public int pop(){
+        return elements[--size];
+    }
+
+    /**
+     * Removes the given number of elements from the top of the stack
+     * @param count The number of elements to remove
+     */
+    public void drop(int count){
+        size -= count;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public void clear(){
+        size = 0;
+    }
+}
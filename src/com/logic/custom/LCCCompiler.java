@@ -3,6 +3,7 @@ package com.logic.custom;
 import com.logic.components.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -19,7 +20,6 @@ public class LCCCompiler {
 
         int expectedLeveledCount = nodeInitialize(nodes, sigToLevel, levelToNode, active);
         if(expectedLeveledCount == -1) return null;
-        int globalMaxLevel = -1;
         int leveledCount = 0;
         HashSet<Node> nextActive = new HashSet<>();
 
@@ -46,7 +46,6 @@ public class LCCCompiler {
                         return null;
                     leveledCount++;
                     int newLevel = maxLevel + 1;
-                    if(newLevel > globalMaxLevel) globalMaxLevel = newLevel;
                     for(int i = 0; i < node.getNumOutputs(); i++) tempSigToLevel.put(node.address + i, newLevel);
                     nodeUpdateListMap(levelToNode, newLevel, node);
                     nodeMarkNext(nodes, node, nextActive);
@@ -58,9 +57,17 @@ public class LCCCompiler {
             nextActive = new HashSet<>();
         }
         if(leveledCount != expectedLeveledCount) return null;
-        return nodeConvertToIntArray(levelToNode, nodeIndex, globalMaxLevel, leveledCount);
+        return nodeConvertToIntArray(levelToNode, nodeIndex);
     }
 
+    /**
+     * Levelizes a top level circuit. Switches, buttons and constants are treated as inputs and are not included in the result,
+     * and lights and labels are ignored.
+     * @param lcomps The components in the circuit
+     * @param nbIndex Maps each component to the value that represents it in the result
+     * @return The values from nbIndex in an order that updates every component after all of its sources, or null if the circuit
+     * has feedback
+     */
     public static int[] compile(ArrayList<LComponent> lcomps, Map<LComponent, Integer> nbIndex){
         HashMap<LComponent, Integer> compToLevel = new HashMap<>();
         HashMap<Integer, ArrayList<LComponent>> levelToComp = new HashMap<>();
@@ -78,9 +85,8 @@ public class LCCCompiler {
                 int maxLevel = -1;
                 boolean successful = true;
                 for (int i = 0; i < io.getNumInputs(); i++) {
-                    InputPin input = io.inputConnection(i);
-                    if (input.numWires() > 0) {
-                        LComponent source = input.getWire().getSourceConnection().getLcomp();
+                    LComponent source = getSource(io.inputConnection(i));
+                    if (source != null) {
                         if (compToLevel.containsKey(source)) {
                             int sourceLevel = compToLevel.get(source);
                             if (sourceLevel > maxLevel) maxLevel = sourceLevel;
@@ -108,7 +114,177 @@ public class LCCCompiler {
             nextActive = new HashSet<>();
         }
         if(leveledCount != expectedLeveledCount) return null;
-        return convertToIntArray(levelToComp, nbIndex, globalMaxLevel, leveledCount);
+        return convertToIntArray(levelToComp, nbIndex);
+    }
+
+    /**
+     * Finds the nodes that each input of a levelized NodeBox can influence. Inputs are split into at most 64 groups of neighboring
+     * inputs, and the cone of a group is a bit set over the positions in levels, so that the union of several cones can be read
+     * in level order. Leveled nodes that are not influenced by any input are added to every cone, since a full update always
+     * updated them.
+     * @param nodes The nodes
+     * @param levels The level order from nodeCompile
+     * @param numInputs The number of input nodes at the start of nodes
+     * @param inputGroup Filled with the group of each input
+     * @return The cone of each group, as words of 64 positions
+     */
+    public static long[][] coneCompile(Node[] nodes, int[] levels, int numInputs, int[] inputGroup){
+        int numGroups = Math.min(numInputs, 64);
+        int groupSize = numGroups == 0 ? 1 : (numInputs + numGroups - 1) / numGroups;
+        int[] position = new int[nodes.length];
+        Arrays.fill(position, -1);
+        for(int p = 0; p < levels.length; p++) position[levels[p]] = p;
+
+        int numWords = (levels.length + 63) / 64;
+        long[][] cones = new long[numGroups][numWords];
+        long[] reached = new long[numWords];
+        boolean[] visited = new boolean[nodes.length];
+        IntStack stack = new IntStack();
+        for(int i = 0; i < numInputs; i++){
+            int group = i / groupSize;
+            inputGroup[i] = group;
+            Arrays.fill(visited, false);
+            stack.push(i);
+            visited[i] = true;
+            while(!stack.isEmpty()){
+                Node node = nodes[stack.pop()];
+                for(int[] targets : node.mark){
+                    for(int t : targets){
+                        if(visited[t]) continue;
+                        visited[t] = true;
+                        stack.push(t);
+                        if(position[t] != -1) cones[group][position[t] >> 6] |= 1L << position[t];
+                    }
+                }
+            }
+        }
+
+        for(long[] cone : cones) for(int w = 0; w < numWords; w++) reached[w] |= cone[w];
+        for(int p = 0; p < levels.length; p++){
+            if((reached[p >> 6] & 1L << p) != 0) continue;
+            for(long[] cone : cones) cone[p >> 6] |= 1L << p;
+        }
+        return cones;
+    }
+
+    /**
+     * Splits a level order from nodeCompile into levels. A node's level is one more than the highest level of the leveled nodes it
+     * reads from, so the nodes of one level never read each other and can be updated in any order, or at the same time. Levels
+     * are found by walking the order, so if two levels are interleaved in it, each run of nodes is returned as its own level.
+     * @param nodes The nodes, linked by their mark lists
+     * @param levels The level order from nodeCompile
+     * @return The position in levels where each level starts, followed by levels.length
+     */
+    public static int[] levelStarts(Node[] nodes, int[] levels){
+        int[] depth = new int[nodes.length];
+        IntStack starts = new IntStack();
+        int current = -1;
+        for(int p = 0; p < levels.length; p++){
+            Node node = nodes[levels[p]];
+            int level = depth[levels[p]];
+            if(level != current) {
+                starts.push(p);
+                current = level;
+            }
+            for(int[] targets : node.mark){
+                for(int t : targets) depth[t] = Math.max(depth[t], level + 1);
+            }
+        }
+        starts.push(levels.length);
+        int[] result = new int[starts.size()];
+        for(int i = result.length - 1; i >= 0; i--) result[i] = starts.pop();
+        return result;
+    }
+
+    /**
+     * Condenses the strongly connected components (feedback loops) of a node graph that can't be levelized. Inputs, placeholders
+     * and missing nodes are left out. Every other node is given the number of its SCC, and the SCCs are numbered in topological
+     * order, so updating them in increasing order updates every node after all of its sources outside of its own SCC.
+     * @param nodes The nodes, linked by their mark lists
+     * @return The SCC of each node, or -1 for nodes that are not updated. Null if one SCC holds every updated node, in which
+     * case there is nothing to levelize.
+     */
+    public static int[] condense(Node[] nodes){
+        int n = nodes.length;
+        int[] succStart = new int[n + 1];
+        IntStack succ = new IntStack();
+        for(int i = 0; i < n; i++){
+            succStart[i] = succ.size();
+            if(!isScheduled(nodes[i])) continue;
+            for(int[] targets : nodes[i].mark){
+                for(int t : targets) if(isScheduled(nodes[t])) succ.push(t);
+            }
+        }
+        succStart[n] = succ.size();
+        int[] edges = new int[succ.size()];
+        for(int i = edges.length - 1; i >= 0; i--) edges[i] = succ.pop();
+
+        //iterative Tarjan's algorithm, since chips with thousands of nodes in a chain would overflow the call stack
+        int[] index = new int[n], low = new int[n], component = new int[n], edgePos = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        Arrays.fill(component, -1);
+        IntStack stack = new IntStack(), callStack = new IntStack();
+        int nextIndex = 0, numComponents = 0;
+        for(int root = 0; root < n; root++){
+            if(!isScheduled(nodes[root]) || index[root] != -1) continue;
+            callStack.push(root);
+            index[root] = low[root] = nextIndex++;
+            edgePos[root] = succStart[root];
+            stack.push(root);
+            onStack[root] = true;
+            while(!callStack.isEmpty()){
+                int v = callStack.pop();
+                if(edgePos[v] < succStart[v + 1]) {
+                    int w = edges[edgePos[v]++];
+                    callStack.push(v);
+                    if(index[w] == -1) {
+                        index[w] = low[w] = nextIndex++;
+                        edgePos[w] = succStart[w];
+                        stack.push(w);
+                        onStack[w] = true;
+                        callStack.push(w);
+                    }
+                    else if(onStack[w]) low[v] = Math.min(low[v], index[w]);
+                    continue;
+                }
+                if(low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack.pop();
+                        onStack[w] = false;
+                        component[w] = numComponents;
+                    } while(w != v);
+                    numComponents++;
+                }
+                if(!callStack.isEmpty()) {
+                    int parent = callStack.pop();
+                    low[parent] = Math.min(low[parent], low[v]);
+                    callStack.push(parent);
+                }
+            }
+        }
+        if(numComponents <= 1) return null;
+
+        //Tarjan's algorithm finds each SCC after every SCC that it leads to, so the numbers are reversed
+        for(int i = 0; i < n; i++) if(component[i] != -1) component[i] = numComponents - 1 - component[i];
+        return component;
+    }
+
+    /**
+     * Tells if a node is updated by a levelized or hybrid NodeBox. Inputs and placeholders never change when the NodeBox is updated.
+     */
+    private static boolean isScheduled(Node node){
+        return node != null && !(node instanceof StartNode) && !(node instanceof PlaceholderNode);
+    }
+
+    /**
+     * Returns the component that drives the given input, or null if the input is empty or its wire is still being built
+     */
+    private static LComponent getSource(InputPin input){
+        if(input.numWires() == 0) return null;
+        OutputPin source = input.getWire().getSourceConnection();
+        return source == null ? null : source.getLcomp();
     }
 
     private static void nodeMarkNext(Node[] nodes, Node node, HashSet<Node> nextActive){
@@ -125,9 +301,9 @@ public class LCCCompiler {
         for (int i = 0; i < io.getNumOutputs(); i++) {
             OutputPin output = io.outputConnection(i);
             for (int w = 0; w < output.numWires(); w++) {
-                LComponent markComp = output.getWire(w).getDestConnection().getLcomp();
-                if(markComp.getType() == CompType.LIGHT) continue;
-                nextActive.add(markComp);
+                InputPin dest = output.getWire(w).getDestConnection();
+                if(dest == null || dest.getLcomp().getType() == CompType.LIGHT) continue;
+                nextActive.add(dest.getLcomp());
             }
         }
     }
@@ -137,6 +313,14 @@ public class LCCCompiler {
                                   HashMap<Integer, ArrayList<Node>> levelToNode,
                                   HashSet<Node> active){
         int leveledCount = 0;
+        HashSet<Integer> written = new HashSet<>();
+        for(Node node : nodes){
+            for(int i = 0; i < node.getNumOutputs(); i++) written.add(node.address + i);
+        }
+        //a signal that no node writes is a constant (see NetlistOptimizer), so it is available before every level
+        for(Node node : nodes){
+            for(int address : node.in) if(address != 0 && !written.contains(address)) sigToLevel.put(address, -1);
+        }
         for(Node node : nodes){
             if(node instanceof StartNode || node instanceof PlaceholderNode) {
                 nodeMarkNext(nodes, node, active);
@@ -145,7 +329,7 @@ public class LCCCompiler {
             else {
                 boolean connected = false;
                 for(int i = 0; i < node.in.length; i++){
-                    if(node.in[i] != 0){
+                    if(node.in[i] != 0 && written.contains(node.in[i])){
                         connected = true;
                         break;
                     }
@@ -167,6 +351,7 @@ public class LCCCompiler {
                                                     HashSet<LComponent> active){
         int leveledCount = 0;
         for(LComponent lcomp : lcomps){
+            if(lcomp.getType() == CompType.LIGHT || lcomp.getType() == CompType.LABEL) continue;
             if(lcomp.getType() == CompType.SWITCH ||
                     lcomp.getType() == CompType.BUTTON ||
                     lcomp.getType() == CompType.ZERO ||
@@ -178,8 +363,7 @@ public class LCCCompiler {
                 IOManager io = lcomp.getIO();
                 boolean connected = false;
                 for(int i = 0; i < io.getNumInputs(); i++){
-                    InputPin input = io.inputConnection(i);
-                    if(input.numWires() > 0) {
+                    if(getSource(io.inputConnection(i)) != null) {
                         connected = true;
                         break;
                     }
@@ -189,18 +373,20 @@ public class LCCCompiler {
                     compToLevel.put(lcomp, -1);
                     updateMapList(levelToComp, 0, lcomp);
                 }
-                else if(lcomp.getType() != CompType.LIGHT) leveledCount++;
+                else leveledCount++;
             }
         }
         return leveledCount;
     }
 
     private static int[] nodeConvertToIntArray(HashMap<Integer, ArrayList<Node>> levelToNode,
-                                               Map<Node, Integer> nodeIndex,
-                                               int globalMaxLevel, int leveledCount){
-        int[] levels = new int[leveledCount];
+                                               Map<Node, Integer> nodeIndex){
+        //nodes with no connected inputs are placed in level 0 but are not part of leveledCount, so the lists are counted
+        int size = 0;
+        for(ArrayList<Node> nodeList : levelToNode.values()) size += nodeList.size();
+        int[] levels = new int[size];
         int index = 0;
-        for(int i = 0; i < globalMaxLevel + 1; i++){
+        for(int i = 0; levelToNode.containsKey(i); i++){
             ArrayList<Node> nodeList = levelToNode.get(i);
             for(Node node : nodeList) {
                 levels[index] = nodeIndex.get(node);
@@ -211,11 +397,14 @@ public class LCCCompiler {
     }
 
     private static int[] convertToIntArray(HashMap<Integer, ArrayList<LComponent>> levelToComp,
-                                             Map<LComponent, Integer> nbIndex,
-                                             int globalMaxLevel, int leveledCount){
-        int[] levels = new int[leveledCount];
+                                             Map<LComponent, Integer> nbIndex){
+        //components with no connected inputs are placed in level 0 along with the leveled components, so the lists are counted
+        //instead of using leveledCount
+        int size = 0;
+        for(ArrayList<LComponent> compList : levelToComp.values()) size += compList.size();
+        int[] levels = new int[size];
         int index = 0;
-        for(int i = 0; i < globalMaxLevel + 1; i++){
+        for(int i = 0; levelToComp.containsKey(i); i++){
             ArrayList<LComponent> compList = levelToComp.get(i);
             for(LComponent lcomp : compList) {
                 levels[index] = nbIndex.get(lcomp);
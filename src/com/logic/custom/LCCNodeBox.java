@@ -1,29 +1,438 @@
 package com.logic.custom;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A NodeBox for chips without feedback that updates nodes in level order. Only the nodes that can be influenced by the inputs
+ * that changed are updated (see LCCCompiler.coneCompile), so a chip with many independent inputs does not run its whole
+ * netlist when one of them changes.
+ *
+ * When every node is updated, a level whose cost reaches the parallel threshold is split into chunks that are updated on the
+ * common ForkJoinPool, and the next level starts once all of them are done. The nodes of a level never read each other, and
+ * nested chips keep their state at their own addresses in the shared signal array. The NodeBox of a nested chip is shared by
+ * all of its instances, but the only one that changes while it is updated is MemoNodeBox, which gives each thread its own
+ * cache, so the chunks don't take any locks. The cost of a level is its number of nodes, with each nested chip counted as the
+ * number of nodes inside of it, so a level of a few large chips (the registers of a RAM, for example) can be split as well as a
+ * level of many gates. Cone updates and narrow levels are always sequential, and nothing is allocated unless a level is
+ * actually run in parallel.
+ *
+ * A level that is not split and holds at least MIN_BATCH instances of the same combinational chip updates them together with a
+ * BatchEvaluator, which evaluates each inner node for all of the instances in one loop instead of running every instance's
+ * nodes separately.
+ */
 public class LCCNodeBox extends NodeBox2{
 
+    /**
+     * The default value of the parallel threshold. Splitting a level costs a few microseconds, which is about as long as
+     * updating a few thousand gates. Use ChipTester's parallel benchmark to find the best value on a given machine.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * The smallest cost of a chunk of a parallel level
+     */
+    private static final int MIN_CHUNK_COST = 512;
+
+    /**
+     * The largest number of chunks per thread in a parallel level, so that threads that finish early can steal the rest
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * The ActiveStack used by nested chips while they are updated by a chunk
+     */
+    private static final ThreadLocal<ActiveStack> chunkStack = ThreadLocal.withInitial(ActiveStack::new);
+
+    /**
+     * The smallest number of instances of one chip in a level that are updated with a BatchEvaluator
+     */
+    public static final int MIN_BATCH = 4;
+
+    private static volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    private static volatile boolean batching = true;
+
     private final int[] levels;
 
+    /**
+     * The position in levels where each level starts, followed by levels.length
+     */
+    private final int[] levelStarts;
+
+    /**
+     * The chunks of each level, as positions in levels where each chunk starts followed by the end of the level. Null for levels
+     * that are too small to split.
+     */
+    private final int[][] chunks;
+
+    /**
+     * The cost of each level
+     */
+    private final int[] levelCosts;
+
+    /**
+     * The batched instances in each level, or null for levels without batches
+     */
+    private final Batch[][] batches;
+
+    /**
+     * The positions in levels of the nodes that are not part of a batch, for each level that has batches
+     */
+    private final int[][] unbatched;
+
+    /**
+     * The group that each input belongs to
+     */
+    private final int[] inputGroup;
+
+    /**
+     * The positions in levels that each input group can influence, as bit sets
+     */
+    private final long[][] cones;
+
+    /**
+     * The number of nodes in each cone
+     */
+    private final int[] coneSizes;
+
+    /**
+     * The value of the changed input groups when every group has changed
+     */
+    private final long allGroups;
+
     public LCCNodeBox(Node[] nodes, int[] outNodes, int[] levels) {
         super(nodes, outNodes);
         this.levels = levels;
+        int numInputs = 0;
+        while(numInputs < nodes.length && nodes[numInputs] instanceof StartNode) numInputs++;
+        inputGroup = new int[numInputs];
+        cones = LCCCompiler.coneCompile(nodes, levels, numInputs, inputGroup);
+        allGroups = cones.length == 64 ? -1 : (1L << cones.length) - 1;
+        coneSizes = new int[cones.length];
+        for(int g = 0; g < cones.length; g++) for(long word : cones[g]) coneSizes[g] += Long.bitCount(word);
+
+        levelStarts = LCCCompiler.levelStarts(nodes, levels);
+        int numLevels = levelStarts.length - 1;
+        chunks = new int[numLevels][];
+        levelCosts = new int[numLevels];
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        Map<CustomType, Long> typeCosts = new HashMap<>();
+        int maxChunks = parallelism > 1 ? CHUNKS_PER_THREAD * parallelism : 0;
+        for(int l = 0; l < numLevels; l++){
+            int start = levelStarts[l], end = levelStarts[l + 1];
+            long cost = 0;
+            for(int p = start; p < end; p++) cost += cost(nodes[levels[p]], typeCosts);
+            levelCosts[l] = (int) Math.min(cost, Integer.MAX_VALUE);
+            int numChunks = (int) Math.min(Math.min(cost / MIN_CHUNK_COST, end - start), maxChunks);
+            if(numChunks >= 2) chunks[l] = splitLevel(start, end, cost, numChunks, typeCosts);
+        }
+
+        batches = new Batch[numLevels][];
+        unbatched = new int[numLevels][];
+        Map<CustomType, BatchEvaluator> evaluators = new HashMap<>();
+        for(int l = 0; l < numLevels; l++) findBatches(l, evaluators);
+    }
+
+    /**
+     * A group of instances of one chip in the same level
+     */
+    private static class Batch {
+
+        private final CustomType type;
+
+        private final BatchEvaluator evaluator;
+
+        private final CustomNode[] instances;
+
+        private Batch(CustomType type, BatchEvaluator evaluator, CustomNode[] instances){
+            this.type = type;
+            this.evaluator = evaluator;
+            this.instances = instances;
+        }
+
+        private void update(int[] signals, int offset, ActiveStack active){
+            if(evaluator.isCurrent(type)) evaluator.update(instances, signals, offset);
+            else for(CustomNode instance : instances) instance.updateLCC(signals, offset, active);
+        }
+    }
+
+    /**
+     * Groups the nested chips of a level by type, and makes a Batch for every type with at least MIN_BATCH instances that can be
+     * compiled to a BatchEvaluator
+     * @param evaluators The evaluator of each type that has been compiled so far, or null if the type can't be batched
+     */
+    private void findBatches(int level, Map<CustomType, BatchEvaluator> evaluators){
+        int start = levelStarts[level], end = levelStarts[level + 1];
+        if(end - start < MIN_BATCH) return;
+        Map<CustomType, IntStack> byType = new HashMap<>();
+        for(int p = start; p < end; p++){
+            if(nodes[levels[p]] instanceof CustomNode) {
+                byType.computeIfAbsent(((CustomNode) nodes[levels[p]]).getType(), t -> new IntStack()).push(p);
+            }
+        }
+        IntStack rest = new IntStack();
+        boolean[] batched = new boolean[end - start];
+        ArrayList<Batch> found = new ArrayList<>();
+        for(Map.Entry<CustomType, IntStack> entry : byType.entrySet()){
+            IntStack positions = entry.getValue();
+            if(positions.size() < MIN_BATCH) continue;
+            CustomType type = entry.getKey();
+            if(!evaluators.containsKey(type)) evaluators.put(type, BatchEvaluator.compile(type));
+            BatchEvaluator evaluator = evaluators.get(type);
+            if(evaluator == null) continue;
+            CustomNode[] instances = new CustomNode[positions.size()];
+            for(int i = instances.length - 1; i >= 0; i--){
+                int p = positions.pop();
+                instances[i] = (CustomNode) nodes[levels[p]];
+                batched[p - start] = true;
+            }
+            found.add(new Batch(type, evaluator, instances));
+        }
+        if(found.isEmpty()) return;
+        for(int p = start; p < end; p++) if(!batched[p - start]) rest.push(p);
+        batches[level] = found.toArray(new Batch[0]);
+        unbatched[level] = new int[rest.size()];
+        for(int i = unbatched[level].length - 1; i >= 0; i--) unbatched[level][i] = rest.pop();
+    }
+
+    /**
+     * Returns the cost of updating a node once, which for a nested chip is the number of nodes in it, counting the nodes of
+     * chips nested inside of it
+     * @param typeCosts The cost of each chip that has already been counted
+     */
+    private static long cost(Node node, Map<CustomType, Long> typeCosts){
+        if(!(node instanceof CustomNode)) return 1;
+        CustomType type = ((CustomNode) node).getType();
+        Long known = typeCosts.get(type);
+        if(known != null) return known;
+        long cost = 1;
+        //a table lookup costs about as much as one node
+        if(type.nodeBox != null && !(type.nodeBox instanceof TableNodeBox)) {
+            cost = 0;
+            for(Node inner : type.nodeBox.getNodes()) if(inner != null) cost += cost(inner, typeCosts);
+        }
+        typeCosts.put(type, cost);
+        return cost;
+    }
+
+    /**
+     * Splits a level into chunks of about the same cost
+     * @return The position where each chunk starts, followed by the end of the level
+     */
+    private int[] splitLevel(int start, int end, long cost, int numChunks, Map<CustomType, Long> typeCosts){
+        int[] bounds = new int[numChunks + 1];
+        bounds[0] = start;
+        long sum = 0;
+        int chunk = 1;
+        for(int p = start; p < end && chunk < numChunks; p++){
+            sum += cost(nodes[levels[p]], typeCosts);
+            if(sum * numChunks >= cost * chunk) bounds[chunk++] = p + 1;
+        }
+        //the last chunks may be empty if a single node is more expensive than the rest of the level
+        while(chunk <= numChunks) bounds[chunk++] = end;
+        return bounds;
+    }
+
+    /**
+     * Sets the smallest cost of a level that is updated in parallel. The cost of a level is its number of nodes, with each nested
+     * chip counted as the number of nodes inside of it. Levels that are too small to split into chunks of MIN_CHUNK_COST are
+     * always sequential, and so is everything when the common ForkJoinPool has only one thread.
+     * @param threshold The new threshold, or Integer.MAX_VALUE to never update in parallel
+     */
+    public static void setParallelThreshold(int threshold){
+        if(threshold < 1) throw new IllegalArgumentException("Parallel threshold must be positive");
+        parallelThreshold = threshold;
+    }
+
+    public static int getParallelThreshold(){
+        return parallelThreshold;
+    }
+
+    /**
+     * Turns batched updates of identical nested chips on or off
+     * @param enabled False to update every nested chip separately
+     */
+    public static void setBatching(boolean enabled){
+        batching = enabled;
+    }
+
+    public static boolean isBatching(){
+        return batching;
+    }
+
+    /**
+     * Returns the number of nested chips that are updated in batches
+     * @return The number of batched instances
+     */
+    public int getBatchedInstances(){
+        int count = 0;
+        for(Batch[] levelBatches : batches){
+            if(levelBatches != null) for(Batch batch : levelBatches) count += batch.instances.length;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of levels that would be updated in parallel with the current threshold
+     * @return The number of parallel levels
+     */
+    public int getParallelLevels(){
+        int threshold = parallelThreshold, count = 0;
+        for(int l = 0; l < chunks.length; l++) if(chunks[l] != null && levelCosts[l] >= threshold) count++;
+        return count;
+    }
+
+    public int getNumLevels(){
+        return levelCosts.length;
+    }
+
+    public int[] getLevels(){
+        return levels;
     }
 
     @Override
-    public int[] update(int[] signals, int[] in, int offset, ActiveStack active) {
-        boolean change = false;
+    public void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active) {
+        long changed = 0;
         for(int i = 0; i < in.length; i++){
             int address = nodes[i].address + offset;
-            if(signals[address] != in[i]) {
-                change = true;
-                signals[address] = in[i];
+            int newSignal = source[sourceOffset + in[i]];
+            if(signals[address] != newSignal) {
+                changed |= 1L << inputGroup[i];
+                signals[address] = newSignal;
+            }
+        }
+        if(changed == 0) return;
+
+        if(changed == allGroups || updatesAll(changed)) updateAll(signals, offset, active);
+        else updateCones(changed, signals, offset, active);
+    }
+
+    /**
+     * Tells if every leveled node should be updated when only some input groups have changed
+     * @param changed The input groups that changed, as a bit set
+     * @return False to update only the cones of the changed groups
+     */
+    protected boolean updatesAll(long changed){
+        return false;
+    }
+
+    /**
+     * Returns the number of nodes in the cones of the given input groups, counting nodes that are in several cones once for each
+     * @param changed The input groups, as a bit set
+     * @return The total size of the cones
+     */
+    protected int coneSize(long changed){
+        int size = 0;
+        for(long groups = changed; groups != 0; groups &= groups - 1) size += coneSizes[Long.numberOfTrailingZeros(groups)];
+        return size;
+    }
+
+    /**
+     * Updates every leveled node. Levels whose cost reaches the parallel threshold are split across the common ForkJoinPool, and
+     * the nested chips in other levels are batched where possible.
+     */
+    protected void updateAll(int[] signals, int offset, ActiveStack active){
+        int threshold = parallelThreshold;
+        boolean batch = batching;
+        for(int l = 0; l < chunks.length; l++){
+            if(chunks[l] != null && levelCosts[l] >= threshold) {
+                updateParallel(chunks[l], signals, offset, active);
+                continue;
             }
+            if(batch && batches[l] != null) {
+                for(Batch levelBatch : batches[l]) levelBatch.update(signals, offset, active);
+                for(int p : unbatched[l]) nodes[levels[p]].updateLCC(signals, offset, active);
+                continue;
+            }
+            for(int p = levelStarts[l], end = levelStarts[l + 1]; p < end; p++){
+                nodes[levels[p]].updateLCC(signals, offset, active);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of a chip's signals in which every leveled node is up to date. MemoNodeBox, which doesn't update the inner
+     * nodes on a hit, uses this to show them.
+     * @param chipSignals The signals of an instance of the chip
+     * @return The updated signals
+     */
+    public int[] evaluate(int[] chipSignals){
+        int[] evaluated = chipSignals.clone();
+        updateAll(evaluated, 0, new ActiveStack());
+        return evaluated;
+    }
+
+    /**
+     * Updates the chunks of one level on the common ForkJoinPool, and waits for all of them to finish. If a nested chip oscillates
+     * on another thread, the oscillation is reported to the given ActiveStack as if it had happened on this one.
+     */
+    private void updateParallel(int[] bounds, int[] signals, int offset, ActiveStack active){
+        LevelTask task = new LevelTask(bounds, 0, bounds.length - 1, signals, offset);
+        if(ForkJoinTask.inForkJoinPool()) task.invoke();
+        else ForkJoinPool.commonPool().invoke(task);
+        if(task.oscillating) active.reportOscillation();
+    }
+
+    /**
+     * Updates a range of chunks of a level, splitting the range in half until there is one chunk left
+     */
+    private class LevelTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] bounds;
+
+        private final int from, to;
+
+        private final int[] signals;
+
+        private final int offset;
+
+        private boolean oscillating;
+
+        private LevelTask(int[] bounds, int from, int to, int[] signals, int offset){
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.signals = signals;
+            this.offset = offset;
         }
-        if(!change) return getOutputs(signals, offset);
 
-        for(int i : levels){
-            nodes[i].updateLCC(signals, offset, active);
+        @Override
+        protected void compute(){
+            if(to - from > 1) {
+                int mid = (from + to) >>> 1;
+                LevelTask left = new LevelTask(bounds, from, mid, signals, offset);
+                LevelTask right = new LevelTask(bounds, mid, to, signals, offset);
+                invokeAll(left, right);
+                oscillating = left.oscillating || right.oscillating;
+                return;
+            }
+            ActiveStack active = chunkStack.get();
+            for(int p = bounds[from], end = bounds[to]; p < end; p++){
+                nodes[levels[p]].updateLCC(signals, offset, active);
+            }
+            oscillating = active.pollOscillation();
+        }
+    }
+
+    /**
+     * Updates the nodes in the cones of the given input groups, in level order
+     * @param changed The input groups that changed, as a bit set
+     */
+    private void updateCones(long changed, int[] signals, int offset, ActiveStack active){
+        for(int w = 0, numWords = (levels.length + 63) >> 6; w < numWords; w++){
+            long bits = 0;
+            for(long groups = changed; groups != 0; groups &= groups - 1) bits |= cones[Long.numberOfTrailingZeros(groups)][w];
+            while(bits != 0){
+                nodes[levels[(w << 6) + Long.numberOfTrailingZeros(bits)]].updateLCC(signals, offset, active);
+                bits &= bits - 1;
+            }
         }
-        return getOutputs(signals, offset);
     }
 }
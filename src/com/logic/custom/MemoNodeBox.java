@@ -0,0 +1,283 @@
+package com.logic.custom;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An LCCNodeBox for a combinational chip that is too wide for a truth table (see TableNodeBox), which remembers the outputs of
+ * recent input combinations. The input values are packed into a 64 bit key, first input in the lowest bits, and the cache is a
+ * fixed size open addressed hash table of primitive arrays, so looking up or adding an entry does not allocate.
+ *
+ * A key is only stored in the PROBE slots that follow its hash. Entries are never removed, only replaced, so a lookup can stop at
+ * the first empty slot. When every slot is full, clock (second chance) eviction picks the slot to replace: each hit sets the
+ * reference bit of its slot, and the scan clears reference bits until it finds a slot whose bit is already clear.
+ *
+ * Like a table lookup, a hit only writes the inputs and outputs. A miss updates every leveled node, since the inner nodes may be
+ * out of date after earlier hits. The bits of an input above its bit width are either all clear or all set (see TableNodeBox), so
+ * each input narrower than 32 bits adds one bit to the key that tells which, after the bits of the inputs. The cached outputs are
+ * then the ones that updating the nodes would give, high bits included. An input whose high bits are mixed is not cached, and
+ * every leveled node is updated.
+ *
+ * The cache is shared by every instance of the chip, but each thread that updates one (the simulation thread and the threads of
+ * parallel LCC levels) has a cache of its own, so lookups don't take a lock. The cache of the thread that used the NodeBox last
+ * is kept in a field, which saves the ThreadLocal lookup while one thread does all of the updates.
+ */
+public class MemoNodeBox extends LCCNodeBox {
+
+    /**
+     * The most input bits that a key can hold, counting the high bit of each input narrower than 32 bits
+     */
+    public static final int MAX_INPUT_BITS = 64;
+
+    /**
+     * The default number of cached input combinations
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The number of slots that a key can be stored in
+     */
+    private static final int PROBE = 8;
+
+    /**
+     * Slot states
+     */
+    private static final byte EMPTY = 0, USED = 1, REFERENCED = 2;
+
+    private static volatile int capacity = DEFAULT_CAPACITY;
+
+    /**
+     * The cache of one thread
+     */
+    private static class Cache {
+
+        private final Thread owner;
+
+        private final long[] keys;
+
+        /**
+         * The outputs of each slot, with the outputs of slot s starting at s * numOutputs
+         */
+        private final int[] values;
+
+        private final byte[] state;
+
+        /**
+         * The clock hand, which moves by one slot of the probe window each time an entry is evicted
+         */
+        private int hand;
+
+        /**
+         * Only written by the owner, except when the counters are reset, and read by other threads without a lock, so the
+         * counts are only approximate while the chip is being updated
+         */
+        private long hits, misses;
+
+        private Cache(int slots, int numOutputs){
+            owner = Thread.currentThread();
+            keys = new long[slots];
+            values = new int[slots * numOutputs];
+            state = new byte[slots];
+        }
+    }
+
+    /**
+     * The bits that each input can have, and the position of the input in the key
+     */
+    private final long[] masks;
+
+    private final int[] shifts;
+
+    /**
+     * The bits of each input above its width, and the position of the bit in the key that tells if they are set
+     */
+    private final int[] highMasks, highShifts;
+
+    private final int numOutputs;
+
+    private final int slots, slotMask;
+
+    private final ThreadLocal<Cache> caches;
+
+    /**
+     * Every cache that has been created, for the hit and miss counters
+     */
+    private final CopyOnWriteArrayList<Cache> allCaches;
+
+    /**
+     * The cache that was used last. Its fields are final, so a thread that reads a cache of another thread here sees it fully
+     * built and only checks its owner.
+     */
+    private Cache last;
+
+    /**
+     * Constructs a MemoNodeBox with an empty cache of the current capacity
+     * @param nodes The nodes
+     * @param outNodes The output addresses
+     * @param levels The level order from nodeCompile
+     * @param widths The bit width of each input
+     */
+    public MemoNodeBox(Node[] nodes, int[] outNodes, int[] levels, int[] widths){
+        super(nodes, outNodes, levels);
+        if(!fits(widths)) throw new IllegalArgumentException("Chip has too many input bits to be memoized");
+        numOutputs = outNodes.length;
+        masks = new long[widths.length];
+        shifts = new int[widths.length];
+        highMasks = new int[widths.length];
+        highShifts = new int[widths.length];
+        int bits = 0;
+        for(int i = 0; i < widths.length; i++){
+            masks[i] = widths[i] >= 32 ? 0xFFFFFFFFL : (1L << widths[i]) - 1;
+            highMasks[i] = ~(int) masks[i];
+            shifts[i] = bits;
+            bits += widths[i];
+        }
+        for(int i = 0; i < widths.length; i++){
+            highShifts[i] = bits;
+            if(highMasks[i] != 0) bits++;
+        }
+        slots = capacity;
+        slotMask = slots - 1;
+        allCaches = new CopyOnWriteArrayList<>();
+        caches = ThreadLocal.withInitial(() -> {
+            Cache cache = new Cache(slots, numOutputs);
+            allCaches.add(cache);
+            return cache;
+        });
+    }
+
+    /**
+     * Tells if the inputs of a chip fit in a key
+     * @param widths The bit width of each input
+     * @return True if the key of the inputs has at most MAX_INPUT_BITS bits
+     */
+    public static boolean fits(int[] widths){
+        int bits = 0;
+        for(int width : widths) bits += width < 32 ? width + 1 : width;
+        return bits <= MAX_INPUT_BITS;
+    }
+
+    @Override
+    public void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active) {
+        boolean changed = false, mixed = false;
+        long key = 0;
+        for(int i = 0; i < in.length; i++){
+            int address = nodes[i].address + offset;
+            int newSignal = source[sourceOffset + in[i]];
+            key |= (newSignal & masks[i]) << shifts[i];
+            int highBits = newSignal & highMasks[i];
+            if(highBits != 0) {
+                if(highBits == highMasks[i]) key |= 1L << highShifts[i];
+                else mixed = true;
+            }
+            if(signals[address] != newSignal) {
+                changed = true;
+                signals[address] = newSignal;
+            }
+        }
+        if(!changed) return;
+        if(mixed) {
+            updateAll(signals, offset, active);
+            return;
+        }
+
+        Cache cache = last;
+        if(cache == null || cache.owner != Thread.currentThread()) {
+            cache = caches.get();
+            last = cache;
+        }
+        int slot = find(cache, key);
+        if(slot != -1) {
+            cache.hits++;
+            cache.state[slot] = REFERENCED;
+            int base = slot * numOutputs;
+            for(int o = 0; o < numOutputs; o++) signals[offset + outNodes[o]] = cache.values[base + o];
+            return;
+        }
+        cache.misses++;
+        updateAll(signals, offset, active);
+        slot = victim(cache, key);
+        cache.keys[slot] = key;
+        cache.state[slot] = USED;
+        int base = slot * numOutputs;
+        for(int o = 0; o < numOutputs; o++) cache.values[base + o] = signals[offset + outNodes[o]];
+    }
+
+    private int hash(long key){
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & slotMask;
+    }
+
+    /**
+     * Finds the slot that holds a key
+     * @return The slot, or -1 if the key is not cached
+     */
+    private int find(Cache cache, long key){
+        int start = hash(key);
+        for(int p = 0; p < PROBE; p++){
+            int slot = start + p & slotMask;
+            if(cache.state[slot] == EMPTY) return -1;
+            if(cache.keys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Chooses the slot to store a new key in: the first empty slot, or the slot picked by clock eviction
+     */
+    private int victim(Cache cache, long key){
+        int start = hash(key);
+        for(int p = 0; p < PROBE; p++){
+            int slot = start + p & slotMask;
+            if(cache.state[slot] == EMPTY) return slot;
+        }
+        //every reference bit is cleared within one pass, so the second pass always finds a slot
+        int from = cache.hand++;
+        for(int p = 0; p < PROBE * 2; p++){
+            int slot = start + (from + p & PROBE - 1) & slotMask;
+            if(cache.state[slot] == USED) return slot;
+            cache.state[slot] = USED;
+        }
+        return start;
+    }
+
+    /**
+     * Sets the number of input combinations cached by the MemoNodeBoxes that are created from now on
+     * @param entries The capacity, which must be a power of 2
+     */
+    public static void setCapacity(int entries){
+        if(entries <= 0 || (entries & entries - 1) != 0) throw new IllegalArgumentException("Cache capacity must be a power of 2");
+        capacity = entries;
+    }
+
+    public static int getCapacity(){
+        return capacity;
+    }
+
+    /**
+     * Returns the number of updates that were answered from the caches of every thread
+     */
+    public long getHits(){
+        long hits = 0;
+        for(Cache cache : allCaches) hits += cache.hits;
+        return hits;
+    }
+
+    public long getMisses(){
+        long misses = 0;
+        for(Cache cache : allCaches) misses += cache.misses;
+        return misses;
+    }
+
+    /**
+     * Sets the hit and miss counters to 0. The cached entries are kept. Updates that are running at the same time may not be
+     * counted.
+     */
+    public void resetStats(){
+        for(Cache cache : allCaches) {
+            cache.hits = 0;
+            cache.misses = 0;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.logic.custom;
+
+import java.util.Arrays;
+
+/**
+ * A NodeBox that simulates a custom chip with a behavioral model written in Java instead of its gates. Models are registered
+ * for the structural fingerprint of a chip (see ModelRegistry and CustomType.getFingerprint), and a model is only used once it
+ * has given the same outputs as the gates for a run of random input vectors.
+ *
+ * A model uses the signals array of the chip it replaces, so instances of the chip and the chips around them don't change. The
+ * inputs stay at the addresses of the chip's input nodes, and the outputs and the state of the model (the contents of a RAM,
+ * for example) take the addresses of other signals, which the model has no use for. A chip can only be modeled if it has
+ * enough signals for the model's outputs and state.
+ *
+ * Like every NodeBox, update returns without writing anything when no input changed, and otherwise calls evaluate, which
+ * computes the outputs from the inputs and the state. Subclasses read and write signals with the input, setOutput, getState and
+ * setState methods, so that they don't depend on the layout.
+ */
+public abstract class ModelNodeBox extends NodeBox2 {
+
+    /**
+     * The address of each state signal
+     */
+    private final int[] state;
+
+    /**
+     * Lays out the signals of a model
+     * @param type The chip that is modeled
+     * @param numState The number of state signals that the model needs
+     */
+    public ModelNodeBox(CustomType type, int numState){
+        this(layout(type, numState), numState);
+    }
+
+    private ModelNodeBox(Layout layout, int numState){
+        super(layout.inputs, Arrays.copyOf(layout.free, layout.numOutputs));
+        state = Arrays.copyOfRange(layout.free, layout.numOutputs, layout.numOutputs + numState);
+    }
+
+    /**
+     * The input nodes of a chip and the addresses that a model may use for everything else
+     */
+    private static class Layout {
+
+        private Node[] inputs;
+
+        private int[] free;
+
+        private int numOutputs;
+    }
+
+    private static Layout layout(CustomType type, int numState){
+        Node[] nodes = type.getNodes();
+        int numInputs = 0;
+        while(numInputs < nodes.length && nodes[numInputs] instanceof StartNode) numInputs++;
+        Layout layout = new Layout();
+        layout.inputs = new Node[numInputs];
+        int numSignals = type.defaultSignals.length;
+        boolean[] used = new boolean[numSignals];
+        //address 0 is the constant 0
+        used[0] = true;
+        for(int i = 0; i < numInputs; i++){
+            Node input = nodes[i];
+            layout.inputs[i] = new StartNode(new int[0], new int[][] {new int[0]}, input.address);
+            used[input.address] = true;
+        }
+        layout.numOutputs = type.getOutNodes().length;
+        int needed = layout.numOutputs + numState;
+        layout.free = new int[needed];
+        int count = 0;
+        for(int address = 0; address < numSignals && count < needed; address++) if(!used[address]) layout.free[count++] = address;
+        if(count < needed) {
+            throw new IllegalArgumentException(type.label + " has " + (count - layout.numOutputs) + " free signals, but the " +
+                    "model needs " + numState);
+        }
+        return layout;
+    }
+
+    @Override
+    public void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active) {
+        boolean changed = false;
+        for(int i = 0; i < in.length; i++){
+            int address = nodes[i].address + offset;
+            int newSignal = source[sourceOffset + in[i]];
+            if(signals[address] != newSignal) {
+                changed = true;
+                signals[address] = newSignal;
+            }
+        }
+        if(changed) evaluate(signals, offset);
+    }
+
+    /**
+     * Computes the outputs and the new state of the chip after an input changed
+     * @param signals The signals array
+     * @param offset The signal address offset of the chip
+     */
+    protected abstract void evaluate(int[] signals, int offset);
+
+    /**
+     * Sets up the state of a chip whose signals were copied from the gates. By default, every state signal is set to 0 and the
+     * outputs are computed from the current inputs.
+     * @param signals The signals array
+     * @param offset The signal address offset of the chip
+     */
+    public void initialize(int[] signals, int offset){
+        for(int address : state) signals[offset + address] = 0;
+        evaluate(signals, offset);
+    }
+
+    /**
+     * Returns an input signal
+     * @param index The index of the input, which is followed by the hidden inputs of clocks inside of the chip
+     */
+    protected int input(int[] signals, int offset, int index){
+        return signals[offset + nodes[index].address];
+    }
+
+    protected void setOutput(int[] signals, int offset, int index, int value){
+        signals[offset + outNodes[index]] = value;
+    }
+
+    protected int getState(int[] signals, int offset, int index){
+        return signals[offset + state[index]];
+    }
+
+    protected void setState(int[] signals, int offset, int index, int value){
+        signals[offset + state[index]] = value;
+    }
+
+    public int getNumInputs(){
+        return nodes.length;
+    }
+
+    public int getNumState(){
+        return state.length;
+    }
+}
@@ -0,0 +1,165 @@
+package com.logic.custom;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Holds the behavioral models (see ModelNodeBox) that replace the gates of custom chips. A model is registered for the structural
+ * fingerprint of a chip (see CustomType.getFingerprint) rather than its label, so it is only used for chips that are built
+ * exactly like the one it was written for, whatever they are called.
+ *
+ * When a chip with a registered fingerprint is compiled, the model is checked against the NodeBox of its gates first: both start
+ * from the chip's default signals, and they are given the same run of random input vectors, each of which changes one input (a
+ * 1 bit input is toggled, so clocks tick). The model is only used if every output matches after every vector. The result is kept
+ * for the fingerprint, so the check runs once however many times the chip is compiled. A chip with a rejected model keeps using
+ * its gates, and the reason can be read with getRejection (the "model" debug command shows it for the selected chip).
+ *
+ * Models should be registered before the chips that use them are loaded. Chips that are already compiled keep their NodeBox until
+ * they are compiled again.
+ */
+public class ModelRegistry {
+
+    /**
+     * Creates the model of a chip
+     */
+    public interface Factory {
+
+        /**
+         * @param type The chip that is modeled
+         * @return The model
+         * @throws IllegalArgumentException If the chip doesn't have room for the model
+         */
+        ModelNodeBox create(CustomType type);
+    }
+
+    /**
+     * The default number of random vectors in the equivalence check
+     */
+    public static final int DEFAULT_VECTORS = 2000;
+
+    private static final HashMap<String, Factory> factories = new HashMap<>();
+
+    /**
+     * The fingerprints whose models passed the equivalence check
+     */
+    private static final HashSet<String> accepted = new HashSet<>();
+
+    /**
+     * The reason that each rejected model was rejected
+     */
+    private static final HashMap<String, String> rejected = new HashMap<>();
+
+    private static volatile int numVectors = DEFAULT_VECTORS;
+
+    /**
+     * Registers a model, replacing any model that was registered for the same fingerprint
+     * @param fingerprint The fingerprint of the chip
+     * @param factory Creates the model for a chip with the fingerprint
+     */
+    public static synchronized void register(String fingerprint, Factory factory){
+        if(fingerprint == null || factory == null) throw new IllegalArgumentException("Fingerprint and factory must not be null");
+        factories.put(fingerprint, factory);
+        accepted.remove(fingerprint);
+        rejected.remove(fingerprint);
+    }
+
+    public static synchronized void unregister(String fingerprint){
+        factories.remove(fingerprint);
+        accepted.remove(fingerprint);
+        rejected.remove(fingerprint);
+    }
+
+    public static synchronized boolean isRegistered(String fingerprint){
+        return factories.containsKey(fingerprint);
+    }
+
+    /**
+     * Returns the reason that the model for a fingerprint was rejected
+     * @param fingerprint The fingerprint of the chip
+     * @return The reason, or null if the model has not been rejected
+     */
+    public static synchronized String getRejection(String fingerprint){
+        return rejected.get(fingerprint);
+    }
+
+    /**
+     * Creates the model for a chip if one is registered and it passes the equivalence check
+     * @param type The chip, whose signals and nested chips are compiled
+     * @param gates The NodeBox of the chip's gates
+     * @return The model, or null if the chip should use its gates
+     */
+    static synchronized ModelNodeBox choose(CustomType type, NodeBox2 gates){
+        if(factories.isEmpty()) return null;
+        String fingerprint = type.getFingerprint();
+        Factory factory = factories.get(fingerprint);
+        if(factory == null || rejected.containsKey(fingerprint)) return null;
+        String error;
+        try {
+            ModelNodeBox model = factory.create(type);
+            if(accepted.contains(fingerprint)) return model;
+            error = check(type, gates, model, numVectors, 0);
+            if(error == null) {
+                accepted.add(fingerprint);
+                return model;
+            }
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage();
+        }
+        rejected.put(fingerprint, error);
+        return null;
+    }
+
+    /**
+     * Compares a model with the gates of a chip for a run of random input vectors, each of which changes one input
+     * @param type The chip
+     * @param gates The NodeBox of the chip's gates
+     * @param model The model
+     * @param vectors The number of vectors
+     * @param seed The seed of the random vectors
+     * @return A description of the first output that differs, or null if the outputs always match
+     */
+    public static String check(CustomType type, NodeBox2 gates, ModelNodeBox model, int vectors, long seed){
+        if(gates.getNumOutputs() != model.getNumOutputs()) return "the model has " + model.getNumOutputs() + " outputs";
+        int numInputs = model.getNumInputs();
+        //the hidden inputs of clocks come after the real inputs, and are 1 bit wide
+        int[] widths = type.inputWidths();
+        int[] gateSignals = type.defaultSignals.clone();
+        int[] modelSignals = type.defaultSignals.clone();
+        model.initialize(modelSignals, 0);
+        int[] inputs = new int[numInputs];
+        for(int i = 0; i < numInputs; i++) inputs[i] = model.input(gateSignals, 0, i);
+
+        ActiveStack active = new ActiveStack();
+        Random rand = new Random(seed);
+        for(int v = 0; v < vectors && numInputs > 0; v++){
+            int i = rand.nextInt(numInputs);
+            int width = i < widths.length ? widths[i] : 1;
+            if(width == 1) inputs[i] ^= 1;
+            else inputs[i] = width >= 32 ? rand.nextInt() : rand.nextInt(1 << width);
+            gates.update(gateSignals, 0, inputs, active);
+            model.update(modelSignals, 0, inputs, active);
+            for(int o = 0; o < gates.getNumOutputs(); o++){
+                int expected = gates.getOutput(gateSignals, 0, o), actual = model.getOutput(modelSignals, 0, o);
+                if(expected != actual) {
+                    return "output " + o + " is " + actual + " instead of " + expected + " after vector " + (v + 1) + " of " +
+                            vectors;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the number of random vectors in the equivalence checks that are run from now on
+     * @param vectors The number of vectors
+     */
+    public static void setNumVectors(int vectors){
+        if(vectors <= 0) throw new IllegalArgumentException("Number of vectors must be positive");
+        numVectors = vectors;
+    }
+
+    public static int getNumVectors(){
+        return numVectors;
+    }
+}
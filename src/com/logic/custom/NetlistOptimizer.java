@@ -0,0 +1,675 @@
+package com.logic.custom;
+
+import com.logic.components.CompType;
+import com.logic.engine.LogicFunctions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Simplifies the nodes of a custom chip before they are given to a NodeBox, so that every update of every instance evaluates
+ * fewer nodes. Four rewrites are applied until none of them changes anything, and then again after bit slices are fused:
+ *
+ * Constant propagation: address 0 (unconnected inputs) and the outputs of ZERO and ONE constants are constant. A gate, buffer or
+ * splitter whose inputs are all constant is evaluated once, its outputs are written to the default signals, and it is removed.
+ * AND, OR and XOR gates also drop inputs that can't change their result (all ones for AND, 0 for OR and XOR), and become
+ * constant when an input decides the result (0 for AND, all ones for OR).
+ *
+ * Collapsing: buffers, gates that are left with one input, and NOT gates that invert a NOT gate are removed, and the nodes that
+ * read them read the original signal instead. So are splitters that only mask a signal which already fits in the mask, and a
+ * splitter that takes apart a bus with the same widths it was put together with. The widths that signals are known to fit in
+ * are found along the way.
+ *
+ * Common subexpressions: a node with the same kind, parameters, inputs and current signals as an earlier node is merged into it.
+ *
+ * Dead nodes: gates, buffers, splitters and placeholders whose outputs reach no Light are removed. Custom chips are always kept,
+ * since they can hold state.
+ *
+ * Bit slice fusion: a SplitIn whose inputs are the matching bits of a bus, taken apart by a SplitOut and passed through one
+ * gate per bit (such as sixteen AND gates over the bits of two buses), is rewired to read a single gate that works on the whole
+ * buses. Layers of gates are fused together, and a SplitIn that only packs the bits of a SplitOut back together just masks the
+ * bus. Gates are bitwise, so the word gate computes every bit the same way as the gates it replaces. The fused gate is the gate
+ * of the first bit with new inputs, and the gates of the other bits are removed, so a gate is only fused if nothing else reads it.
+ *
+ * The signal layout does not change. Every kept node keeps its address, so the signals array of the chip is the same, and the
+ * signal of a removed node is just no longer updated (a fused gate holds a whole bus in the signal of its first bit). Constants
+ * are left in the signals array, so a signal that no node writes is a constant to LCCCompiler and the NodeBoxes. restore brings
+ * the removed and fused signals up to date for projectInnerState.
+ */
+public class NetlistOptimizer {
+
+    /**
+     * The nodes before optimization, and the nodes that replace them
+     */
+    private final Node[] nodes, optimized;
+
+    /**
+     * The current form of each node, which is the original node unless it was rewired by bit slice fusion
+     */
+    private final Node[] current;
+
+    private final int[] outNodes;
+
+    /**
+     * The removed nodes that are not constant, in the order that restore updates them
+     */
+    private final Node[] restoreNodes;
+
+    /**
+     * The default signals of the chip, which hold the value of every constant
+     */
+    private final int[] signals;
+
+    /**
+     * The index of the node that writes each address, or -1
+     */
+    private final int[] addrNode;
+
+    /**
+     * The address that each address is equal to, followed to its end by find
+     */
+    private final int[] alias;
+
+    private final boolean[] constant;
+
+    private final boolean[] removed;
+
+    /**
+     * True for the kept gates that were rewired to read whole buses, whose signals restore has to bring back
+     */
+    private final boolean[] fused;
+
+    /**
+     * The number of low bits that each signal is known to fit in, which is 32 if nothing is known
+     */
+    private final int[] bits;
+
+    /**
+     * The simplified inputs of each kept node
+     */
+    private final int[][] newIn;
+
+    private int numConstant, numCollapsed, numMerged, numDead, numFused;
+
+    /**
+     * Optimizes the nodes of a chip. The nodes themselves are not changed, and the constants that are found are written to the
+     * given signals.
+     * @param nodes The nodes, with StartNodes first and mark lists that match their inputs
+     * @param outNodes The output addresses
+     * @param signals The default signals of the chip
+     */
+    public NetlistOptimizer(Node[] nodes, int[] outNodes, int[] signals){
+        this.nodes = nodes;
+        this.signals = signals;
+        int[] original = signals.clone();
+        addrNode = new int[signals.length];
+        Arrays.fill(addrNode, -1);
+        alias = new int[signals.length];
+        for(int a = 0; a < alias.length; a++) alias[a] = a;
+        constant = new boolean[signals.length];
+        constant[0] = true;
+        bits = new int[signals.length];
+        Arrays.fill(bits, 32);
+        bits[0] = bitLength(signals[0]);
+        current = nodes.clone();
+        removed = new boolean[nodes.length];
+        fused = new boolean[nodes.length];
+        newIn = new int[nodes.length][];
+        for(int i = 0; i < nodes.length; i++){
+            Node node = nodes[i];
+            for(int o = 0; o < node.getNumOutputs(); o++) addrNode[node.address + o] = i;
+            if(node instanceof PlaceholderNode) {
+                CompType type = ((PlaceholderNode) node).getType();
+                if(type == CompType.ZERO || type == CompType.ONE) {
+                    //a constant only sets its output when it is updated, which may not have happened yet
+                    signals[node.address] = type == CompType.ONE ? 1 : 0;
+                    constant[node.address] = true;
+                    bits[node.address] = bitLength(signals[node.address]);
+                    removed[i] = true;
+                    numConstant++;
+                }
+            }
+        }
+
+        int[] order = LCCCompiler.nodeCompile(nodes);
+        if(order == null) {
+            order = new int[nodes.length];
+            for(int i = 0; i < order.length; i++) order[i] = i;
+        }
+        //in level order, one pass finds everything and a second pass confirms it, and feedback may take a few more passes
+        while(simplify(order)) ;
+        //fusion keeps the original level order, and leaves single bit masks and shared buses for the other rewrites
+        if(fuse(outNodes)) while(simplify(order)) ;
+        removeDead(outNodes);
+
+        ArrayList<Node> kept = new ArrayList<>();
+        Node[] copies = new Node[nodes.length];
+        for(int i = 0; i < nodes.length; i++){
+            if(removed[i]) continue;
+            copies[i] = copy(i);
+            kept.add(copies[i]);
+        }
+        optimized = kept.toArray(new Node[0]);
+        settleConstantReaders(copies, order, original);
+        CustomType.linkMarks(optimized, signals.length);
+        this.outNodes = new int[outNodes.length];
+        for(int o = 0; o < outNodes.length; o++) this.outNodes[o] = find(outNodes[o]);
+        restoreNodes = restoreOrder();
+    }
+
+    /**
+     * Updates the kept nodes that read a constant whose default signal was changed, and the nodes that read those, in level order.
+     * A chip that was saved before its constants were updated would otherwise keep stale signals in the nodes that read them
+     * until an input in their cone changes, which NodeBoxes that only update the cones of changed inputs may never do, while
+     * NodeBoxes that update every node do it on the first update.
+     * @param copies The kept node that replaces each node, or null
+     * @param order The level order of the nodes
+     * @param original The default signals before optimization
+     */
+    private void settleConstantReaders(Node[] copies, int[] order, int[] original){
+        boolean[] stale = new boolean[signals.length];
+        boolean any = false;
+        for(int a = 0; a < signals.length; a++){
+            stale[a] = constant[a] && signals[a] != original[a];
+            any |= stale[a];
+        }
+        if(!any) return;
+        ActiveStack active = new ActiveStack();
+        for(int id : order){
+            Node copy = copies[id];
+            if(copy == null || copy instanceof StartNode) continue;
+            boolean reads = false;
+            for(int address : copy.in) reads |= stale[address];
+            if(!reads) continue;
+            int[] before = new int[copy.getNumOutputs()];
+            for(int o = 0; o < before.length; o++) before[o] = signals[copy.address + o];
+            copy.updateLCC(signals, 0, active);
+            for(int o = 0; o < before.length; o++) stale[copy.address + o] = signals[copy.address + o] != before[o];
+        }
+    }
+
+    private int find(int address){
+        while(alias[address] != address) address = alias[address];
+        return address;
+    }
+
+    private static boolean isSimple(Node node){
+        return node instanceof BasicGateNode || node instanceof SingleInputGateNode || node instanceof SplitInNode ||
+                node instanceof SplitOutNode;
+    }
+
+    /**
+     * Runs every rewrite on every node once
+     * @return True if anything changed
+     */
+    private boolean simplify(int[] order){
+        boolean changed = false;
+        HashMap<Key, Integer> seen = new HashMap<>();
+        for(int id : order){
+            if(removed[id] || !isSimple(current[id])) continue;
+            Node node = current[id];
+            int[] in = resolve(node.in);
+            newIn[id] = in;
+
+            if(allConstant(in)) {
+                fold(id, in);
+                changed = true;
+                continue;
+            }
+            if(node instanceof BasicGateNode && ((BasicGateNode) node).getFunction() <= 2 && in.length > 1) {
+                int function = ((BasicGateNode) node).getFunction();
+                int identity = function == 0 ? -1 : 0;
+                IntStack keep = new IntStack();
+                boolean absorbed = false;
+                for(int address : in){
+                    if(!constant[address]) keep.push(address);
+                    else if(function != 2 && signals[address] == ~identity) absorbed = true;
+                    else if(signals[address] != identity) keep.push(address);
+                }
+                if(absorbed) {
+                    signals[node.address] = ~identity;
+                    constant[node.address] = true;
+                    bits[node.address] = bitLength(~identity);
+                    removed[id] = true;
+                    numConstant++;
+                    changed = true;
+                    continue;
+                }
+                //dropping inputs only follows from constants that were already counted as changes
+                if(keep.size() < in.length) {
+                    in = new int[keep.size()];
+                    for(int n = in.length - 1; n >= 0; n--) in[n] = keep.pop();
+                    newIn[id] = in;
+                }
+            }
+
+            int target = collapseTarget(node, in);
+            if(target != -1 && target != node.address) {
+                alias[node.address] = target;
+                removed[id] = true;
+                numCollapsed++;
+                changed = true;
+                continue;
+            }
+            int[] targets = unsplitTargets(node, in);
+            if(targets != null) {
+                for(int o = 0; o < targets.length; o++) alias[node.address + o] = targets[o];
+                removed[id] = true;
+                numCollapsed++;
+                changed = true;
+                continue;
+            }
+
+            Key key = new Key(node, in);
+            Integer first = seen.putIfAbsent(key, id);
+            if(first != null && sameSignals(current[first], node)) {
+                for(int o = 0; o < node.getNumOutputs(); o++) alias[node.address + o] = current[first].address + o;
+                removed[id] = true;
+                numMerged++;
+                changed = true;
+                continue;
+            }
+            setBits(node, in);
+        }
+        return changed;
+    }
+
+    private int[] resolve(int[] in){
+        int[] resolved = new int[in.length];
+        for(int n = 0; n < in.length; n++) resolved[n] = find(in[n]);
+        return resolved;
+    }
+
+    private boolean allConstant(int[] in){
+        for(int address : in) if(!constant[address]) return false;
+        return true;
+    }
+
+    /**
+     * Evaluates a node whose inputs are all constant, and removes it
+     */
+    private void fold(int id, int[] in){
+        Node copy = current[id].makeCopyWithOffset(0, 0);
+        System.arraycopy(in, 0, copy.in, 0, in.length);
+        copy.updateLCC(signals, 0, null);
+        for(int o = 0; o < copy.getNumOutputs(); o++){
+            constant[copy.address + o] = true;
+            bits[copy.address + o] = bitLength(signals[copy.address + o]);
+        }
+        removed[id] = true;
+        numConstant++;
+    }
+
+    /**
+     * Finds the address that a node's output is always equal to
+     * @return The address, or -1 if the node can't be collapsed
+     */
+    private int collapseTarget(Node node, int[] in){
+        if(node instanceof BasicGateNode) return in.length == 1 ? in[0] : -1;
+        if(node instanceof SplitInNode) {
+            //a SplitIn with one input only masks it
+            int[] split = ((SplitInNode) node).getSplit();
+            return split.length == 1 && split[0] < 32 && bits[in[0]] <= split[0] ? in[0] : -1;
+        }
+        if(!(node instanceof SingleInputGateNode)) return -1;
+        if(((SingleInputGateNode) node).getMask() == 0) return in[0];
+        int source = addrNode[in[0]];
+        if(source == -1 || removed[source] || !(current[source] instanceof SingleInputGateNode) ||
+                ((SingleInputGateNode) current[source]).getMask() == 0) return -1;
+        return find(current[source].in[0]);
+    }
+
+    /**
+     * Finds the addresses that the outputs of a SplitOut are always equal to, which are its input if it has one output that
+     * the input already fits in, or the inputs of a SplitIn with the same widths that fit in their outputs
+     * @return The address for each output, or null if the node can't be collapsed
+     */
+    private int[] unsplitTargets(Node node, int[] in){
+        if(!(node instanceof SplitOutNode)) return null;
+        int[] split = ((SplitOutNode) node).getSplit();
+        for(int width : split) if(width >= 32) return null;
+        if(split.length == 1) return bits[in[0]] <= split[0] ? new int[] {in[0]} : null;
+        int source = addrNode[in[0]];
+        if(source == -1 || removed[source] || !(current[source] instanceof SplitInNode) ||
+                !Arrays.equals(((SplitInNode) current[source]).getSplit(), split)) return null;
+        int[] targets = resolve(current[source].in);
+        for(int o = 0; o < split.length; o++) if(bits[targets[o]] > split[o]) return null;
+        return targets;
+    }
+
+    /**
+     * Records the number of bits that each output of a kept node fits in. A claim is only made if the current signal fits too,
+     * so that it holds before the node is first updated.
+     */
+    private void setBits(Node node, int[] in){
+        for(int o = 0; o < node.getNumOutputs(); o++){
+            int width = 32;
+            if(node instanceof SplitInNode) {
+                width = 0;
+                for(int w : ((SplitInNode) node).getSplit()) width += w;
+            }
+            else if(node instanceof SplitOutNode) width = ((SplitOutNode) node).getSplit()[o];
+            else if(node instanceof SingleInputGateNode) {
+                if(((SingleInputGateNode) node).getMask() == 0) width = bits[in[0]];
+            }
+            else {
+                int function = ((BasicGateNode) node).getFunction();
+                if(function <= 2) {
+                    width = function == 0 ? 32 : 0;
+                    for(int address : in) width = function == 0 ? Math.min(width, bits[address]) : Math.max(width, bits[address]);
+                }
+            }
+            int value = signals[node.address + o];
+            bits[node.address + o] = width < 32 && value >>> width == 0 ? width : 32;
+        }
+    }
+
+    private static int bitLength(int value){
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Fuses the bit slices that lead into each SplitIn into gates that work on whole buses
+     * @return True if anything was fused
+     */
+    private boolean fuse(int[] outNodes){
+        int[] readers = new int[signals.length];
+        for(int i = 0; i < nodes.length; i++){
+            if(removed[i]) continue;
+            if(newIn[i] == null) newIn[i] = resolve(current[i].in);
+            for(int address : newIn[i]) readers[address]++;
+        }
+        for(int address : outNodes) readers[find(address)]++;
+
+        boolean changed = false;
+        for(int i = 0; i < nodes.length; i++){
+            if(removed[i] || !(current[i] instanceof SplitInNode)) continue;
+            int[] split = ((SplitInNode) current[i]).getSplit();
+            if(split.length < 2) continue;
+            int[] offsets = new int[split.length];
+            int width = 0;
+            for(int s = 0; s < split.length; s++){
+                offsets[s] = width;
+                width += split[s];
+            }
+            if(width > 32 || fuseSlices(newIn[i], offsets, split, readers, false) == -1) continue;
+
+            int bus = fuseSlices(newIn[i], offsets, split, readers, true);
+            int address = current[i].address;
+            if(width == 32) {
+                alias[address] = bus;
+                removed[i] = true;
+                numFused++;
+            }
+            else {
+                current[i] = new SplitInNode(new int[] {bus}, new int[][] {new int[0]}, address, new int[] {width});
+                newIn[i] = current[i].in;
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the bus that a set of bit slices comes from. Slice s is equal to the bits of the bus from offsets[s] to
+     * offsets[s] + widths[s] if it is the matching output of a SplitOut that takes the bus apart, or if it is the output of a gate
+     * whose inputs are slices of the buses that a fused gate reads. Only the low widths[s] bits of a slice are used.
+     * @param slices The address of each slice
+     * @param readers The number of nodes that read each address
+     * @param fuse True to fuse the gates, false to only check that they can be fused
+     * @return The address of the bus, or -1 if the slices don't come from one bus
+     */
+    private int fuseSlices(int[] slices, int[] offsets, int[] widths, int[] readers, boolean fuse){
+        int first = addrNode[slices[0]];
+        if(first == -1 || removed[first]) return -1;
+        Node node = current[first];
+
+        if(node instanceof SplitOutNode) {
+            int[] split = ((SplitOutNode) node).getSplit();
+            for(int s = 0; s < slices.length; s++){
+                int output = slices[s] - node.address;
+                if(addrNode[slices[s]] != first || split[output] != widths[s]) return -1;
+                int offset = 0;
+                for(int o = 0; o < output; o++) offset += split[o];
+                if(offset != offsets[s]) return -1;
+            }
+            return find(newIn[first][0]);
+        }
+
+        if(!(node instanceof BasicGateNode || node instanceof SingleInputGateNode)) return -1;
+        int[][] columns = new int[newIn[first].length][slices.length];
+        for(int s = 0; s < slices.length; s++){
+            int id = addrNode[slices[s]];
+            //a slice that is read elsewhere has to keep its own signal
+            if(id == -1 || removed[id] || readers[slices[s]] != 1 || !sameGate(current[id], node) ||
+                    newIn[id].length != columns.length) return -1;
+            for(int c = 0; c < columns.length; c++) columns[c][s] = newIn[id][c];
+        }
+        int[] buses = new int[columns.length];
+        for(int c = 0; c < columns.length; c++){
+            buses[c] = fuseSlices(columns[c], offsets, widths, readers, fuse);
+            if(buses[c] == -1) return -1;
+        }
+        if(!fuse) return node.address;
+
+        for(int s = 1; s < slices.length; s++){
+            removed[addrNode[slices[s]]] = true;
+            numFused++;
+        }
+        Node gate;
+        int[][] mark = {new int[0]};
+        if(node instanceof BasicGateNode) {
+            gate = new BasicGateNode(buses, mark, node.address, LogicFunctions.getCompType(((BasicGateNode) node).getFunction()));
+        }
+        else gate = new SingleInputGateNode(buses, mark, node.address, CompType.NOT);
+        current[first] = gate;
+        newIn[first] = buses;
+        fused[first] = true;
+        //the signal now holds the whole bus
+        gate.updateLCC(signals, 0, null);
+        bits[node.address] = 32;
+        return node.address;
+    }
+
+    private static boolean sameGate(Node a, Node b){
+        if(a instanceof BasicGateNode) {
+            return b instanceof BasicGateNode && ((BasicGateNode) a).getFunction() == ((BasicGateNode) b).getFunction();
+        }
+        //buffers are already collapsed, so every SingleInputGateNode left is a NOT gate
+        return a instanceof SingleInputGateNode && b instanceof SingleInputGateNode;
+    }
+
+    private boolean sameSignals(Node a, Node b){
+        for(int o = 0; o < a.getNumOutputs(); o++) if(signals[a.address + o] != signals[b.address + o]) return false;
+        return true;
+    }
+
+    /**
+     * Removes every gate, buffer, splitter and placeholder whose outputs don't reach an output of the chip
+     */
+    private void removeDead(int[] outNodes){
+        boolean[] live = new boolean[nodes.length];
+        IntStack work = new IntStack();
+        for(int address : outNodes) markLive(find(address), live, work);
+        for(int i = 0; i < nodes.length; i++){
+            if(removed[i]) continue;
+            if(newIn[i] == null) newIn[i] = resolve(current[i].in);
+            if(!live[i] && (current[i] instanceof StartNode || current[i] instanceof CustomNode)) {
+                live[i] = true;
+                work.push(i);
+            }
+        }
+        while(!work.isEmpty()) {
+            for(int address : newIn[work.pop()]) markLive(address, live, work);
+        }
+        for(int i = 0; i < nodes.length; i++){
+            if(removed[i] || live[i]) continue;
+            removed[i] = true;
+            numDead++;
+        }
+    }
+
+    private void markLive(int address, boolean[] live, IntStack work){
+        int id = addrNode[address];
+        if(id == -1 || removed[id] || live[id]) return;
+        live[id] = true;
+        work.push(id);
+    }
+
+    /**
+     * Copies a kept node with its simplified inputs. Mark lists are left for CustomType.linkMarks to fill in.
+     */
+    private Node copy(int id){
+        Node node = current[id];
+        int[] in = newIn[id];
+        if(in.length != node.in.length) {
+            return new BasicGateNode(in, new int[1][], node.address, LogicFunctions.getCompType(((BasicGateNode) node).getFunction()));
+        }
+        Node copy = node.makeCopyWithOffset(0, 0);
+        System.arraycopy(in, 0, copy.in, 0, in.length);
+        return copy;
+    }
+
+    /**
+     * Orders the removed nodes that are not constant and the fused gates so that each one comes after the others that it reads.
+     * Nodes that read each other in a loop come last.
+     */
+    private Node[] restoreOrder(){
+        int n = nodes.length;
+        boolean[] restored = new boolean[n];
+        int[] pending = new int[n];
+        int[] readerCount = new int[n + 1];
+        for(int i = 0; i < n; i++){
+            if(fused[i] || removed[i] && !isConstant(i)) restored[i] = true;
+        }
+        //readers of each restored node, in compressed rows
+        for(int i = 0; i < n; i++){
+            if(!restored[i]) continue;
+            for(int address : nodes[i].in){
+                int source = addrNode[address];
+                if(source == -1 || !restored[source]) continue;
+                pending[i]++;
+                readerCount[source + 1]++;
+            }
+        }
+        for(int i = 0; i < n; i++) readerCount[i + 1] += readerCount[i];
+        int[] readers = new int[readerCount[n]];
+        int[] fill = Arrays.copyOf(readerCount, n);
+        for(int i = 0; i < n; i++){
+            if(!restored[i]) continue;
+            for(int address : nodes[i].in){
+                int source = addrNode[address];
+                if(source != -1 && restored[source]) readers[fill[source]++] = i;
+            }
+        }
+
+        ArrayList<Node> order = new ArrayList<>();
+        IntStack ready = new IntStack();
+        for(int i = 0; i < n; i++) if(restored[i] && pending[i] == 0) ready.push(i);
+        while(!ready.isEmpty()) {
+            int id = ready.pop();
+            order.add(nodes[id]);
+            restored[id] = false;
+            for(int r = readerCount[id]; r < readerCount[id + 1]; r++) if(--pending[readers[r]] == 0) ready.push(readers[r]);
+        }
+        for(int i = 0; i < n; i++) if(restored[i]) order.add(nodes[i]);
+        return order.toArray(new Node[0]);
+    }
+
+    private boolean isConstant(int id){
+        return constant[nodes[id].address];
+    }
+
+    /**
+     * Returns a copy of a chip's signals in which the signals of removed nodes and fused gates are brought up to date
+     * @param chipSignals The signals of an instance of the chip
+     * @return The restored signals
+     */
+    public int[] restore(int[] chipSignals){
+        int[] restored = chipSignals.clone();
+        for(Node node : restoreNodes) node.updateLCC(restored, 0, null);
+        return restored;
+    }
+
+    /**
+     * Returns the optimized nodes. Every kept node is a copy, and the StartNodes are still first and in the same order.
+     * @return The nodes
+     */
+    public Node[] getNodes(){
+        return optimized;
+    }
+
+    /**
+     * Returns the output addresses, which may point to the signal that a removed node was equal to
+     * @return The output addresses
+     */
+    public int[] getOutNodes(){
+        return outNodes;
+    }
+
+    public int getNumNodesBefore(){
+        return nodes.length;
+    }
+
+    public int getNumNodesAfter(){
+        return optimized.length;
+    }
+
+    /**
+     * Describes the optimization
+     * @return The node counts before and after, and the number of nodes removed by each rewrite
+     */
+    public String getReport(){
+        return nodes.length + " -> " + optimized.length + " nodes (" + numConstant + " constant, " + numCollapsed + " collapsed, " +
+                numMerged + " merged, " + numDead + " dead, " + numFused + " fused)";
+    }
+
+    /**
+     * Identifies the function of a node for common subexpression merging: its kind, its parameters, and its inputs. The inputs
+     * of commutative gates are sorted.
+     */
+    private static class Key {
+
+        private final int[] data;
+
+        private final int hash;
+
+        Key(Node node, int[] in){
+            IntStack stack = new IntStack();
+            int[] params;
+            if(node instanceof BasicGateNode) {
+                int function = ((BasicGateNode) node).getFunction();
+                params = new int[] {0, function};
+                //NAND, NOR and XNOR are applied one input at a time, so only two inputs can be swapped
+                if(function <= 2 || in.length == 2) {
+                    in = in.clone();
+                    Arrays.sort(in);
+                }
+            }
+            else if(node instanceof SingleInputGateNode) params = new int[] {1, ((SingleInputGateNode) node).getMask()};
+            else {
+                int[] split = node instanceof SplitInNode ? ((SplitInNode) node).getSplit() : ((SplitOutNode) node).getSplit();
+                params = new int[split.length + 2];
+                params[0] = node instanceof SplitInNode ? 2 : 3;
+                params[1] = split.length;
+                System.arraycopy(split, 0, params, 2, split.length);
+            }
+            for(int p : params) stack.push(p);
+            for(int address : in) stack.push(address);
+            data = new int[stack.size()];
+            for(int i = data.length - 1; i >= 0; i--) data[i] = stack.pop();
+            hash = Arrays.hashCode(data);
+        }
+
+        @Override
+        public boolean equals(Object o){
+            return o instanceof Key && Arrays.equals(data, ((Key) o).data);
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+    }
+}
@@ -12,19 +12,13 @@ public abstract class Node {
     public final int[] in;
 
     //Index in Nodes array of the nodes to mark
-    public final Integer[][] mark;
+    public final int[][] mark;
 
     public final int address;
 
-    public Node(int[] in, int[][] rawMark, int address){
+    public Node(int[] in, int[][] mark, int address){
         this.in = in;
-        if(rawMark != null) {
-            mark = new Integer[rawMark.length][];
-            for (int i = 0; i < mark.length; i++) {
-                this.mark[i] = new Integer[rawMark[i].length];
-                for (int x = 0; x < mark[i].length; x++) mark[i][x] = rawMark[i][x];
-            }
-        } else mark = null;
+        this.mark = mark;
         this.address = address;
     }
 
@@ -14,19 +14,86 @@ public abstract class NodeBox2 {
      */
     protected final int[] outNodes;
 
+    /**
+     * The numbers 0 to (number of inputs - 1), used as the input addresses when the inputs are given as a plain array
+     */
+    private final int[] inputIndex;
+
     public NodeBox2(Node[] nodes, int[] outNodes) {
         this.nodes = nodes;
         this.outNodes = outNodes;
+        //the input nodes always come first
+        int numInputs = 0;
+        while(numInputs < nodes.length && nodes[numInputs] instanceof StartNode) numInputs++;
+        inputIndex = new int[numInputs];
+        for(int i = 0; i < numInputs; i++) inputIndex[i] = i;
     }
 
-    public abstract int[] update(int[] signals, int[] in, int offset, ActiveStack active);
+    /**
+     * Brings the inputs of the NodeBox up to date and updates the nodes that depend on them. The inputs are read directly from
+     * the signals of the enclosing circuit, and the outputs are left in the signals array (see getOutput), so updating does
+     * not allocate.
+     * @param signals The signals array
+     * @param offset The signal address offset of this NodeBox
+     * @param source The array that holds the new input signals (may be the same as signals)
+     * @param in The address of each input signal in source, relative to sourceOffset
+     * @param sourceOffset The offset of the addresses in in
+     * @param active The active stack
+     */
+    public abstract void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active);
 
-    protected int[] getOutputs(int[] signals, int offset){
-        int[] outputs = new int[outNodes.length];
-        for (int i = 0; i < outNodes.length; i++) {
-            outputs[i] = signals[offset + outNodes[i]];
+    /**
+     * Updates the NodeBox using a plain array of input signals
+     * @param signals The signals array
+     * @param offset The signal address offset of this NodeBox
+     * @param inputs The new input signals, in order
+     * @param active The active stack
+     */
+    public void update(int[] signals, int offset, int[] inputs, ActiveStack active){
+        update(signals, offset, inputs, inputIndex, 0, active);
+    }
+
+    /**
+     * Tells if an update with the given inputs would change any signal. Every NodeBox returns from update without writing
+     * anything when each input is equal to the value in its input node.
+     * @param signals The signals array
+     * @param offset The signal address offset of this NodeBox
+     * @param source The array that holds the new input signals
+     * @param in The address of each input signal in source, relative to sourceOffset
+     * @param sourceOffset The offset of the addresses in in
+     * @return True if at least one input differs
+     */
+    public boolean inputsChanged(int[] signals, int offset, int[] source, int[] in, int sourceOffset){
+        for(int i = 0; i < in.length; i++){
+            if(signals[nodes[i].address + offset] != source[sourceOffset + in[i]]) return true;
         }
-        return outputs;
+        return false;
+    }
+
+    /**
+     * Tells if an update with a plain array of input signals would change any signal
+     * @param signals The signals array
+     * @param offset The signal address offset of this NodeBox
+     * @param inputs The new input signals, in order
+     * @return True if at least one input differs
+     */
+    public boolean inputsChanged(int[] signals, int offset, int[] inputs){
+        return inputsChanged(signals, offset, inputs, inputIndex, 0);
+    }
+
+    /**
+     * Returns an output signal of the NodeBox
+     * @param signals The signals array
+     * @param offset The signal address offset of this NodeBox
+     * @param index The index of the output
+     * @return The output signal
+     */
+    public int getOutput(int[] signals, int offset, int index){
+        return signals[offset + outNodes[index]];
+    }
+
+    public int[] getOutNodes(){
+        return outNodes;
     }
 
     public Node[] getNodes(){
@@ -8,9 +8,9 @@ import com.logic.engine.LogicWorker;
 import com.logic.ui.CircuitPanel;
 import com.logic.util.Constants;
 
-import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class OpCustom2 extends LComponent {
 
@@ -18,22 +18,55 @@ public class OpCustom2 extends LComponent {
 
     private int[] signals;
 
-    private Timer[] timers;
+    /**
+     * True while signals is the defaultSignals array of the type, which is shared by the type and every instance that has not
+     * changed since it was created, copied, or reset by invalidate. The array is copied the first time an update would write
+     * to it, so placing or pasting many copies of a large chip does not copy its signals until each copy is actually used.
+     */
+    private boolean shared;
+
+    /**
+     * The state of each clock inside the chip, in the order of CustomType.clocks. The clocks are extra inputs of the NodeBox, so
+     * a change made by toggleClocks is picked up the next time the chip is updated.
+     */
+    private int[] clockStates;
+
+    /**
+     * Holds the input signals during update, so that updating does not allocate
+     */
+    private int[] inputs;
+
+    /**
+     * The ActiveStack used by each thread that updates custom chips. Event based NodeBoxes always leave the stack empty when
+     * they finish, so one stack can be shared by every chip that is updated on the same thread.
+     */
+    private static final ThreadLocal<ActiveStack> activeStack = ThreadLocal.withInitial(ActiveStack::new);
 
     public OpCustom2(int x, int y, CustomType type) {
         super(x, y, CompType.CUSTOM);
         this.type = type;
         signals = type.defaultSignals;
+        shared = true;
         initConnections();
-        timers = new Timer[type.clocks.size()];
+        initClockStates();
     }
 
     public OpCustom2(int x, int y, CustomType type, int[] signals){
         super(x, y, CompType.CUSTOM);
         this.type = type;
-        this.signals = signals;
+        //signals that are equal to the defaults (a chip that was saved or copied before it was used) are shared as well
+        shared = signals == type.defaultSignals || Arrays.equals(signals, type.defaultSignals);
+        this.signals = shared ? type.defaultSignals : signals;
         initConnections();
-        timers = new Timer[type.clocks.size()];
+        initClockStates();
+    }
+
+    /**
+     * Reads the state of each clock from the signals, so that the first update does not see a change
+     */
+    private void initClockStates(){
+        clockStates = new int[type.clocks.size()];
+        for(int i = 0; i < clockStates.length; i++) clockStates[i] = signals[type.clocks.get(i)[2]];
     }
 
     /**
@@ -58,36 +91,115 @@ public class OpCustom2 extends LComponent {
         }
     }
 
+    /**
+     * Registers this chip with the ClockDriver, which toggles the clocks inside of it. Chips without clocks are skipped by the
+     * driver, but are still registered in case the type is edited to include a clock.
+     * @param cp The CircuitPanel that contains the chip
+     */
     public void start(CircuitPanel cp){
-        /*for(int i = 0; i < timers.length; i++) {
-            if (timers[i] != null) timers[i].stop();
-            int[] clockInfo = type.clocks.get(i);
-            timers[i] = new Timer(clockInfo[0], e -> {
-                int[] address = new int[clockInfo.length - 1];
-                System.arraycopy(clockInfo, 1, address, 0, address.length);
-                int[] clockSignal = sp.getNestedSignal(address);
-                clockSignal[0] = ~clockSignal[0];
-                LogicWorker.startLogic(this);
-                cp.repaint();
-            });
-            timers[i].start();
-        }*/
-        //TODO clocks are very, very broken
+        LogicWorker.getClockDriver().addClock(this);
     }
 
     public void stop(){
-        for(Timer timer : timers) timer.stop();
+        LogicWorker.getClockDriver().removeClock(this);
+    }
+
+    @Override
+    public void delete() {
+        stop();
+        super.delete();
+    }
+
+    /**
+     * Tells if there are any clocks inside this chip
+     * @return True if the chip has clocks
+     */
+    public boolean hasClocks(){
+        return !type.clocks.isEmpty();
+    }
+
+    /**
+     * Toggles every clock inside this chip. The chip must be updated afterward for the change to take effect.
+     */
+    public void toggleClocks(){
+        if(clockStates.length != type.clocks.size()) initClockStates();
+        for(int i = 0; i < clockStates.length; i++) clockStates[i] ^= 1;
+    }
+
+    /**
+     * Collects the inputs for the NodeBox from the signals of the enclosing circuit, followed by the state of each clock
+     * @param source The enclosing signals
+     * @param in The address of each input in source
+     * @param sourceOffset The offset of the addresses in in
+     * @return The inputs, which are overwritten by the next call
+     */
+    int[] loadInputs(int[] source, int[] in, int sourceOffset){
+        prepareInputs(in.length);
+        for(int i = 0; i < in.length; i++) inputs[i] = source[sourceOffset + in[i]];
+        return inputs;
+    }
+
+    /**
+     * Makes sure that the inputs array has room for the given number of inputs and the clock states, and fills in the clock states
+     */
+    private void prepareInputs(int numInputs){
+        if(clockStates.length != type.clocks.size()) initClockStates();
+        if(inputs == null || inputs.length != numInputs + clockStates.length) inputs = new int[numInputs + clockStates.length];
+        System.arraycopy(clockStates, 0, inputs, numInputs, clockStates.length);
+    }
+
+    /**
+     * Returns the signals that the NodeBox should update with the given inputs. Shared signals are copied first if any input
+     * has changed, and otherwise the update won't write to them.
+     * @param source The enclosing signals
+     * @param in The address of each input in source
+     * @param sourceOffset The offset of the addresses in in
+     * @return The signals of this chip
+     */
+    int[] signalsForUpdate(int[] source, int[] in, int sourceOffset){
+        if(shared && type.nodeBox.inputsChanged(signals, 0, source, in, sourceOffset)) unshare();
+        return signals;
+    }
+
+    /**
+     * Returns the signals that the NodeBox should update with a plain array of inputs, copying shared signals first if any input
+     * has changed
+     * @param inputs The inputs, including the clock states
+     * @return The signals of this chip
+     */
+    int[] signalsForUpdate(int[] inputs){
+        if(shared && type.nodeBox.inputsChanged(signals, 0, inputs)) unshare();
+        return signals;
+    }
+
+    /**
+     * Gives this chip its own copy of the shared signals
+     */
+    private void unshare(){
+        signals = signals.clone();
+        shared = false;
+    }
+
+    /**
+     * Tells if this chip still shares the default signals of its type
+     * @return True if the signals have not been copied
+     */
+    public boolean isShared(){
+        return shared;
     }
 
     @Override
     public void update(LogicEngine engine) {
         //long start = System.nanoTime();
 
-        int[] inputs = new int[io.getNumInputs()];
-        for(int i = 0; i < inputs.length; i++) inputs[i] = io.getInput(i);
+        prepareInputs(io.getNumInputs());
+        for(int i = 0; i < io.getNumInputs(); i++) inputs[i] = io.getInput(i);
 
-        int[] outputs = type.nodeBox.update(signals, inputs, 0, new ActiveStack());
-        for(int i = 0; i < io.getNumOutputs(); i++) io.setOutput(i, outputs[i], engine);
+        NodeBox2 nodeBox = type.nodeBox;
+        ActiveStack active = activeStack.get();
+        nodeBox.update(signalsForUpdate(inputs), 0, inputs, active);
+        if(active.pollOscillation()) engine.reportOscillation(this);
+        for(int i = 0; i < io.getNumOutputs(); i++) io.setOutput(i, nodeBox.getOutput(signals, 0, i), engine);
         //if(type.label.equals("CPU1")) System.out.println("CPU TIME CYCLE TIME: " + (System.nanoTime() - start));
     }
 
@@ -112,8 +224,7 @@ public class OpCustom2 extends LComponent {
 
     @Override
     public LComponent makeCopy() {
-        int[] newSignals = new int[signals.length];
-        System.arraycopy(signals, 0, newSignals, 0, signals.length);
+        int[] newSignals = shared ? signals : signals.clone();
         OpCustom2 result = new OpCustom2(x, y, type, newSignals);
         result.setRotation(rotation);
         result.setName(getName());
@@ -125,6 +236,11 @@ public class OpCustom2 extends LComponent {
         return type.lcomps;
     }
 
+    /**
+     * Returns the signals of this chip. The array may be shared with the type and other instances (see isShared), so it must
+     * not be written to.
+     * @return The signals
+     */
     public int[] getSignals(){
         return signals;
     }
@@ -136,16 +252,22 @@ public class OpCustom2 extends LComponent {
     /**
      * Makes necessary changes to the signal array if dependent chips have changed (this method must be called after the CustomType
      * is up-to-date). If the type was modified, the signals take their new default values from the type. If the type was rebuilt,
-     * this component keeps its own top-level signals, but any inner signals are copied from type defaults.
+     * this component keeps its own top-level signals, but any inner signals are copied from type defaults. A chip that still
+     * shares the old defaults shares the new ones, since rebuilding keeps the top-level defaults.
      * @return True if action was required (the type was modified or rebuilt), false otherwise
      */
     public boolean invalidate(){
-        if(type.didRebuild()) {
+        if(shared && (type.didRebuild() || type.didModify())) {
+            signals = type.defaultSignals;
+            initClockStates();
+            return true;
+        }
+        else if(type.didRebuild()) {
             /*Since the type rebuilt (due to modification of a dependency), the top level signals have maintained the same
             structure, but the nested signals have changed unpredictably. We can keep this instance's top level signals,
             but the nested signals must be discarded and reset to default values from the CustomType.*/
             int nestedAddr = type.getNestedAddr();
-            int[] newSignals = new int[type.defaultSignals.length];;
+            int[] newSignals = new int[type.defaultSignals.length];
             System.arraycopy(signals, 0, newSignals, 0, nestedAddr);
             System.arraycopy(type.defaultSignals,
                     nestedAddr,
@@ -153,13 +275,15 @@ public class OpCustom2 extends LComponent {
                     nestedAddr,
                     type.defaultSignals.length - nestedAddr);
             signals = newSignals;
+            initClockStates();
             return true;
         }
         else if(type.didModify()) {
             /*The type was modified, so the entirety of the signals array may have changed. This instance's signals array is
             reset to default values from the CustomType, which are now based on the live circuit the user edited.*/
-            signals = new int[type.defaultSignals.length];
-            System.arraycopy(type.defaultSignals, 0, signals, 0, signals.length);
+            signals = type.defaultSignals;
+            shared = true;
+            initClockStates();
             return true;
         }
         return false;
@@ -0,0 +1,75 @@
+package com.logic.custom;
+
+/**
+ * Represents a top level custom chip in a compiled circuit. Unlike CustomNode, the inner signals are not part of the enclosing
+ * signals array. They stay in the OpCustom2 instance, so saving, copying and viewing the chip work the same as in event mode.
+ */
+public class OpCustomNode extends Node{
+
+    private final OpCustom2 custom;
+
+    public OpCustomNode(int[] in, int[][] mark, int address, OpCustom2 custom){
+        super(in, mark, address);
+        this.custom = custom;
+    }
+
+    @Override
+    public void updateEvent(int[] signals, int offset, ActiveStack active) {
+        NodeBox2 nodeBox = custom.getCustomType().nodeBox;
+        active.startInner();
+        int[] innerSignals = updateNodeBox(nodeBox, signals, offset, active);
+        active.finishInner();
+        for(int i = 0; i < mark.length; i++){
+            int index = address + offset + i;
+            int newSignal = nodeBox.getOutput(innerSignals, 0, i);
+            if(newSignal == signals[index]) continue;
+            signals[index] = newSignal;
+            active.mark(mark[i]);
+        }
+    }
+
+    @Override
+    public void updateLCC(int[] signals, int offset, ActiveStack active) {
+        NodeBox2 nodeBox = custom.getCustomType().nodeBox;
+        active.startInner();
+        int[] innerSignals = updateNodeBox(nodeBox, signals, offset, active);
+        active.finishInner();
+        for(int i = 0; i < mark.length; i++) signals[address + offset + i] = nodeBox.getOutput(innerSignals, 0, i);
+    }
+
+    /**
+     * Updates the chip's NodeBox. Signals that the chip shares with its type are copied first if the update will change them.
+     * @return The signals of the chip
+     */
+    private int[] updateNodeBox(NodeBox2 nodeBox, int[] signals, int offset, ActiveStack active){
+        //the clocks inside the chip are extra inputs that are not part of the enclosing signals
+        if(custom.hasClocks()) {
+            int[] inputs = custom.loadInputs(signals, in, offset);
+            int[] innerSignals = custom.signalsForUpdate(inputs);
+            nodeBox.update(innerSignals, 0, inputs, active);
+            return innerSignals;
+        }
+        int[] innerSignals = custom.signalsForUpdate(signals, in, offset);
+        nodeBox.update(innerSignals, 0, signals, in, offset, active);
+        return innerSignals;
+    }
+
+    public OpCustom2 getCustom(){
+        return custom;
+    }
+
+    @Override
+    public int getNumOutputs(){
+        return custom.getIO().getNumOutputs();
+    }
+
+    /**
+     * The copy wraps the same chip, which keeps its own state, so only one of the two should be updated
+     */
+    @Override
+    public Node makeCopyWithOffset(int sigOffset, int nodeOffset){
+        int[] newIn = new int[in.length];
+        for(int i = 0; i < newIn.length; i++) newIn[i] = in[i] + sigOffset;
+        return new OpCustomNode(newIn, copyMarkWithOffset(nodeOffset), address + sigOffset, custom);
+    }
+}
@@ -0,0 +1,32 @@
+package com.logic.custom;
+
+/**
+ * The packed equivalent of EventNodeBox (see PackedNodeBox)
+ */
+public class PackedEventNodeBox extends PackedNodeBox {
+
+    public PackedEventNodeBox(Node[] nodes, int[] outNodes) {
+        super(nodes, outNodes);
+    }
+
+    @Override
+    public void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active){
+        boolean change = false;
+        for(int i = 0; i < in.length; i++){
+            int address = this.address[i] + offset;
+            int newSignal = source[sourceOffset + in[i]];
+            if(signals[address] != newSignal) {
+                change = true;
+                signals[address] = newSignal;
+                updateEvent(i, signals, offset, active);
+            }
+        }
+        if(!change) return;
+
+        while(active.nextIteration()) {
+            while(active.hasNext()) {
+                updateEvent(active.next(), signals, offset, active);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.logic.custom;
+
+/**
+ * The packed equivalent of HybridNodeBox (see PackedNodeBox). It uses the same update order, so a chip with feedback gives the
+ * same results whether or not its nodes are packed.
+ */
+public class PackedHybridNodeBox extends PackedNodeBox {
+
+    private final int[] steps, loop, entryStart, entries;
+
+    /**
+     * Creates a PackedHybridNodeBox
+     * @param nodes The nodes
+     * @param outNodes The output addresses
+     * @param component The strongly connected component of each node, from LCCCompiler.condense
+     */
+    public PackedHybridNodeBox(Node[] nodes, int[] outNodes, int[] component) {
+        super(nodes, outNodes);
+        HybridNodeBox.Schedule schedule = new HybridNodeBox.Schedule(nodes, component);
+        steps = schedule.steps;
+        loop = schedule.loop;
+        entryStart = schedule.entryStart;
+        entries = schedule.entries;
+    }
+
+    @Override
+    public void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active){
+        boolean change = false;
+        for(int i = 0; i < in.length; i++){
+            int address = this.address[i] + offset;
+            int newSignal = source[sourceOffset + in[i]];
+            if(signals[address] != newSignal) {
+                change = true;
+                signals[address] = newSignal;
+            }
+        }
+        if(!change) return;
+
+        for(int step : steps){
+            if(step >= 0) updateLCC(step, signals, offset, active);
+            else updateLoop(-step - 1, signals, offset, active);
+        }
+    }
+
+    private void updateLoop(int k, int[] signals, int offset, ActiveStack active){
+        for(int i = entryStart[k]; i < entryStart[k + 1]; i++) updateEvent(entries[i], signals, offset, active);
+        while(active.nextIteration()) {
+            while(active.hasNext()) {
+                int node = active.next();
+                if(loop[node] == k) updateEvent(node, signals, offset, active);
+            }
+        }
+    }
+
+    public int getNumLoops(){
+        return entryStart.length - 1;
+    }
+}
@@ -0,0 +1,36 @@
+package com.logic.custom;
+
+/**
+ * The packed equivalent of LCCNodeBox (see PackedNodeBox)
+ */
+public class PackedLCCNodeBox extends PackedNodeBox {
+
+    private final int[] levels;
+
+    public PackedLCCNodeBox(Node[] nodes, int[] outNodes, int[] levels) {
+        super(nodes, outNodes);
+        this.levels = levels;
+    }
+
+    public int[] getLevels(){
+        return levels;
+    }
+
+    @Override
+    public void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active) {
+        boolean change = false;
+        for(int i = 0; i < in.length; i++){
+            int address = this.address[i] + offset;
+            int newSignal = source[sourceOffset + in[i]];
+            if(signals[address] != newSignal) {
+                change = true;
+                signals[address] = newSignal;
+            }
+        }
+        if(!change) return;
+
+        for(int i : levels){
+            updateLCC(i, signals, offset, active);
+        }
+    }
+}
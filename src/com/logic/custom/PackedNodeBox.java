@@ -0,0 +1,219 @@
+package com.logic.custom;
+
+/**
+ * A NodeBox that stores its nodes as parallel arrays instead of Node objects. Each node has an opcode, an output address, and
+ * a range in a shared array of input addresses. Mark lists are stored the same way (compressed sparse rows), with one row per
+ * node output. Updating a node is a switch on its opcode rather than a virtual call, and the data for neighboring nodes is
+ * next to each other in memory.
+ *
+ * Custom chip nodes keep their Node objects (opcode NODE), since their inner offset can change when the type is rebuilt. The
+ * nodes array is also kept for everything other than evaluation (projectInnerState, rebuilding, etc.).
+ */
+public abstract class PackedNodeBox extends NodeBox2 {
+
+    /**
+     * Opcodes. 0 to 5 are the BasicGate functions in the same order as LogicFunctions.
+     */
+    protected static final byte AND = 0, OR = 1, XOR = 2, NAND = 3, NOR = 4, XNOR = 5,
+            NOT = 6, BUFFER = 7, SPLIT_IN = 8, SPLIT_OUT = 9, START = 10, NONE = 11, NODE = 12;
+
+    protected final byte[] op;
+
+    /**
+     * The address of the first output of each node
+     */
+    protected final int[] address;
+
+    /**
+     * The input addresses of node i are inAddr[inStart[i]] to inAddr[inStart[i + 1] - 1]
+     */
+    protected final int[] inStart, inAddr;
+
+    /**
+     * The split of splitter node i is splits[splitStart[i]] to splits[splitStart[i + 1] - 1]
+     */
+    protected final int[] splitStart, splits;
+
+    /**
+     * The mark list of output o of node i is row markRow[i] + o. The nodes in row r are markTargets[markStart[r]] to
+     * markTargets[markStart[r + 1] - 1].
+     */
+    protected final int[] markRow, markStart, markTargets;
+
+    public PackedNodeBox(Node[] nodes, int[] outNodes) {
+        super(nodes, outNodes);
+        int n = nodes.length;
+        op = new byte[n];
+        address = new int[n];
+        inStart = new int[n + 1];
+        splitStart = new int[n + 1];
+        markRow = new int[n + 1];
+
+        int numIn = 0, numSplits = 0, numRows = 0, numTargets = 0;
+        for(Node node : nodes){
+            if(node == null) continue;
+            numIn += node.in.length;
+            if(node instanceof SplitInNode) numSplits += ((SplitInNode) node).getSplit().length;
+            else if(node instanceof SplitOutNode) numSplits += ((SplitOutNode) node).getSplit().length;
+            numRows += node.mark.length;
+            for(int[] row : node.mark) numTargets += row.length;
+        }
+        inAddr = new int[numIn];
+        splits = new int[numSplits];
+        markStart = new int[numRows + 1];
+        markTargets = new int[numTargets];
+
+        numIn = 0;
+        numSplits = 0;
+        numRows = 0;
+        numTargets = 0;
+        for(int i = 0; i < n; i++){
+            Node node = nodes[i];
+            inStart[i] = numIn;
+            splitStart[i] = numSplits;
+            markRow[i] = numRows;
+            if(node == null) {
+                op[i] = NONE;
+                continue;
+            }
+            op[i] = opcode(node);
+            address[i] = node.address;
+            System.arraycopy(node.in, 0, inAddr, numIn, node.in.length);
+            numIn += node.in.length;
+
+            int[] split = null;
+            if(node instanceof SplitInNode) split = ((SplitInNode) node).getSplit();
+            else if(node instanceof SplitOutNode) split = ((SplitOutNode) node).getSplit();
+            if(split != null) {
+                System.arraycopy(split, 0, splits, numSplits, split.length);
+                numSplits += split.length;
+            }
+
+            for(int[] row : node.mark){
+                markStart[numRows++] = numTargets;
+                System.arraycopy(row, 0, markTargets, numTargets, row.length);
+                numTargets += row.length;
+            }
+        }
+        inStart[n] = numIn;
+        splitStart[n] = numSplits;
+        markRow[n] = numRows;
+        markStart[numRows] = numTargets;
+    }
+
+    private static byte opcode(Node node){
+        if(node instanceof BasicGateNode) return ((BasicGateNode) node).getFunction();
+        if(node instanceof SingleInputGateNode) return ((SingleInputGateNode) node).getMask() == -1 ? NOT : BUFFER;
+        if(node instanceof SplitInNode) return SPLIT_IN;
+        if(node instanceof SplitOutNode) return SPLIT_OUT;
+        if(node instanceof StartNode) return START;
+        if(node instanceof PlaceholderNode) return NONE;
+        return NODE;
+    }
+
+    /**
+     * Updates node i and marks the nodes connected to any output that changed
+     */
+    protected final void updateEvent(int i, int[] signals, int offset, ActiveStack active){
+        int out = address[i] + offset;
+        byte code = op[i];
+        //gates and SplitIn are by far the most common nodes, so they are checked before the switch
+        if(code <= SPLIT_IN) {
+            int newSignal = evaluate(code, i, signals, offset);
+            if(newSignal == signals[out]) return;
+            signals[out] = newSignal;
+            mark(markRow[i], active);
+            return;
+        }
+        switch(code){
+            case START:
+                mark(markRow[i], active);
+                return;
+            case NONE:
+                return;
+            case NODE:
+                nodes[i].updateEvent(signals, offset, active);
+                return;
+            case SPLIT_OUT:
+                int input = signals[inAddr[inStart[i]] + offset];
+                for(int s = splitStart[i], o = 0; s < splitStart[i + 1]; s++, o++){
+                    int newSignal = input & (1 << splits[s]) - 1;
+                    input >>= splits[s];
+                    if(newSignal == signals[out + o]) continue;
+                    signals[out + o] = newSignal;
+                    mark(markRow[i] + o, active);
+                }
+        }
+    }
+
+    /**
+     * Updates node i without marking other nodes
+     */
+    protected final void updateLCC(int i, int[] signals, int offset, ActiveStack active){
+        byte code = op[i];
+        if(code <= SPLIT_IN) {
+            signals[address[i] + offset] = evaluate(code, i, signals, offset);
+            return;
+        }
+        switch(code){
+            case START:
+            case NONE:
+                return;
+            case NODE:
+                nodes[i].updateLCC(signals, offset, active);
+                return;
+            case SPLIT_OUT:
+                int out = address[i] + offset;
+                int input = signals[inAddr[inStart[i]] + offset];
+                for(int s = splitStart[i], o = 0; s < splitStart[i + 1]; s++, o++){
+                    signals[out + o] = input & (1 << splits[s]) - 1;
+                    input >>= splits[s];
+                }
+        }
+    }
+
+    private void mark(int row, ActiveStack active){
+        active.mark(markTargets, markStart[row], markStart[row + 1]);
+    }
+
+    /**
+     * Computes the output of a node that has exactly one output (gates and SplitIn)
+     */
+    private int evaluate(byte code, int i, int[] signals, int offset){
+        int first = inStart[i], last = inStart[i + 1];
+        int result = signals[inAddr[first] + offset];
+        switch(code){
+            case AND:
+                for(int n = first + 1; n < last; n++) result &= signals[inAddr[n] + offset];
+                return result;
+            case OR:
+                for(int n = first + 1; n < last; n++) result |= signals[inAddr[n] + offset];
+                return result;
+            case XOR:
+                for(int n = first + 1; n < last; n++) result ^= signals[inAddr[n] + offset];
+                return result;
+            case NAND:
+                for(int n = first + 1; n < last; n++) result = ~(result & signals[inAddr[n] + offset]);
+                return result;
+            case NOR:
+                for(int n = first + 1; n < last; n++) result = ~(result | signals[inAddr[n] + offset]);
+                return result;
+            case XNOR:
+                for(int n = first + 1; n < last; n++) result = ~(result ^ signals[inAddr[n] + offset]);
+                return result;
+            case NOT:
+                return ~result;
+            case BUFFER:
+                return result;
+            case SPLIT_IN:
+                result = 0;
+                int shift = 0;
+                for(int n = first, s = splitStart[i]; n < last; n++, s++){
+                    result |= (signals[inAddr[n] + offset] & ((1 << splits[s]) - 1)) << shift;
+                    shift += splits[s];
+                }
+                return result;
+        }
+        return result;
+    }
+}
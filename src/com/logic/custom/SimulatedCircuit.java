@@ -0,0 +1,40 @@
+package com.logic.custom;
+
+import com.logic.components.LComponent;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compiled form of a top level circuit that LogicWorker runs instead of LogicEngine (see CompiledCircuit and TimedCircuit).
+ * It is kept up to date as the circuit is edited, and compiled again when an edit can't be applied to it.
+ */
+public interface SimulatedCircuit {
+
+    /**
+     * Tells if the given component was part of the circuit when it was compiled
+     * @param lcomp The component
+     * @return True if the component has been compiled
+     */
+    boolean contains(LComponent lcomp);
+
+    /**
+     * Brings the circuit up to date after the input wires of the given component were edited
+     * @param lcomp The component that may have been edited
+     * @return False if the circuit must be compiled again
+     */
+    boolean refresh(LComponent lcomp);
+
+    /**
+     * Updates the given components and everything they influence, then copies the new signals back to the output connections
+     * @param startingComps The components to update first
+     * @return The number of iterations, or LogicEngine.OSCILLATION if the update was stopped
+     */
+    int doLogic(Collection<LComponent> startingComps);
+
+    /**
+     * Returns the components that were oscillating when the last call to doLogic was stopped
+     * @return The oscillating components, which is empty if the last update was not stopped
+     */
+    List<LComponent> getOscillating();
+}
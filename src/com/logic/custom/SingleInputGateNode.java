@@ -28,6 +28,14 @@ public class SingleInputGateNode extends Node {
         signals[address + offset] = signals[in[0] + offset] ^ mask;
     }
 
+    /**
+     * Returns the value that the input is XORed with (-1 for NOT, 0 for BUFFER)
+     * @return The mask
+     */
+    public int getMask(){
+        return mask;
+    }
+
     @Override
     public int getNumOutputs(){
         return 1;
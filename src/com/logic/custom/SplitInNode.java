@@ -38,6 +38,10 @@ public class SplitInNode extends Node{
         return newSignal;
     }
 
+    public int[] getSplit(){
+        return split;
+    }
+
     @Override
     public int getNumOutputs(){
         return 1;
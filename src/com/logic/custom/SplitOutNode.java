@@ -35,6 +35,10 @@ public class SplitOutNode extends Node{
         }
     }
 
+    public int[] getSplit(){
+        return split;
+    }
+
     @Override
     public int getNumOutputs(){
         return split.length;
@@ -0,0 +1,159 @@
+package com.logic.custom;
+
+/**
+ * A NodeBox for a small combinational chip, which answers each update with one lookup in a truth table instead of updating its
+ * nodes. The table is built when the NodeBox is created, by updating every leveled node once for each combination of input values,
+ * and holds the value of every output for each combination.
+ *
+ * An input can have bits above its bit width (a NOT gate leaves the high bits set), which reach the outputs the same way they do
+ * in an LCCNodeBox. The high bits of an input are either all clear or all set, except in chips that build such values out of
+ * splitters, so the table index holds the bits of each input within its width, first input in the lowest bits, followed by one bit
+ * per input that tells if its high bits are set. Each index then stands for exactly one set of input values, and the outputs are
+ * the same as those of an LCCNodeBox, high bits included. An input whose high bits are mixed has no entry, and every leveled node
+ * is updated instead.
+ *
+ * A lookup only writes the inputs and outputs, so the signals of the inner nodes are left as they were. projectInnerState uses
+ * evaluate to show the inner nodes.
+ */
+public class TableNodeBox extends NodeBox2 {
+
+    /**
+     * The most bits that a table index can have, counting the high bit of each input
+     */
+    public static final int MAX_INPUT_BITS = 16;
+
+    /**
+     * The default size budget, in table entries (one entry per output per input combination)
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+
+    private static volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private final int[] levels;
+
+    /**
+     * The outputs for each input combination, with the outputs of combination c starting at c * numOutputs
+     */
+    private final int[] table;
+
+    /**
+     * The bits that each input can have, and the position of the input in the table index. The bit that tells if the high bits of
+     * input i are set is at highShift + i.
+     */
+    private final int[] masks, shifts;
+
+    private final int highShift;
+
+    private final int numOutputs;
+
+    /**
+     * Builds the table of a chip
+     * @param nodes The nodes
+     * @param outNodes The output addresses
+     * @param levels The level order from nodeCompile
+     * @param widths The bit width of each input
+     * @param signals The default signals of the chip, which are not changed
+     */
+    public TableNodeBox(Node[] nodes, int[] outNodes, int[] levels, int[] widths, int[] signals){
+        super(nodes, outNodes);
+        if(!fits(widths, outNodes.length)) throw new IllegalArgumentException("Chip is too large for a truth table");
+        this.levels = levels;
+        numOutputs = outNodes.length;
+        masks = new int[widths.length];
+        shifts = new int[widths.length];
+        int bits = 0;
+        for(int i = 0; i < widths.length; i++){
+            masks[i] = (1 << widths[i]) - 1;
+            shifts[i] = bits;
+            bits += widths[i];
+        }
+        highShift = bits;
+        bits += widths.length;
+
+        table = new int[numOutputs << bits];
+        int[] scratch = signals.clone();
+        ActiveStack active = new ActiveStack();
+        for(int index = 0; index < 1 << bits; index++){
+            for(int i = 0; i < widths.length; i++){
+                int high = (index >> highShift + i & 1) != 0 ? ~masks[i] : 0;
+                scratch[nodes[i].address] = index >> shifts[i] & masks[i] | high;
+            }
+            updateLevels(scratch, 0, active);
+            for(int o = 0; o < numOutputs; o++) table[index * numOutputs + o] = scratch[outNodes[o]];
+        }
+    }
+
+    /**
+     * Tells if a chip is small enough for a truth table
+     * @param widths The bit width of each input
+     * @param numOutputs The number of outputs
+     * @return True if the table index has at most MAX_INPUT_BITS bits and the table fits in the size budget
+     */
+    public static boolean fits(int[] widths, int numOutputs){
+        int bits = widths.length;
+        for(int width : widths) bits += width;
+        return bits <= MAX_INPUT_BITS && (long) numOutputs << bits <= maxEntries;
+    }
+
+    @Override
+    public void update(int[] signals, int offset, int[] source, int[] in, int sourceOffset, ActiveStack active) {
+        boolean changed = false, mixed = false;
+        int index = 0;
+        for(int i = 0; i < in.length; i++){
+            int address = nodes[i].address + offset;
+            int newSignal = source[sourceOffset + in[i]];
+            index |= (newSignal & masks[i]) << shifts[i];
+            int highBits = newSignal & ~masks[i];
+            if(highBits == ~masks[i]) index |= 1 << highShift + i;
+            else if(highBits != 0) mixed = true;
+            if(signals[address] != newSignal) {
+                changed = true;
+                signals[address] = newSignal;
+            }
+        }
+        if(!changed) return;
+        if(mixed) {
+            updateLevels(signals, offset, active);
+            return;
+        }
+
+        int base = index * numOutputs;
+        for(int o = 0; o < numOutputs; o++) signals[offset + outNodes[o]] = table[base + o];
+    }
+
+    private void updateLevels(int[] signals, int offset, ActiveStack active){
+        for(int i : levels) nodes[i].updateLCC(signals, offset, active);
+    }
+
+    /**
+     * Returns a copy of a chip's signals in which every leveled node is up to date, for showing the inner nodes
+     * @param chipSignals The signals of an instance of the chip
+     * @return The updated signals
+     */
+    public int[] evaluate(int[] chipSignals){
+        int[] evaluated = chipSignals.clone();
+        updateLevels(evaluated, 0, new ActiveStack());
+        return evaluated;
+    }
+
+    /**
+     * Sets the size budget of the tables that are built from now on
+     * @param entries The largest number of table entries
+     */
+    public static void setMaxEntries(int entries){
+        if(entries <= 0) throw new IllegalArgumentException("Table size budget must be positive");
+        maxEntries = entries;
+    }
+
+    public static int getMaxEntries(){
+        return maxEntries;
+    }
+
+    /**
+     * Returns the number of entries in the table
+     * @return The number of input combinations times the number of outputs
+     */
+    public int getTableSize(){
+        return table.length;
+    }
+}
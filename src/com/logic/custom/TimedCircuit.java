@@ -0,0 +1,320 @@
+package com.logic.custom;
+
+import com.logic.components.*;
+import com.logic.engine.LogicEngine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A top level circuit simulated with propagation delays. The circuit is compiled the same way as an event driven CompiledCircuit,
+ * but every node has an integer delay, and a node that is updated at time t changes its outputs at time t + delay instead of
+ * immediately. The changes are kept as events in a TimingWheel, so two paths with different delays can produce a glitch, and
+ * races between signals happen in the order the delays say they do.
+ *
+ * Delays are transport delays: every change is delivered, even a pulse that is shorter than the delay of the node. Switches,
+ * buttons, constants, clocks and splitters have no delay by default, and every other component has DEFAULT_DELAY. A custom chip
+ * is a single node, so its internal signals change immediately and only its outputs are delayed.
+ *
+ * A CircuitPanel in LogicWorker.TIMED_MODE is simulated with a TimedCircuit, and ChipTester.GLITCHES runs the components inside
+ * a custom chip as one to find its glitches and races. Delays are not saved with the circuit, so both use the default delays.
+ */
+public class TimedCircuit implements SimulatedCircuit {
+
+    public static final int DEFAULT_DELAY = 1;
+
+    /**
+     * Receives every output change in a TimedCircuit, for example to record a waveform
+     */
+    public interface Probe {
+
+        /**
+         * Called when an output of a component changes
+         * @param time The time of the change
+         * @param lcomp The component
+         * @param output The index of the output connection
+         * @param value The new value of the output, masked to its bit width
+         */
+        void changed(long time, LComponent lcomp, int output, int value);
+    }
+
+    private final CompiledCircuit circuit;
+
+    private final Node[] nodes;
+
+    private final int[] signals;
+
+    private final int[] addrNode;
+
+    private final ActiveStack active;
+
+    /**
+     * The component of each node
+     */
+    private final LComponent[] comps;
+
+    /**
+     * The delay of each node
+     */
+    private final int[] delay;
+
+    /**
+     * The value that each signal will have once every pending event has been applied
+     */
+    private final int[] projected;
+
+    private final TimingWheel wheel;
+
+    /**
+     * The nodes to update in the current round, and the round in which each node was last added
+     */
+    private final IntStack eval;
+
+    private final int[] evalRound;
+
+    private int round;
+
+    /**
+     * Holds the outputs of a node while it is being updated
+     */
+    private final int[] saved;
+
+    /**
+     * The components that were oscillating when the last call to run was stopped
+     */
+    private final ArrayList<LComponent> oscillating;
+
+    private Probe probe;
+
+    /**
+     * Compiles the given components. Current signals are read from the output connections.
+     * @param lcomps The components in the circuit
+     */
+    public TimedCircuit(Collection<LComponent> lcomps){
+        circuit = new CompiledCircuit(lcomps, false);
+        nodes = circuit.getNodes();
+        signals = circuit.getSignals();
+        addrNode = circuit.getAddrNode();
+        active = circuit.getActive();
+        comps = new LComponent[nodes.length];
+        for(LComponent lcomp : lcomps){
+            int id = circuit.getNodeIndex(lcomp);
+            if(id != -1) comps[id] = lcomp;
+        }
+        delay = new int[nodes.length];
+        int maxOutputs = 0;
+        for(int i = 0; i < nodes.length; i++){
+            delay[i] = defaultDelay(comps[i]);
+            maxOutputs = Math.max(maxOutputs, nodes[i].mark.length);
+        }
+        projected = signals.clone();
+        wheel = new TimingWheel();
+        eval = new IntStack();
+        evalRound = new int[nodes.length];
+        saved = new int[maxOutputs];
+        oscillating = new ArrayList<>();
+    }
+
+    private static int defaultDelay(LComponent lcomp){
+        return lcomp instanceof Switch || lcomp instanceof Button || lcomp instanceof Constant || lcomp instanceof Clock ||
+                lcomp instanceof Splitter ? 0 : DEFAULT_DELAY;
+    }
+
+    /**
+     * Sets the delay of a component. Changes that have already been scheduled are not affected.
+     * @param lcomp The component
+     * @param newDelay The new delay, which can be 0
+     */
+    public void setDelay(LComponent lcomp, int newDelay){
+        if(newDelay < 0) throw new IllegalArgumentException("Delay can't be negative");
+        int id = circuit.getNodeIndex(lcomp);
+        if(id == -1) throw new IllegalArgumentException(lcomp + " has no node in this circuit");
+        delay[id] = newDelay;
+    }
+
+    /**
+     * Returns the delay of a component
+     * @param lcomp The component
+     * @return The delay, or -1 if the component has no node in this circuit
+     */
+    public int getDelay(LComponent lcomp){
+        int id = circuit.getNodeIndex(lcomp);
+        return id == -1 ? -1 : delay[id];
+    }
+
+    /**
+     * Tells if the given component has been compiled into this circuit
+     * @param lcomp The component
+     * @return True if the component is part of the circuit
+     */
+    @Override
+    public boolean contains(LComponent lcomp){
+        return circuit.contains(lcomp);
+    }
+
+    /**
+     * Brings the node for the given component up to date after its input wires were edited (see CompiledCircuit.refresh). The
+     * delay of the node is kept.
+     * @param lcomp The component that may have been edited
+     * @return False if the circuit must be recompiled
+     */
+    @Override
+    public boolean refresh(LComponent lcomp){
+        return circuit.refresh(lcomp);
+    }
+
+    public void setProbe(Probe probe){
+        this.probe = probe;
+    }
+
+    /**
+     * Updates the given components at the current time, then runs until there are no pending events
+     * @param startingComps The components to update first
+     * @return The number of rounds of events that were applied, or LogicEngine.OSCILLATION if the circuit did not settle
+     */
+    @Override
+    public int doLogic(Collection<LComponent> startingComps){
+        start(startingComps);
+        return run(Long.MAX_VALUE);
+    }
+
+    /**
+     * Updates the given components at the current time and schedules their output changes, without applying any events
+     * @param startingComps The components that changed
+     */
+    public void start(Collection<LComponent> startingComps){
+        round++;
+        for(LComponent lcomp : startingComps){
+            int id = circuit.getNodeIndex(lcomp);
+            if(id != -1) addEval(id);
+        }
+        updateMarked();
+        active.pollOscillation();
+    }
+
+    /**
+     * Applies the pending events up to and including the given time. The current time is moved to the given time, unless it
+     * is Long.MAX_VALUE, in which case the current time is left at the last event. Like LogicEngine.doLogic, the simulation is
+     * stopped and every pending event is dropped if the number of rounds reaches the iteration limit or a custom chip
+     * oscillates, and the oscillating components are available from getOscillating. The signals are copied back to the output
+     * connections when this method returns.
+     * @param until The last time to simulate
+     * @return The number of rounds of events that were applied, or LogicEngine.OSCILLATION if the simulation was stopped
+     */
+    public int run(long until){
+        oscillating.clear();
+        int limit = LogicEngine.getIterationLimit();
+        int watchFrom = Math.max(0, limit - LogicEngine.OSCILLATION_WINDOW);
+        boolean[] watched = null;
+        int rounds = 0;
+        while(wheel.advance(until) != -1) {
+            //events scheduled with a delay of 0 during a round are applied in the next round at the same time
+            int first;
+            while((first = wheel.takeCurrent()) != -1) {
+                if(rounds >= limit) {
+                    wheel.release(first);
+                    boolean[] changing = watched;
+                    return stop(LogicEngine.findLoops(circuit.getComponents(id -> changing != null && changing[id])));
+                }
+                if(rounds >= watchFrom && watched == null) watched = new boolean[nodes.length];
+                round++;
+                for(int e = first; e != -1; e = wheel.getNext(e)) apply(wheel.getTarget(e), wheel.getValue(e), watched);
+                wheel.release(first);
+                int culprit = updateMarked();
+                if(culprit != -1) return stop(circuit.getComponents(id -> id == culprit));
+                rounds++;
+            }
+        }
+        circuit.writeBack();
+        return rounds;
+    }
+
+    /**
+     * Drops every pending event after the circuit has oscillated
+     * @param loop The components that were oscillating
+     * @return LogicEngine.OSCILLATION
+     */
+    private int stop(ArrayList<LComponent> loop){
+        wheel.clear();
+        active.pollOscillation();
+        System.arraycopy(signals, 0, projected, 0, signals.length);
+        circuit.writeBack();
+        oscillating.addAll(loop);
+        return LogicEngine.OSCILLATION;
+    }
+
+    /**
+     * Changes a signal and marks the nodes that read it
+     */
+    private void apply(int address, int value, boolean[] watched){
+        if(signals[address] == value) return;
+        signals[address] = value;
+        int id = addrNode[address];
+        Node source = nodes[id];
+        int output = address - source.address;
+        if(watched != null) watched[id] = true;
+        if(probe != null) {
+            int width = comps[id].getIO().outputConnection(output).getBitWidth();
+            probe.changed(wheel.getTime(), comps[id], output, value & (1 << width) - 1);
+        }
+        for(int n : source.mark[output]) addEval(n);
+    }
+
+    private void addEval(int id){
+        if(evalRound[id] == round) return;
+        evalRound[id] = round;
+        eval.push(id);
+    }
+
+    /**
+     * Updates every marked node and schedules the outputs that will change. The signals themselves are left unchanged until
+     * the events are applied.
+     * @return The first node that was a custom chip that oscillated, or -1
+     */
+    private int updateMarked(){
+        int culprit = -1;
+        while(!eval.isEmpty()) {
+            int id = eval.pop();
+            Node node = nodes[id];
+            int numOutputs = node.mark.length;
+            System.arraycopy(signals, node.address, saved, 0, numOutputs);
+            node.updateLCC(signals, 0, active);
+            if(culprit == -1 && active.isOscillating()) culprit = id;
+            long time = wheel.getTime() + delay[id];
+            for(int o = 0; o < numOutputs; o++){
+                int address = node.address + o;
+                int value = signals[address];
+                signals[address] = saved[o];
+                if(value == projected[address]) continue;
+                projected[address] = value;
+                wheel.schedule(time, address, value);
+            }
+        }
+        return culprit;
+    }
+
+    /**
+     * Returns the components that were oscillating when the last call to run was stopped
+     * @return The oscillating components, which is empty if the last run was not stopped
+     */
+    @Override
+    public ArrayList<LComponent> getOscillating(){
+        return oscillating;
+    }
+
+    /**
+     * Returns the current simulation time
+     * @return The time
+     */
+    public long getTime(){
+        return wheel.getTime();
+    }
+
+    /**
+     * Returns the number of changes that have been scheduled but not applied yet
+     * @return The number of pending events
+     */
+    public int getPendingEvents(){
+        return wheel.size();
+    }
+}
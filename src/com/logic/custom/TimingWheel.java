@@ -0,0 +1,261 @@
+package com.logic.custom;
+
+import java.util.Arrays;
+
+/**
+ * A hierarchical timing wheel that holds the pending events of a TimedCircuit. Each event has a time, a target (a signal address)
+ * and a value. Scheduling an event and moving to the next time are O(1) apart from the occasional cascade of a slot to a lower
+ * level, so a very large number of pending events doesn't slow the simulation down the way a priority queue would.
+ *
+ * The wheel has LEVELS levels of 256 slots. An event is stored in the level of the highest 8 bit digit in which its time differs
+ * from the current time, in the slot given by that digit, so level 0 only holds events in the current block of 256 ticks. When the
+ * current time moves into a new slot of a higher level, the events in that slot are moved down (cascaded). Events that are more
+ * than 2^32 ticks away are kept in an unsorted overflow list until the wheel gets close to them. Events with the same time are
+ * returned in the order they were scheduled.
+ *
+ * Events are stored in parallel primitive arrays and linked into slots by index, and released events are reused, so the wheel does
+ * not allocate once its arrays are large enough.
+ */
+public class TimingWheel {
+
+    private static final int SLOT_BITS = 8;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int LEVELS = 4;
+
+    private static final int NONE = -1;
+
+    /**
+     * The first and last event in each slot, indexed by level * SLOTS + slot. The overflow list is at index LEVELS * SLOTS.
+     */
+    private final int[] head, tail;
+
+    /**
+     * The number of events in each level, and in the overflow list
+     */
+    private final int[] count;
+
+    private long[] time;
+
+    private int[] target;
+
+    private int[] value;
+
+    private int[] next;
+
+    /**
+     * The first released event, which is reused by the next call to schedule
+     */
+    private int free;
+
+    /**
+     * The number of events that have been allocated from the arrays, including released events
+     */
+    private int used;
+
+    private int size;
+
+    private long now;
+
+    public TimingWheel(){
+        head = new int[(LEVELS + 1) * SLOTS];
+        tail = new int[(LEVELS + 1) * SLOTS];
+        Arrays.fill(head, NONE);
+        count = new int[LEVELS + 1];
+        time = new long[64];
+        target = new int[64];
+        value = new int[64];
+        next = new int[64];
+        free = NONE;
+    }
+
+    /**
+     * Schedules an event
+     * @param eventTime The time of the event, which can't be before the current time
+     * @param eventTarget The target of the event
+     * @param eventValue The value of the event
+     */
+    public void schedule(long eventTime, int eventTarget, int eventValue){
+        if(eventTime < now) throw new IllegalArgumentException("Event at " + eventTime + " is before the current time " + now);
+        int e = free;
+        if(e != NONE) free = next[e];
+        else {
+            if(used == time.length) {
+                time = Arrays.copyOf(time, used * 2);
+                target = Arrays.copyOf(target, used * 2);
+                value = Arrays.copyOf(value, used * 2);
+                next = Arrays.copyOf(next, used * 2);
+            }
+            e = used++;
+        }
+        time[e] = eventTime;
+        target[e] = eventTarget;
+        value[e] = eventValue;
+        insert(e);
+        size++;
+    }
+
+    /**
+     * Adds an event to the end of the slot it belongs in relative to the current time
+     */
+    private void insert(int e){
+        long diff = time[e] ^ now;
+        int level = 0;
+        while(level < LEVELS && diff >>> (SLOT_BITS * (level + 1)) != 0) level++;
+        int index = level == LEVELS ? LEVELS * SLOTS : level * SLOTS + (int) (time[e] >>> (SLOT_BITS * level) & (SLOTS - 1));
+        next[e] = NONE;
+        if(head[index] == NONE) head[index] = e;
+        else next[tail[index]] = e;
+        tail[index] = e;
+        count[level]++;
+    }
+
+    /**
+     * Moves the current time to the time of the earliest pending event, if it is not after the given limit
+     * @param limit The latest time to move to
+     * @return The new current time, or -1 if there are no pending events up to the limit, in which case the current time is moved
+     * to the limit (unless the limit is Long.MAX_VALUE)
+     */
+    public long advance(long limit){
+        while(size > 0) {
+            if(count[0] > 0) {
+                for(int s = (int) (now & (SLOTS - 1)); s < SLOTS; s++){
+                    if(head[s] == NONE) continue;
+                    long t = now & ~(long) (SLOTS - 1) | s;
+                    if(t > limit) break;
+                    now = t;
+                    return now;
+                }
+                break;
+            }
+            long start = nextSlotStart();
+            if(start > limit) break;
+            moveTo(start);
+        }
+        if(limit != Long.MAX_VALUE) moveTo(limit);
+        return -1;
+    }
+
+    /**
+     * Returns the time at which the next non-empty slot of a level above 0 starts. Level 0 must be empty.
+     */
+    private long nextSlotStart(){
+        for(int level = 1; level < LEVELS; level++){
+            if(count[level] == 0) continue;
+            int shift = SLOT_BITS * level;
+            for(int s = (int) (now >>> shift & (SLOTS - 1)) + 1; s < SLOTS; s++){
+                if(head[level * SLOTS + s] != NONE) return now >>> (shift + SLOT_BITS) << (shift + SLOT_BITS) | (long) s << shift;
+            }
+        }
+        //everything left is in the overflow list, so the next slot is the block of the earliest overflow event
+        long min = Long.MAX_VALUE;
+        for(int e = head[LEVELS * SLOTS]; e != NONE; e = next[e]) min = Math.min(min, time[e]);
+        return min >>> (SLOT_BITS * LEVELS) << (SLOT_BITS * LEVELS);
+    }
+
+    /**
+     * Moves the current time forward to the given time, cascading the slots that the new time falls in from the highest level
+     * down. There must not be any events before the new time.
+     */
+    private void moveTo(long t){
+        for(int level = LEVELS; level >= 1; level--){
+            int shift = SLOT_BITS * level;
+            if(t >>> shift == now >>> shift) continue;
+            now = t >>> shift << shift;
+            cascade(level, level == LEVELS ? LEVELS * SLOTS : level * SLOTS + (int) (t >>> shift & (SLOTS - 1)));
+        }
+        now = t;
+    }
+
+    /**
+     * Reinserts every event in a slot relative to the current time
+     */
+    private void cascade(int level, int index){
+        int e = head[index];
+        head[index] = NONE;
+        while(e != NONE) {
+            int n = next[e];
+            count[level]--;
+            insert(e);
+            e = n;
+        }
+    }
+
+    /**
+     * Removes every event at the current time from the wheel. Events that are scheduled at the current time after this call are
+     * returned by the next call.
+     * @return The first event, or -1 if there are none. Use getNext to move through the events, and release them when done.
+     */
+    public int takeCurrent(){
+        int s = (int) (now & (SLOTS - 1));
+        int e = head[s];
+        if(e == NONE) return NONE;
+        head[s] = NONE;
+        for(int n = e; n != NONE; n = next[n]){
+            count[0]--;
+            size--;
+        }
+        return e;
+    }
+
+    /**
+     * Returns the event after the given event in a list returned by takeCurrent
+     * @param e The event
+     * @return The next event, or -1
+     */
+    public int getNext(int e){
+        return next[e];
+    }
+
+    public int getTarget(int e){
+        return target[e];
+    }
+
+    public int getValue(int e){
+        return value[e];
+    }
+
+    /**
+     * Releases a list of events returned by takeCurrent so that they can be reused
+     * @param first The first event in the list
+     */
+    public void release(int first){
+        if(first == NONE) return;
+        int last = first;
+        while(next[last] != NONE) last = next[last];
+        next[last] = free;
+        free = first;
+    }
+
+    /**
+     * Returns the current time
+     * @return The time of the most recent call to advance
+     */
+    public long getTime(){
+        return now;
+    }
+
+    /**
+     * Returns the number of pending events
+     * @return The number of events
+     */
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Removes every pending event without changing the current time
+     */
+    public void clear(){
+        Arrays.fill(head, NONE);
+        Arrays.fill(count, 0);
+        size = 0;
+        used = 0;
+        free = NONE;
+    }
+}
@@ -0,0 +1,281 @@
+package com.logic.custom;
+
+import com.logic.components.LComponent;
+import com.logic.components.Light;
+import com.logic.components.Switch;
+import com.logic.util.Constants;
+
+/**
+ * Simulates a combinational custom chip for 64 independent input vectors at once. Every bit of every signal is stored as one
+ * long (a bit slice), in which bit v is the value of that bit for vector v, so each gate is evaluated for all vectors with one
+ * bitwise operation per bit. Nested chips are flattened, buffers and splitters only rearrange bit slices and cost nothing at run
+ * time, and the remaining gates are compiled to a flat list of operations in level order.
+ *
+ * Bits above the width of a signal are tracked as a constant (0 or 1) for the whole signal, so the results are the same as the
+ * int signals used by the NodeBoxes, which leave the high bits of NOT gates set. Only gates, NOT gates, buffers, splitters, and
+ * custom chips made of them are supported, and the chip can't have feedback or clocks.
+ */
+public class VectorSimulator {
+
+    /**
+     * The number of input vectors that are simulated at once
+     */
+    public static final int VECTORS = 64;
+
+    /**
+     * The bit slices that hold the constants 0 and 1
+     */
+    private static final int ZERO = 0, ONES = 1;
+
+    private static final int NOT = 6;
+
+    /**
+     * The value of every bit slice
+     */
+    private final long[] slices;
+
+    /**
+     * The operations to perform, in groups of four: function (0-5 as in BasicGateNode, or NOT), result slice, and two operand slices
+     */
+    private final int[] program;
+
+    /**
+     * The bit slices of each input and output, least significant bit first
+     */
+    private final int[][] inputBits, outputBits;
+
+    /**
+     * The constant used for the bits of each output above its last bit slice (ZERO or ONES)
+     */
+    private final int[] outputExt;
+
+    /**
+     * The bit width of each output
+     */
+    private final int[] outputWidths;
+
+    private final IntStack code;
+
+    private int numSlices;
+
+    /**
+     * Compiles a custom chip for vector simulation
+     * @param type The chip
+     * @throws IllegalArgumentException If the chip has feedback, clocks, or unsupported components
+     */
+    public VectorSimulator(CustomType type){
+        if(type.clocks.size() > 0) throw new IllegalArgumentException(type.label + " has clocks and can't be simulated as vectors");
+        Node[] nodes = type.flatten();
+        int[] levels = LCCCompiler.nodeCompile(nodes);
+        if(levels == null) throw new IllegalArgumentException(type.label + " has feedback and can't be simulated as vectors");
+
+        int numSignals = 1;
+        for(Node node : nodes){
+            if(node == null) continue;
+            if(!(node instanceof StartNode || node instanceof BasicGateNode || node instanceof SingleInputGateNode ||
+                    node instanceof SplitInNode || node instanceof SplitOutNode)) {
+                throw new IllegalArgumentException(node.getClass().getSimpleName() + " can't be simulated as vectors");
+            }
+            numSignals = Math.max(numSignals, node.address + node.getNumOutputs());
+        }
+        int[][] bits = new int[numSignals][];
+        int[] ext = new int[numSignals];
+        bits[0] = new int[0];
+        numSlices = 2;
+        code = new IntStack();
+
+        int numInputs = 0, numOutputs = 0;
+        for(int s = Constants.RIGHT; s <= Constants.UP; s++){
+            if(type.content[s] == null) continue;
+            for(LComponent lcomp : type.content[s]){
+                if(lcomp instanceof Switch) numInputs++;
+                else if(lcomp instanceof Light) numOutputs++;
+            }
+        }
+        inputBits = new int[numInputs][];
+        outputWidths = new int[numOutputs];
+        int input = 0, output = 0;
+        for(int s = Constants.RIGHT; s <= Constants.UP; s++){
+            if(type.content[s] == null) continue;
+            for(LComponent lcomp : type.content[s]){
+                if(lcomp instanceof Switch) {
+                    //the input nodes come first, in the same order as the switches
+                    int[] inBits = newSlices(lcomp.getIO().outputConnection(0).getBitWidth());
+                    inputBits[input] = inBits;
+                    bits[nodes[input].address] = inBits;
+                    input++;
+                }
+                else if(lcomp instanceof Light) outputWidths[output++] = lcomp.getIO().inputConnection(0).getBitWidth();
+            }
+        }
+
+        for(int id : levels) compileNode(nodes[id], bits, ext);
+
+        int[] outNodes = type.getOutNodes();
+        outputBits = new int[numOutputs][];
+        outputExt = new int[numOutputs];
+        for(int i = 0; i < numOutputs; i++){
+            outputBits[i] = bits[outNodes[i]] == null ? new int[0] : bits[outNodes[i]];
+            outputExt[i] = ext[outNodes[i]];
+        }
+
+        program = new int[code.size()];
+        for(int i = program.length - 1; i >= 0; i--) program[i] = code.pop();
+        slices = new long[numSlices];
+        slices[ONES] = -1L;
+    }
+
+    private int[] newSlices(int width){
+        int[] newBits = new int[width];
+        for(int b = 0; b < width; b++) newBits[b] = numSlices++;
+        return newBits;
+    }
+
+    private static int bit(int[][] bits, int[] ext, int address, int b){
+        return b < bits[address].length ? bits[address][b] : ext[address];
+    }
+
+    private void compileNode(Node node, int[][] bits, int[] ext){
+        if(node instanceof BasicGateNode) {
+            int function = ((BasicGateNode) node).getFunction();
+            int width = 0;
+            for(int address : node.in) width = Math.max(width, bits[address].length);
+            int[] outBits = node.in.length == 1 ? bits[node.in[0]] : newSlices(width);
+            for(int b = 0; b < width && node.in.length > 1; b++){
+                emit(function, outBits[b], bit(bits, ext, node.in[0], b), bit(bits, ext, node.in[1], b));
+                for(int n = 2; n < node.in.length; n++) emit(function, outBits[b], outBits[b], bit(bits, ext, node.in[n], b));
+            }
+            int outExt = ext[node.in[0]];
+            for(int n = 1; n < node.in.length; n++) outExt = constant(function, outExt, ext[node.in[n]]);
+            bits[node.address] = outBits;
+            ext[node.address] = outExt;
+        }
+        else if(node instanceof SingleInputGateNode) {
+            int[] inBits = bits[node.in[0]];
+            if(((SingleInputGateNode) node).getMask() == 0) {
+                bits[node.address] = inBits;
+                ext[node.address] = ext[node.in[0]];
+                return;
+            }
+            int[] outBits = newSlices(inBits.length);
+            for(int b = 0; b < inBits.length; b++) emit(NOT, outBits[b], inBits[b], ZERO);
+            bits[node.address] = outBits;
+            ext[node.address] = ext[node.in[0]] == ZERO ? ONES : ZERO;
+        }
+        else if(node instanceof SplitInNode) {
+            int[] split = ((SplitInNode) node).getSplit();
+            int width = 0;
+            for(int s : split) width += s;
+            int[] outBits = new int[Math.min(width, 32)];
+            int pos = 0;
+            for(int n = 0; n < split.length; n++){
+                for(int b = 0; b < split[n] && pos < outBits.length; b++) outBits[pos++] = bit(bits, ext, node.in[n], b);
+            }
+            bits[node.address] = outBits;
+            ext[node.address] = ZERO;
+        }
+        else {
+            int[] split = ((SplitOutNode) node).getSplit();
+            int shift = 0;
+            for(int n = 0; n < split.length; n++){
+                int[] outBits = new int[split[n]];
+                for(int b = 0; b < outBits.length; b++) outBits[b] = bit(bits, ext, node.in[0], Math.min(shift + b, 31));
+                bits[node.address + n] = outBits;
+                ext[node.address + n] = ZERO;
+                shift += split[n];
+            }
+        }
+    }
+
+    private void emit(int function, int result, int a, int b){
+        code.push(function);
+        code.push(result);
+        code.push(a);
+        code.push(b);
+    }
+
+    /**
+     * Applies a gate function to two constant slices
+     */
+    private static int constant(int function, int a, int b){
+        boolean x = a == ONES, y = b == ONES, r;
+        switch(function){
+            case 0: r = x & y; break;
+            case 1: r = x | y; break;
+            case 2: r = x ^ y; break;
+            case 3: r = !(x & y); break;
+            case 4: r = !(x | y); break;
+            default: r = !(x ^ y); break;
+        }
+        return r ? ONES : ZERO;
+    }
+
+    /**
+     * Sets an input for one vector
+     * @param input The index of the input
+     * @param vector The vector, from 0 to VECTORS - 1
+     * @param value The new value
+     */
+    public void setInput(int input, int vector, int value){
+        int[] inBits = inputBits[input];
+        long bit = 1L << vector;
+        for(int b = 0; b < inBits.length; b++){
+            if((value >> b & 1) != 0) slices[inBits[b]] |= bit;
+            else slices[inBits[b]] &= ~bit;
+        }
+    }
+
+    /**
+     * Evaluates the chip for all vectors
+     */
+    public void evaluate(){
+        long[] s = slices;
+        int[] p = program;
+        for(int pc = 0; pc < p.length; pc += 4){
+            long a = s[p[pc + 2]], b = s[p[pc + 3]];
+            long r;
+            switch(p[pc]){
+                case 0: r = a & b; break;
+                case 1: r = a | b; break;
+                case 2: r = a ^ b; break;
+                case 3: r = ~(a & b); break;
+                case 4: r = ~(a | b); break;
+                case 5: r = ~(a ^ b); break;
+                default: r = ~a; break;
+            }
+            s[p[pc + 1]] = r;
+        }
+    }
+
+    /**
+     * Returns an output for one vector, masked to the output's bit width
+     * @param output The index of the output
+     * @param vector The vector, from 0 to VECTORS - 1
+     * @return The output value
+     */
+    public int getOutput(int output, int vector){
+        int[] outBits = outputBits[output];
+        int value = 0;
+        for(int b = 0; b < outputWidths[output]; b++){
+            int slice = b < outBits.length ? outBits[b] : outputExt[output];
+            value |= (int) (slices[slice] >>> vector & 1) << b;
+        }
+        return value;
+    }
+
+    public int getNumInputs(){
+        return inputBits.length;
+    }
+
+    public int getNumOutputs(){
+        return outputWidths.length;
+    }
+
+    /**
+     * Returns the number of bitwise operations performed by each call to evaluate
+     * @return The number of operations
+     */
+    public int getNumOperations(){
+        return program.length / 4;
+    }
+}
@@ -0,0 +1,198 @@
+package com.logic.engine;
+
+import com.logic.components.IOManager;
+import com.logic.components.InputPin;
+import com.logic.components.LComponent;
+import com.logic.components.OutputPin;
+import com.logic.components.Wire;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Splits the components simulated by LogicEngine into partitions, which are the connected components of the wire graph. A signal
+ * can never cross from one partition to another, so the events of different partitions can be run at the same time by separate
+ * LogicEngines without any locking.
+ *
+ * Partitions are found lazily. A component is assigned to a partition the first time it appears in an event, by flooding over its
+ * wires, and refresh keeps the partition up to date as wires change. A new wire merges two partitions, with the members of the
+ * smaller one moved to the larger one. When a component has fewer wires than it did the last time it was seen, its partition may
+ * have split, so the partition is discarded and flooded again from the components that need it. A partition that should have
+ * been split is still correct, only less parallel, so nothing is missed when a wire is moved within one pass. Removing components
+ * is handled by clearing the whole partition (see LogicWorker.invalidate).
+ *
+ * A CircuitPartition is only used by the simulation thread.
+ * @author Hank Stennes
+ *
+ */
+public class CircuitPartition {
+
+	/**
+	 * The components in one partition
+	 */
+	private static class Partition {
+
+		private final ArrayList<LComponent> members = new ArrayList<>();
+	}
+
+	private final HashMap<LComponent, Partition> partitionOf;
+
+	/**
+	 * The number of wires each component had the last time it was flooded or refreshed
+	 */
+	private final HashMap<LComponent, Integer> wireCount;
+
+	/**
+	 * Holds the neighbors of a component while it is being flooded or refreshed
+	 */
+	private final ArrayList<LComponent> neighbors;
+
+	private int numPartitions;
+
+	/**
+	 * Constructs an empty CircuitPartition
+	 */
+	public CircuitPartition() {
+		partitionOf = new HashMap<>();
+		wireCount = new HashMap<>();
+		neighbors = new ArrayList<>();
+	}
+
+	/**
+	 * Splits a set of events by partition, after refreshing the partition of each event
+	 * @param events The components that were marked
+	 * @return The events of each partition, in the order that the partitions first appear
+	 */
+	public ArrayList<ArrayList<LComponent>> group(Collection<LComponent> events) {
+		for(LComponent lcomp : events) refresh(lcomp);
+		LinkedHashMap<Partition, ArrayList<LComponent>> groups = new LinkedHashMap<>();
+		for(LComponent lcomp : events) groups.computeIfAbsent(partitionOf.get(lcomp), p -> new ArrayList<>()).add(lcomp);
+		return new ArrayList<>(groups.values());
+	}
+
+	/**
+	 * Updates the partition of a component whose wires may have changed
+	 * @param lcomp The component
+	 */
+	public void refresh(LComponent lcomp) {
+		Partition partition = partitionOf.get(lcomp);
+		if(partition == null) {
+			flood(lcomp);
+			return;
+		}
+		int wires = neighbors(lcomp);
+		if(wires < wireCount.get(lcomp)) {
+			discard(partition);
+			flood(lcomp);
+			return;
+		}
+		wireCount.put(lcomp, wires);
+		//flood reuses the neighbors list
+		for(LComponent neighbor : neighbors.toArray(new LComponent[0])) {
+			Partition other = partitionOf.get(neighbor);
+			if(other == null) other = flood(neighbor);
+			if(other != partition) partition = merge(partition, other);
+		}
+	}
+
+	/**
+	 * Creates a partition for a component that has none, holding every component that is connected to it and has no partition
+	 * either. Connected components that already have a partition (because a wire was added since they were flooded) are merged
+	 * into the result.
+	 * @return The partition of lcomp
+	 */
+	private Partition flood(LComponent start) {
+		Partition partition = new Partition();
+		numPartitions++;
+		ArrayList<Partition> connected = new ArrayList<>();
+		partitionOf.put(start, partition);
+		partition.members.add(start);
+		for(int m = 0; m < partition.members.size(); m++) {
+			LComponent lcomp = partition.members.get(m);
+			wireCount.put(lcomp, neighbors(lcomp));
+			for(int i = 0; i < neighbors.size(); i++) {
+				LComponent neighbor = neighbors.get(i);
+				Partition other = partitionOf.get(neighbor);
+				if(other == null) {
+					partitionOf.put(neighbor, partition);
+					partition.members.add(neighbor);
+				}
+				else if(other != partition && !connected.contains(other)) connected.add(other);
+			}
+		}
+		for(Partition other : connected) partition = merge(partition, other);
+		return partition;
+	}
+
+	/**
+	 * Merges two partitions by moving the members of the smaller one to the larger one
+	 * @return The merged partition
+	 */
+	private Partition merge(Partition a, Partition b) {
+		if(a.members.size() < b.members.size()) {
+			Partition swap = a;
+			a = b;
+			b = swap;
+		}
+		for(LComponent lcomp : b.members) partitionOf.put(lcomp, a);
+		a.members.addAll(b.members);
+		b.members.clear();
+		numPartitions--;
+		return a;
+	}
+
+	/**
+	 * Removes a partition, so that its members are flooded again the next time they are needed
+	 */
+	private void discard(Partition partition) {
+		for(LComponent lcomp : partition.members) {
+			partitionOf.remove(lcomp);
+			wireCount.remove(lcomp);
+		}
+		partition.members.clear();
+		numPartitions--;
+	}
+
+	/**
+	 * Fills the neighbors list with the components at the other end of each complete wire
+	 * @return The number of complete wires
+	 */
+	private int neighbors(LComponent lcomp) {
+		neighbors.clear();
+		IOManager io = lcomp.getIO();
+		for(int c = 0; c < io.getNumInputs(); c++) {
+			InputPin input = io.inputConnection(c);
+			for(int w = 0; w < input.numWires(); w++) {
+				OutputPin source = input.getWire(w).getSourceConnection();
+				if(source != null) neighbors.add(source.getLcomp());
+			}
+		}
+		for(int c = 0; c < io.getNumOutputs(); c++) {
+			OutputPin output = io.outputConnection(c);
+			for(int w = 0; w < output.numWires(); w++) {
+				Wire wire = output.getWire(w);
+				if(wire.getDestConnection() != null) neighbors.add(wire.getDestConnection().getLcomp());
+			}
+		}
+		return neighbors.size();
+	}
+
+	/**
+	 * Forgets every partition, so that they are found again from scratch
+	 */
+	public void clear() {
+		partitionOf.clear();
+		wireCount.clear();
+		numPartitions = 0;
+	}
+
+	/**
+	 * Returns the number of partitions that have been found so far
+	 * @return The number of partitions
+	 */
+	public int getNumPartitions() {
+		return numPartitions;
+	}
+}
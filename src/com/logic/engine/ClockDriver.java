@@ -0,0 +1,293 @@
+package com.logic.engine;
+
+import com.logic.components.Clock;
+import com.logic.components.LComponent;
+import com.logic.custom.OpCustom2;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Toggles every clock on the simulation thread. Top level clocks and custom chips with clocks inside of them (see CustomType.clocks)
+ * register themselves when they are added to a CircuitPanel, and each tick toggles all of them at once and runs one logic pass
+ * that starts with them. A cycle is two ticks, so the clocks go high and then low once per cycle.
+ *
+ * The driver has three modes besides STOPPED. REAL_TIME ticks at a target frequency, and runs the ticks that are due in one batch
+ * when the frequency is too high to wait between ticks. MAX_SPEED ticks as fast as possible, with at most a fixed number of cycles
+ * between repaints. BURST runs a fixed number of cycles as fast as possible and then stops. In every mode, a batch of ticks is
+ * cut short after FRAME_NANOS so that the circuit is repainted and user input is handled while the clocks are running, and the
+ * clocks are stopped if a pass oscillates. The frequency that was actually achieved is measured while the clocks run.
+ * @author Hank Stennes
+ *
+ */
+public class ClockDriver {
+
+	/**
+	 * Clock modes
+	 */
+	public static final int STOPPED = 0, REAL_TIME = 1, MAX_SPEED = 2, BURST = 3;
+
+	/**
+	 * The default target frequency for REAL_TIME, which matches the default clock delay of 500 ms per tick
+	 */
+	public static final double DEFAULT_HZ = 1;
+
+	/**
+	 * The default number of cycles between repaints in MAX_SPEED
+	 */
+	public static final long DEFAULT_FRAME_BUDGET = 100000;
+
+	/**
+	 * The longest time that a batch of ticks runs before the panels are repainted and queued events are handled
+	 */
+	static final long FRAME_NANOS = 1000000000L / 60;
+
+	/**
+	 * The time over which the achieved frequency is averaged
+	 */
+	private static final long RATE_WINDOW_NANOS = 250000000L;
+
+	/**
+	 * The thread that runs the ticks, which is woken up when the mode changes
+	 */
+	private final Thread worker;
+
+	/**
+	 * The registered clocks and custom chips
+	 */
+	private final Set<LComponent> clocks;
+
+	/**
+	 * Holds the components toggled by the most recent tick
+	 */
+	private final ArrayList<LComponent> toggled;
+
+	private int mode;
+
+	private double targetHz;
+
+	private long frameBudget;
+
+	/**
+	 * The number of ticks left in BURST mode
+	 */
+	private long burstTicks;
+
+	/**
+	 * The time of the next tick in REAL_TIME mode, from System.nanoTime
+	 */
+	private long nextTick;
+
+	/**
+	 * The number of ticks since the driver was created
+	 */
+	private long ticks;
+
+	/**
+	 * The start of the current measurement window, and the value of ticks at that time
+	 */
+	private long rateStart, rateTicks;
+
+	private volatile double achievedHz;
+
+	/**
+	 * Constructs a stopped ClockDriver
+	 * @param worker The thread that runs the ticks
+	 */
+	ClockDriver(Thread worker) {
+		this.worker = worker;
+		clocks = ConcurrentHashMap.newKeySet();
+		toggled = new ArrayList<>();
+		targetHz = DEFAULT_HZ;
+		frameBudget = DEFAULT_FRAME_BUDGET;
+	}
+
+	/**
+	 * Registers a clock or a custom chip that contains clocks
+	 * @param lcomp The Clock or OpCustom2
+	 */
+	public void addClock(LComponent lcomp) {
+		if(clocks.add(lcomp)) LockSupport.unpark(worker);
+	}
+
+	/**
+	 * Stops toggling the given clock or custom chip
+	 * @param lcomp The Clock or OpCustom2
+	 */
+	public void removeClock(LComponent lcomp) {
+		clocks.remove(lcomp);
+	}
+
+	/**
+	 * Ticks the clocks at the given frequency
+	 * @param hz The number of cycles per second
+	 */
+	public synchronized void runRealTime(double hz) {
+		if(!(hz > 0)) throw new IllegalArgumentException("Clock frequency must be positive");
+		targetHz = hz;
+		setMode(REAL_TIME);
+	}
+
+	/**
+	 * Ticks the clocks as fast as possible
+	 * @param cyclesPerFrame The largest number of cycles to run between repaints
+	 */
+	public synchronized void runMaxSpeed(long cyclesPerFrame) {
+		if(cyclesPerFrame <= 0) throw new IllegalArgumentException("Frame budget must be positive");
+		frameBudget = cyclesPerFrame;
+		setMode(MAX_SPEED);
+	}
+
+	/**
+	 * Runs the given number of cycles as fast as possible, then stops
+	 * @param cycles The number of cycles
+	 */
+	public synchronized void runBurst(long cycles) {
+		if(cycles <= 0) throw new IllegalArgumentException("Burst length must be positive");
+		burstTicks = cycles * 2;
+		setMode(BURST);
+	}
+
+	/**
+	 * Stops ticking the clocks. The clocks keep their current state.
+	 */
+	public synchronized void stop() {
+		setMode(STOPPED);
+	}
+
+	private void setMode(int newMode) {
+		mode = newMode;
+		nextTick = System.nanoTime();
+		rateStart = nextTick;
+		rateTicks = ticks;
+		achievedHz = 0;
+		LockSupport.unpark(worker);
+	}
+
+	/**
+	 * Returns the number of nanoseconds until the next tick is due
+	 * @param now The current time from System.nanoTime
+	 * @return The time to wait, which is 0 if a tick is due now, or -1 if the clocks are not running
+	 */
+	synchronized long nanosUntilTick(long now) {
+		if(mode == STOPPED || clocks.isEmpty()) return -1;
+		if(mode == REAL_TIME) return Math.max(0, nextTick - now);
+		return 0;
+	}
+
+	/**
+	 * Returns the number of ticks that should be run in the next batch
+	 * @param now The current time from System.nanoTime
+	 * @return The number of ticks, which may be 0
+	 */
+	synchronized long ticksDue(long now) {
+		switch(mode) {
+			case REAL_TIME:
+				if(now < nextTick) return 0;
+				double tickNanos = tickNanos();
+				//when the clocks fall behind by more than a frame, the missed ticks are dropped instead of run all at once
+				long due = 1 + (long) ((now - nextTick) / tickNanos);
+				long frameTicks = Math.max(1, (long) (FRAME_NANOS / tickNanos));
+				return Math.min(due, frameTicks);
+			case MAX_SPEED:
+				return frameBudget * 2;
+			case BURST:
+				return burstTicks;
+			default:
+				return 0;
+		}
+	}
+
+	private double tickNanos() {
+		return 1e9 / (targetHz * 2);
+	}
+
+	/**
+	 * Toggles every registered clock
+	 * @return The components that were toggled, which are overwritten by the next call
+	 */
+	ArrayList<LComponent> tick() {
+		toggled.clear();
+		for(LComponent lcomp : clocks) {
+			if(lcomp instanceof Clock) {
+				Clock clock = (Clock) lcomp;
+				clock.setOn(!clock.isOn());
+			}
+			else if(lcomp instanceof OpCustom2 && ((OpCustom2) lcomp).hasClocks()) ((OpCustom2) lcomp).toggleClocks();
+			else continue;
+			toggled.add(lcomp);
+		}
+		return toggled;
+	}
+
+	/**
+	 * Records that a batch of ticks has been run
+	 * @param count The number of ticks
+	 * @param now The current time from System.nanoTime
+	 */
+	synchronized void ticked(long count, long now) {
+		ticks += count;
+		if(mode == REAL_TIME) {
+			nextTick += (long) (count * tickNanos());
+			if(now - nextTick > FRAME_NANOS) nextTick = now;
+		}
+		else if(mode == BURST) {
+			burstTicks -= count;
+			if(burstTicks <= 0) mode = STOPPED;
+		}
+		if(now - rateStart >= RATE_WINDOW_NANOS || mode == STOPPED) {
+			achievedHz = now == rateStart ? 0 : (ticks - rateTicks) / 2.0 * 1e9 / (now - rateStart);
+			rateStart = now;
+			rateTicks = ticks;
+		}
+	}
+
+	public synchronized int getMode() {
+		return mode;
+	}
+
+	public synchronized double getTargetHz() {
+		return targetHz;
+	}
+
+	public synchronized long getFrameBudget() {
+		return frameBudget;
+	}
+
+	/**
+	 * Returns the number of cycles left in BURST mode
+	 * @return The remaining cycles
+	 */
+	public synchronized long getBurstCycles() {
+		return mode == BURST ? (burstTicks + 1) / 2 : 0;
+	}
+
+	/**
+	 * Returns the number of cycles that have been run since the driver was created
+	 * @return The number of cycles
+	 */
+	public synchronized long getCycles() {
+		return ticks / 2;
+	}
+
+	/**
+	 * Returns the frequency that the clocks reached over the most recent measurement window
+	 * @return The number of cycles per second
+	 */
+	public double getAchievedHz() {
+		return achievedHz;
+	}
+
+	/**
+	 * Formats a frequency for display
+	 * @param hz The number of cycles per second
+	 * @return The frequency in Hz, kHz, or MHz
+	 */
+	public static String formatHz(double hz) {
+		if(hz >= 1e6) return String.format("%.2f MHz", hz / 1e6);
+		if(hz >= 1e3) return String.format("%.2f kHz", hz / 1e3);
+		return String.format("%.1f Hz", hz);
+	}
+}
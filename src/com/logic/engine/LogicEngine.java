@@ -1,47 +1,257 @@
 package com.logic.engine;
 
+import com.logic.components.IOManager;
 import com.logic.components.LComponent;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 /**
- * This class uses an iterative algorithm to sequentially update all components that are influenced by the list of starting components
+ * This class uses an iterative algorithm to sequentially update all components that are influenced by the list of starting components.
+ * Each component is updated at most once per iteration, no matter how many of its inputs changed during the previous iteration.
+ * A LogicEngine can be reused for any number of logic processes, and it does not allocate once its arrays are large enough.
+ *
+ * A process that runs for more than getIterationLimit() iterations is stopped, since a circuit that is still changing after that
+ * many iterations is almost certainly oscillating (a NOT gate wired to itself, for example). The components that were still
+ * changing on a feedback loop are available from getOscillating().
  * @author Hank Stennes
  *
  */
 public class LogicEngine {
 
 	/**
-	 * The list of components that must be updated on the next iteration
+	 * Returned by doLogic when the process was stopped because the circuit is oscillating
+	 */
+	public static final int OSCILLATION = -1;
+
+	/**
+	 * The default number of iterations that a logic process can run for
+	 */
+	public static final int DEFAULT_ITERATION_LIMIT = 100000;
+
+	/**
+	 * The number of iterations before the limit in which updated components are recorded, so that the oscillating ones can be
+	 * found when the limit is reached
+	 */
+	public static final int OSCILLATION_WINDOW = 256;
+
+	/**
+	 * The number of iterations that a logic process can run for, which is also the limit for each event based update of the nodes
+	 * in a custom chip (see ActiveStack)
+	 */
+	private static volatile int iterationLimit = DEFAULT_ITERATION_LIMIT;
+
+	/**
+	 * The components that are being updated during the current iteration
+	 */
+	private LComponent[] activeComps;
+
+	/**
+	 * The number of components in activeComps
+	 */
+	private int numActive;
+
+	/**
+	 * The components that must be updated on the next iteration
+	 */
+	private LComponent[] nextComps;
+
+	/**
+	 * The number of components in nextComps
 	 */
-	private ArrayList<LComponent> activeComps;
+	private int numNext;
+
+	/**
+	 * The epoch at which each component (by logic ID) was last added to nextComps. A component is only added when its entry is
+	 * not equal to the current epoch, which changes at the start of every iteration.
+	 */
+	private int[] marked;
+
+	/**
+	 * The current epoch
+	 */
+	private int epoch;
+
+	/**
+	 * The number of times a component was marked when it was already going to be updated on the next iteration
+	 */
+	private int duplicates;
+
+	/**
+	 * The value of duplicates at the end of the last call to doLogic
+	 */
+	private int lastDuplicates;
+
+	/**
+	 * The components that were oscillating when the last call to doLogic was stopped
+	 */
+	private final ArrayList<LComponent> oscillating;
+
+	/**
+	 * Constructs a new LogicEngine with no components marked
+	 */
+	public LogicEngine() {
+		activeComps = new LComponent[16];
+		nextComps = new LComponent[16];
+		marked = new int[64];
+		epoch = 1;
+		oscillating = new ArrayList<>();
+	}
 	
 	/**
 	 * Constructs a new LogicEngine
 	 * @param startingComps The list of LComponents that start out as marked
 	 */
 	public LogicEngine(ArrayList<LComponent> startingComps) {
-		activeComps = startingComps;
+		this();
+		for(LComponent lcomp : startingComps) mark(lcomp);
+	}
+
+	/**
+	 * Marks the given components and performs the logic
+	 * @param startingComps The components to update on the first iteration
+	 * @return The number of iterations it took to complete the logic, or OSCILLATION if it was stopped
+	 */
+	public int doLogic(Collection<LComponent> startingComps) {
+		for(LComponent lcomp : startingComps) mark(lcomp);
+		return doLogic();
 	}
 	
 	/**
-	 * Performs the logic based on the activeComps list and terminates when the list is empty
-	 * @Return The number of iterations it took to complete the logic
+	 * Performs the logic based on the marked components and terminates when no components are marked. If the iteration limit is
+	 * reached, or a custom chip reports that it is oscillating, the remaining components are unmarked and OSCILLATION is returned.
+	 * @Return The number of iterations it took to complete the logic, or OSCILLATION if it was stopped
 	 */
 	public int doLogic() {
-		long time = System.currentTimeMillis();
+		oscillating.clear();
+		int limit = iterationLimit;
+		int watchFrom = Math.max(0, limit - OSCILLATION_WINDOW);
+		LinkedHashSet<LComponent> watched = null;
 		int iterations = 0;
-		while(activeComps.size() > 0) {
-			ArrayList<LComponent> lcomps = activeComps;
-			activeComps = new ArrayList<LComponent>();
-			for (LComponent lcomp : lcomps) {
-				lcomp.update(this);
+		while(numNext > 0) {
+			if(iterations == limit) {
+				oscillating.addAll(findLoops(watched));
+				break;
+			}
+			LComponent[] lcomps = activeComps;
+			activeComps = nextComps;
+			nextComps = lcomps;
+			numActive = numNext;
+			numNext = 0;
+			nextEpoch();
+			if(iterations >= watchFrom && watched == null) watched = new LinkedHashSet<>();
+			for (int i = 0; i < numActive; i++) {
+				activeComps[i].update(this);
+				if(watched != null) watched.add(activeComps[i]);
+				activeComps[i] = null;
 			}
 			iterations++;
+			//custom chips report themselves when their inner nodes oscillate
+			if(!oscillating.isEmpty()) break;
+		}
+		lastDuplicates = duplicates;
+		duplicates = 0;
+		if(oscillating.isEmpty()) return iterations;
+		clear();
+		return OSCILLATION;
+	}
+
+	/**
+	 * Finds the components that are part of a feedback loop among the given components, by repeatedly removing components that
+	 * have no inputs from the others or no outputs to the others. Components between two loops are kept as well.
+	 * @param lcomps The components that were changing
+	 * @return The components on loops, or all of the given components if none of them form a loop
+	 */
+	public static ArrayList<LComponent> findLoops(Collection<LComponent> lcomps) {
+		HashSet<LComponent> remaining = new HashSet<>(lcomps);
+		boolean removed = true;
+		while(removed) {
+			removed = false;
+			for(LComponent lcomp : lcomps) {
+				if(!remaining.contains(lcomp)) continue;
+				if(!hasInputFrom(lcomp, remaining) || !hasOutputTo(lcomp, remaining)) {
+					remaining.remove(lcomp);
+					removed = true;
+				}
+			}
+		}
+		ArrayList<LComponent> loops = new ArrayList<>();
+		for(LComponent lcomp : lcomps) if(remaining.isEmpty() || remaining.contains(lcomp)) loops.add(lcomp);
+		return loops;
+	}
+
+	private static boolean hasInputFrom(LComponent lcomp, HashSet<LComponent> lcomps) {
+		IOManager io = lcomp.getIO();
+		for(int i = 0; i < io.getNumInputs(); i++) {
+			for(int w = 0; w < io.inputConnection(i).numWires(); w++) {
+				if(lcomps.contains(io.inputConnection(i).getWire(w).getSourceConnection().getLcomp())) return true;
+			}
 		}
-		//System.out.println("time: " + (System.currentTimeMillis() - time));
-		return iterations;
+		return false;
+	}
 
+	private static boolean hasOutputTo(LComponent lcomp, HashSet<LComponent> lcomps) {
+		IOManager io = lcomp.getIO();
+		for(int o = 0; o < io.getNumOutputs(); o++) {
+			for(int w = 0; w < io.outputConnection(o).numWires(); w++) {
+				if(lcomps.contains(io.outputConnection(o).getWire(w).getDestConnection().getLcomp())) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reports that a component is oscillating on its own, which stops the logic process at the end of the current iteration. Used
+	 * by custom chips when the event based update of their inner nodes reaches the iteration limit.
+	 * @param lcomp The component
+	 */
+	public void reportOscillation(LComponent lcomp) {
+		oscillating.add(lcomp);
+	}
+
+	/**
+	 * Returns the components that were oscillating when the last call to doLogic was stopped
+	 * @return The oscillating components, which is empty if the last process was not stopped
+	 */
+	public ArrayList<LComponent> getOscillating() {
+		return oscillating;
+	}
+
+	/**
+	 * Sets the number of iterations that a logic process, or the inner nodes of a custom chip, can run for before they are
+	 * stopped as oscillating
+	 * @param limit The iteration limit
+	 */
+	public static void setIterationLimit(int limit) {
+		iterationLimit = Math.max(limit, 1);
+	}
+
+	public static int getIterationLimit() {
+		return iterationLimit;
+	}
+
+	/**
+	 * Unmarks all components without updating them
+	 */
+	public void clear() {
+		for(int i = 0; i < numNext; i++) nextComps[i] = null;
+		numNext = 0;
+		duplicates = 0;
+		nextEpoch();
+	}
+
+	/**
+	 * Moves to the next epoch, so that every component can be marked again
+	 */
+	private void nextEpoch() {
+		epoch++;
+		if(epoch == Integer.MAX_VALUE) {
+			Arrays.fill(marked, 0);
+			epoch = 1;
+		}
 	}
 	
 	/**
@@ -51,7 +261,24 @@ public class LogicEngine {
 	 * @param lcomp The LComponent to mark
 	 */
 	public void mark(LComponent lcomp) {
-		activeComps.add(lcomp);
+		int id = lcomp.getLogicId();
+		if(id >= marked.length) marked = Arrays.copyOf(marked, Math.max(id + 1, marked.length * 2));
+		if(marked[id] == epoch) {
+			duplicates++;
+			return;
+		}
+		marked[id] = epoch;
+		if(numNext == nextComps.length) nextComps = Arrays.copyOf(nextComps, numNext * 2);
+		nextComps[numNext++] = lcomp;
+	}
+
+	/**
+	 * Returns the number of times a component was marked during the last call to doLogic when it was already marked for the same
+	 * iteration. Each of these would have been an extra update if marks were not deduplicated.
+	 * @return The number of deduplicated marks
+	 */
+	public int getDuplicates() {
+		return lastDuplicates;
 	}
 	
 }
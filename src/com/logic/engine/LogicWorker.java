@@ -2,125 +2,571 @@ package com.logic.engine;
 
 import com.logic.components.IOManager;
 import com.logic.components.LComponent;
+import com.logic.custom.CompiledCircuit;
+import com.logic.custom.SimulatedCircuit;
+import com.logic.custom.TimedCircuit;
+import com.logic.input.Selection;
 import com.logic.ui.CircuitPanel;
+import com.logic.ui.UserMessage;
 
 import javax.swing.*;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutionException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
 
 /**
- * A SwingWorker subclass for running a LogicEngine on its own thread
+ * The single long-lived simulation thread. All logic processes are run on this thread, so it is the only writer of signal
+ * state. Input events (switch clicks, wire edits, pastes, etc.) are placed on a lock-free queue from any thread, and every
+ * event that is pending when the thread wakes up is merged into a single LogicEngine pass. When a pass completes, the
+ * registered CircuitPanels are repainted on the event dispatch thread at most once per pass.
+ *
+ * Each CircuitPanel chooses its simulation mode. In EVENT_MODE the components are updated through LogicEngine. In
+ * COMPILED_MODE the panel's components are lowered to a CompiledCircuit, which is kept up to date as the user edits. LCC_MODE
+ * also levelizes the CompiledCircuit so that each pass updates every component once in level order. Circuits with feedback
+ * can't be levelized, and they are simulated the same way as in COMPILED_MODE. TIMED_MODE compiles the components to a
+ * TimedCircuit, where every component has a propagation delay, so that glitches and races show up in the circuit.
+ *
+ * A pass that oscillates is stopped at the LogicEngine iteration limit, and the oscillating components are selected in their
+ * CircuitPanel so that a runaway circuit never keeps the thread busy.
+ *
+ * Events in EVENT_MODE are split by CircuitPartition into the connected components of the wire graph. When a pass has events in
+ * more than one partition and there is more than one core, each partition is run by its own LogicEngine on the common
+ * ForkJoinPool, and the pass ends when all of them have settled. Partitions share no components, so they need no locks.
+ *
+ * Clocks are ticked by a ClockDriver on this thread. While the clocks are running, the thread wakes up when the next tick is due
+ * instead of waiting for events, runs a batch of ticks as separate passes, and publishes once per batch.
+ *
+ * Anything else that writes signal state, such as rebuilding the NodeBox of a custom chip, is queued with runLater and run on
+ * this thread between passes.
  * @author Hank Stennes
  *
  */
-public class LogicWorker extends SwingWorker<Integer, Void>{
-	
+public class LogicWorker extends Thread {
+
 	/**
-	 * A constant that represents a logic process that originates from a given component
+	 * Simulation mode constants (see CircuitPanel.setSimulationMode)
 	 */
-	private final int singularProcess = 0;
-	
+	public static final int EVENT_MODE = 0, COMPILED_MODE = 1, LCC_MODE = 2, TIMED_MODE = 3;
+
 	/**
-	 * A constant that represents a logic process that originates from all components that either have no input connections or have at least
-	 * one empty input connection, meaning that the entire circuit will be brought to a logically consistent state
+	 * The one simulation thread, which is created and started by the first call to getInstance()
 	 */
-	private final int fullProcess = 1;
-	
+	private static LogicWorker instance;
+
 	/**
-	 * The type of logic process (singular process or full process)
+	 * The components that have been marked from outside of the simulation thread and are waiting for the next pass
 	 */
-	private int processType;
-	
+	private final ConcurrentLinkedQueue<LComponent> events;
+
 	/**
-	 * The name of the thread that this LogicWorker is running on
+	 * The tasks that have been queued with runLater and are waiting to run before the next pass
 	 */
-	private String threadName;
-	
+	private final ConcurrentLinkedQueue<Runnable> tasks;
+
 	/**
-	 * The LogicEngine to run on the SwingWorker thread
+	 * The CircuitPanels that should be repainted when a pass completes
 	 */
-	private LogicEngine engine;
-	
+	private final CopyOnWriteArrayList<CircuitPanel> panels;
+
 	/**
-	 * Constructs a new LogicWorker that starts its LogicEngine with the given component
-	 * @param startingComp The Component to start with in the activeComps list
+	 * The compiled form of each CircuitPanel that uses COMPILED_MODE. Entries are removed from other threads to force a full
+	 * recompile, and are only created on the simulation thread.
 	 */
-	private LogicWorker(LComponent startingComp) {
-		//Currently used by Button.clickAction, Button.notification, Clock.actionPerformed, Switch.clickAction, WireBuilder.startWire, 
-		//WireBuilder.endWire, WireEditor.deleteWire, Custom.start()
-		processType = singularProcess;
-		ArrayList<LComponent> startingComps = new ArrayList<LComponent>();
-		startingComps.add(startingComp);
-		engine = new LogicEngine(startingComps);
+	private final ConcurrentHashMap<CircuitPanel, CompiledCircuit> circuits;
+
+	/**
+	 * The timed form of each CircuitPanel that uses TIMED_MODE, which is handled the same way as circuits
+	 */
+	private final ConcurrentHashMap<CircuitPanel, TimedCircuit> timedCircuits;
+
+	/**
+	 * A snapshot of the components of each CircuitPanel, which is taken on the event dispatch thread whenever components are
+	 * added or the panel is invalidated. The simulation thread reads it instead of the panel's own list, which the EDT edits.
+	 */
+	private final ConcurrentHashMap<CircuitPanel, Set<LComponent>> members;
+
+	/**
+	 * True while a repaint request has been posted to the event dispatch thread but has not yet run. Used so that fast passes
+	 * do not flood the EDT with repaint requests.
+	 */
+	private final AtomicBoolean publishPending;
+
+	/**
+	 * The LogicEngine used for every pass that is not compiled. Reusing it means that passes do not allocate.
+	 */
+	private final LogicEngine engine;
+
+	/**
+	 * The connected components of the circuits that are simulated in EVENT_MODE
+	 */
+	private final CircuitPartition partition;
+
+	/**
+	 * Set from other threads when components have been removed, so that the partition is rebuilt before the next pass
+	 */
+	private final AtomicBoolean partitionStale;
+
+	/**
+	 * The LogicEngines used for partitions other than the first one in a parallel pass, which run on the common ForkJoinPool
+	 */
+	private LogicEngine[] partitionEngines;
+
+	/**
+	 * The number of iterations taken by the most recent pass
+	 */
+	private volatile int lastIterations;
+
+	/**
+	 * The number of component updates that were skipped in the most recent pass because the component was already marked
+	 */
+	private volatile int lastDuplicates;
+
+	/**
+	 * The number of queued events that were merged into the most recent pass
+	 */
+	private volatile int lastEvents;
+
+	/**
+	 * Ticks the clocks on this thread
+	 */
+	private final ClockDriver clockDriver;
+
+	/**
+	 * The components that were oscillating when the current pass was stopped
+	 */
+	private final ArrayList<LComponent> oscillating;
+
+	/**
+	 * The components that were oscillating in the most recent pass, which is empty if it was not stopped
+	 */
+	private volatile List<LComponent> lastOscillating;
+
+	/**
+	 * Constructs the simulation thread. Use getInstance() instead.
+	 */
+	private LogicWorker() {
+		super("Logic Thread");
+		setDaemon(true);
+		events = new ConcurrentLinkedQueue<>();
+		tasks = new ConcurrentLinkedQueue<>();
+		panels = new CopyOnWriteArrayList<>();
+		circuits = new ConcurrentHashMap<>();
+		timedCircuits = new ConcurrentHashMap<>();
+		members = new ConcurrentHashMap<>();
+		publishPending = new AtomicBoolean(false);
+		engine = new LogicEngine();
+		partition = new CircuitPartition();
+		partitionStale = new AtomicBoolean(false);
+		partitionEngines = new LogicEngine[0];
+		oscillating = new ArrayList<>();
+		lastOscillating = new ArrayList<>();
+		clockDriver = new ClockDriver(this);
 	}
-	
+
 	/**
-	 * Constructs a new LogicWorker that is guaranteed to bring the circuit to a logically consistent state. This is done by starting 
-	 * the LogicEngine with all components that either have open input connections or 0 input connections
-	 * @param cp The CircuitPanel
+	 * Returns the simulation thread, creating and starting it if necessary
+	 * @return The LogicWorker instance
 	 */
-	private LogicWorker(CircuitPanel cp) {
-		//Currently used by Selection.deleteSelection, Clipboard.paste, CircuitState.editState
-		processType = fullProcess;
-		ArrayList<LComponent> startingComps = new ArrayList<LComponent>();
-		for(int i = 0; i < cp.lcomps.size(); i++) {
-			LComponent lcomp = cp.lcomps.get(i);
-			IOManager io = lcomp.getIO();
-		
-			//add component to active components if it has any open input connections or it has no input connections
-			if(io.getNumInputs() == 0) startingComps.add(lcomp);
-			else {
-				for(int c = 0; c < io.getNumInputs(); c++) {
-					if(io.inputConnection(c).numWires() == 0) {
-						startingComps.add(lcomp);
-						break;
-					}
-				}
-			}
+	public static synchronized LogicWorker getInstance() {
+		if(instance == null) {
+			instance = new LogicWorker();
+			instance.start();
 		}
-		engine = new LogicEngine(startingComps);
+		return instance;
 	}
-	
+
 	/**
-	 * Prints a message to indicate that this LogicWorker has started and runs the LogicEngine.doLogic() method
+	 * Waits for queued tasks, events or clock ticks, runs the tasks, then drains all of the events into one LogicEngine pass (or
+	 * a batch of clock ticks) and publishes the result
 	 */
 	@Override
-	protected Integer doInBackground() throws Exception {
-		threadName = Thread.currentThread().getName();
-		if(processType == singularProcess) System.out.println("Starting singular logic process on thread " + threadName);
-		else System.out.println("Starting full logic process on thread " + threadName);
-		return engine.doLogic();
+	public void run() {
+		while(true) {
+			runTasks();
+			long wait = clockDriver.nanosUntilTick(System.nanoTime());
+			if(events.isEmpty() && tasks.isEmpty() && wait != 0) {
+				if(wait < 0) LockSupport.park(this);
+				else LockSupport.parkNanos(this, wait);
+				continue;
+			}
+			//A set is used so that a component queued several times before the pass starts is only updated once
+			LinkedHashSet<LComponent> merged = new LinkedHashSet<>();
+			LComponent lcomp;
+			int numEvents = 0;
+			while((lcomp = events.poll()) != null) {
+				merged.add(lcomp);
+				numEvents++;
+			}
+			long ticks = wait == 0 ? clockDriver.ticksDue(System.nanoTime()) : 0;
+			try {
+				oscillating.clear();
+				lastIterations = ticks > 0 ? doClockedLogic(merged, ticks) : doLogic(merged);
+				lastEvents = numEvents;
+				lastOscillating = oscillating.isEmpty() ? new ArrayList<>() : new ArrayList<>(oscillating);
+				if(!oscillating.isEmpty()) publishOscillation(lastOscillating);
+			} catch (RuntimeException e) {
+				//drop whatever the failed pass left marked so that it is not carried into the next pass
+				engine.clear();
+				for(LogicEngine partitionEngine : partitionEngines) partitionEngine.clear();
+				partition.clear();
+				//a failure while ticking would most likely repeat on every tick
+				if(ticks > 0) clockDriver.stop();
+				e.printStackTrace();
+			}
+			publish();
+		}
 	}
-	
+
 	/**
-	 * Runs when the logic process is complete and prints a message to the console. 
+	 * Runs every queued task. A task that fails does not stop the ones after it.
 	 */
-	@Override
-	public void done() {
-		try {
-			if(processType == singularProcess) System.out.println("Completed singular logic process on thread " + threadName + 
-					" in " + get() + " itertations");
-			else System.out.println("Completed full logic process on thread " + threadName + " in " + get() + " iterations");
-		} catch (InterruptedException | ExecutionException e) {
-			e.printStackTrace();
+	private void runTasks() {
+		Runnable task;
+		while((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
 		}
 	}
-	
+
 	/**
-	 * Creates a new logic worker as specified by new LogicWorker(LComponent) and executes it
-	 * @param lcomp The LComponent to pass to the constructor
+	 * Runs one pass. Events that belong to a panel in COMPILED_MODE or LCC_MODE are run on that panel's CompiledCircuit, events that
+	 * belong to a panel in TIMED_MODE are run on its TimedCircuit, and all other events are run through a LogicEngine.
+	 * @param merged The components to start with. Compiled events are removed from the set.
+	 * @return The largest number of iterations taken by any part of the pass, or LogicEngine.OSCILLATION if any part was stopped
+	 */
+	private int doLogic(LinkedHashSet<LComponent> merged) {
+		int iterations = 0;
+		lastDuplicates = 0;
+		for(CircuitPanel cp : panels) {
+			if(cp.getSimulationMode() == EVENT_MODE || merged.isEmpty()) continue;
+			iterations = Math.max(iterations, doCompiledLogic(cp, merged));
+		}
+		if(!merged.isEmpty()) iterations = Math.max(iterations, doEventLogic(merged));
+		return oscillating.isEmpty() ? iterations : LogicEngine.OSCILLATION;
+	}
+
+	/**
+	 * Runs a batch of clock ticks, each as its own pass. The queued events are merged into the first pass. The batch ends early if
+	 * it takes longer than a frame, if new events are queued, or if a pass oscillates, in which case the clocks are stopped.
+	 * @param merged The queued events
+	 * @param ticks The number of ticks to run
+	 * @return The largest number of iterations taken by any pass, or LogicEngine.OSCILLATION if a pass was stopped
+	 */
+	private int doClockedLogic(LinkedHashSet<LComponent> merged, long ticks) {
+		long frameEnd = System.nanoTime() + ClockDriver.FRAME_NANOS;
+		int iterations = 0;
+		long done = 0;
+		while(done < ticks) {
+			merged.addAll(clockDriver.tick());
+			iterations = Math.max(iterations, doLogic(merged));
+			merged.clear();
+			done++;
+			if(!oscillating.isEmpty()) {
+				clockDriver.stop();
+				break;
+			}
+			if(!events.isEmpty() || System.nanoTime() > frameEnd) break;
+		}
+		clockDriver.ticked(done, System.nanoTime());
+		return iterations;
+	}
+
+	/**
+	 * Runs the given events through the shared LogicEngine, or through one LogicEngine per partition if the events belong to
+	 * several partitions and more than one core is available
+	 * @param startingComps The components to start with
+	 * @return The number of iterations, which is the largest number taken by any partition
+	 */
+	private int doEventLogic(Collection<LComponent> startingComps) {
+		if(partitionStale.getAndSet(false)) partition.clear();
+		if(startingComps.size() > 1 && ForkJoinPool.getCommonPoolParallelism() > 1) {
+			ArrayList<ArrayList<LComponent>> groups = partition.group(startingComps);
+			if(groups.size() > 1) return doPartitionedLogic(groups);
+		}
+		int iterations = engine.doLogic(startingComps);
+		lastDuplicates += engine.getDuplicates();
+		oscillating.addAll(engine.getOscillating());
+		return iterations;
+	}
+
+	/**
+	 * Runs the events of each partition on its own LogicEngine. The first partition is run on this thread and the rest are run on
+	 * the common ForkJoinPool, and this method returns when all of them are done.
+	 * @param groups The events of each partition
+	 * @return The largest number of iterations taken by any partition
+	 */
+	private int doPartitionedLogic(ArrayList<ArrayList<LComponent>> groups) {
+		if(partitionEngines.length < groups.size() - 1) {
+			LogicEngine[] newEngines = new LogicEngine[groups.size() - 1];
+			System.arraycopy(partitionEngines, 0, newEngines, 0, partitionEngines.length);
+			for(int i = partitionEngines.length; i < newEngines.length; i++) newEngines[i] = new LogicEngine();
+			partitionEngines = newEngines;
+		}
+		int[] results = new int[groups.size()];
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for(int g = 0; g < groups.size(); g++) {
+			LogicEngine partitionEngine = g == 0 ? engine : partitionEngines[g - 1];
+			ArrayList<LComponent> group = groups.get(g);
+			int index = g;
+			tasks.add(ForkJoinTask.adapt(() -> results[index] = partitionEngine.doLogic(group)));
+		}
+		ForkJoinTask.invokeAll(tasks);
+
+		int iterations = 0;
+		for(int g = 0; g < groups.size(); g++) {
+			LogicEngine partitionEngine = g == 0 ? engine : partitionEngines[g - 1];
+			lastDuplicates += partitionEngine.getDuplicates();
+			oscillating.addAll(partitionEngine.getOscillating());
+			iterations = Math.max(iterations, results[g]);
+		}
+		return iterations;
+	}
+
+	/**
+	 * Runs the events that belong to the given panel on its compiled form, which is a TimedCircuit in TIMED_MODE and a
+	 * CompiledCircuit otherwise. Wire edits are applied to the existing circuit where possible, and the circuit is fully
+	 * recompiled when components have been added or a levelized circuit has been rewired.
+	 * @param cp The CircuitPanel
+	 * @param merged All events in the pass. Events that belong to cp are removed.
+	 * @return The number of iterations
+	 */
+	private int doCompiledLogic(CircuitPanel cp, LinkedHashSet<LComponent> merged) {
+		if(cp.getSimulationMode() == TIMED_MODE) return doCompiledLogic(cp, merged, timedCircuits, TimedCircuit::new);
+		boolean levelize = cp.getSimulationMode() == LCC_MODE;
+		return doCompiledLogic(cp, merged, circuits, lcomps -> new CompiledCircuit(lcomps, levelize));
+	}
+
+	/**
+	 * Runs the events that belong to the given panel on its circuit in the given cache, compiling the circuit first if needed
+	 * @param cp The CircuitPanel
+	 * @param merged All events in the pass. Events that belong to cp are removed.
+	 * @param cache The compiled circuit of each panel in the panel's mode
+	 * @param compiler Compiles the components of the panel
+	 * @return The number of iterations
+	 */
+	private <C extends SimulatedCircuit> int doCompiledLogic(CircuitPanel cp, LinkedHashSet<LComponent> merged,
+			ConcurrentHashMap<CircuitPanel, C> cache, Function<ArrayList<LComponent>, C> compiler) {
+		C circuit = cache.get(cp);
+		Set<LComponent> cpComps = members.get(cp);
+		if(cpComps == null) return 0;
+		ArrayList<LComponent> cpEvents = new ArrayList<>();
+		for(Iterator<LComponent> it = merged.iterator(); it.hasNext();) {
+			LComponent lcomp = it.next();
+			if((circuit != null && circuit.contains(lcomp)) || cpComps.contains(lcomp)) {
+				cpEvents.add(lcomp);
+				it.remove();
+			}
+		}
+		if(cpEvents.isEmpty()) return 0;
+
+		boolean recompile = circuit == null;
+		for(int i = 0; i < cpEvents.size() && !recompile; i++) {
+			if(!circuit.refresh(cpEvents.get(i))) recompile = true;
+		}
+		if(recompile) {
+			circuit = compiler.apply(new ArrayList<>(cpComps));
+			cache.put(cp, circuit);
+		}
+		int iterations = circuit.doLogic(cpEvents);
+		oscillating.addAll(circuit.getOscillating());
+		return iterations;
+	}
+
+	/**
+	 * Repaints all registered CircuitPanels on the event dispatch thread, unless a repaint from an earlier pass is still waiting
+	 */
+	private void publish() {
+		if(panels.isEmpty() || !publishPending.compareAndSet(false, true)) return;
+		SwingUtilities.invokeLater(() -> {
+			publishPending.set(false);
+			for(CircuitPanel cp : panels) cp.repaint();
+		});
+	}
+
+	/**
+	 * Tells the user which components were oscillating when a pass was stopped, by selecting them in each CircuitPanel that
+	 * contains them and displaying a message
+	 * @param lcomps The oscillating components
+	 */
+	private void publishOscillation(List<LComponent> lcomps) {
+		SwingUtilities.invokeLater(() -> {
+			for(CircuitPanel cp : panels) {
+				ArrayList<LComponent> inPanel = new ArrayList<>();
+				for(LComponent lcomp : lcomps) if(cp.lcomps.contains(lcomp)) inPanel.add(lcomp);
+				if(inPanel.isEmpty()) continue;
+				Selection selection = cp.getEditor().getSelection();
+				selection.clear();
+				selection.select(inPanel);
+				cp.dispMessage(new UserMessage(cp, "Oscillation detected, simulation stopped (" + inPanel.size() +
+						" components selected)", 5000));
+			}
+		});
+	}
+
+	/**
+	 * Adds the given events to the queue and wakes up the simulation thread
+	 * @param lcomps The components to mark at the start of the next pass
+	 */
+	private void submit(ArrayList<LComponent> lcomps) {
+		events.addAll(lcomps);
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Queues a task to run on the simulation thread before the next pass. Anything that writes signal state from another thread,
+	 * such as rebuilding the NodeBox of a custom chip, must go through this method so that it never runs during a pass.
+	 * @param task The task
+	 */
+	public static void runLater(Runnable task) {
+		LogicWorker worker = getInstance();
+		worker.tasks.add(task);
+		LockSupport.unpark(worker);
+	}
+
+	/**
+	 * Returns the ClockDriver that ticks every clock
+	 * @return The ClockDriver
+	 */
+	public static ClockDriver getClockDriver() {
+		return getInstance().clockDriver;
+	}
+
+	/**
+	 * Registers a CircuitPanel to be repainted after each pass
+	 * @param cp The CircuitPanel
+	 */
+	public static void addPanel(CircuitPanel cp) {
+		getInstance().panels.addIfAbsent(cp);
+		updateComponents(cp);
+	}
+
+	/**
+	 * Stops repainting the given CircuitPanel after each pass
+	 * @param cp The CircuitPanel
+	 */
+	public static void removePanel(CircuitPanel cp) {
+		getInstance().panels.remove(cp);
+		getInstance().circuits.remove(cp);
+		getInstance().timedCircuits.remove(cp);
+		getInstance().members.remove(cp);
+		getInstance().partitionStale.set(true);
+	}
+
+	/**
+	 * Discards the compiled form of the given panel, so it is rebuilt from scratch on the next pass. This must be called
+	 * whenever components are removed or replaced without going through startLogic(CircuitPanel).
+	 * @param cp The CircuitPanel
+	 */
+	public static void invalidate(CircuitPanel cp) {
+		updateComponents(cp);
+		getInstance().circuits.remove(cp);
+		getInstance().timedCircuits.remove(cp);
+		getInstance().partitionStale.set(true);
+	}
+
+	/**
+	 * Takes a new snapshot of the components of the given panel, which decides which events are run on its compiled form. This
+	 * must be called on the event dispatch thread after components are added (see CircuitPanel.addLComp).
+	 * @param cp The CircuitPanel
+	 */
+	public static void updateComponents(CircuitPanel cp) {
+		getInstance().members.put(cp, Collections.unmodifiableSet(new LinkedHashSet<>(cp.lcomps)));
+	}
+
+	/**
+	 * Returns the number of iterations taken by the most recent pass
+	 * @return The iteration count, or LogicEngine.OSCILLATION if the pass was stopped
+	 */
+	public int getLastIterations() {
+		return lastIterations;
+	}
+
+	/**
+	 * Returns the components that were oscillating when the most recent pass was stopped
+	 * @return The oscillating components, which is empty if the pass was not stopped
+	 */
+	public List<LComponent> getLastOscillating() {
+		return lastOscillating;
+	}
+
+	/**
+	 * Returns the number of component updates that were skipped in the most recent pass because the component was already
+	 * marked for the same iteration
+	 * @return The number of deduplicated updates
+	 */
+	public int getLastDuplicates() {
+		return lastDuplicates;
+	}
+
+	/**
+	 * Returns the number of partitions of the event mode circuits that have been found so far. Only partitions that have had
+	 * events in a pass with more than one event are counted.
+	 * @return The number of partitions
+	 */
+	public int getNumPartitions() {
+		return partition.getNumPartitions();
+	}
+
+	/**
+	 * Returns the number of queued events that were merged into the most recent pass
+	 * @return The event count
+	 */
+	public int getLastEvents() {
+		return lastEvents;
+	}
+
+	/**
+	 * Queues a logic process that originates from the given component
+	 * @param lcomp The LComponent to start with
 	 */
 	public static void startLogic(LComponent lcomp) {
-		LogicWorker worker = new LogicWorker(lcomp);
-		worker.execute();
+		//Currently used by Button.clickAction, Button.notification, Switch.clickAction, WireBuilder.startWire,
+		//WireBuilder.endWire, WireEditor.deleteWire, Inserter, SComponent.innerChange
+		ArrayList<LComponent> startingComps = new ArrayList<>();
+		startingComps.add(lcomp);
+		getInstance().submit(startingComps);
 	}
-	
+
 	/**
-	 * Creates a new logic worker as specified by new LogicWorker(CircuitPanel)
-	 * @param cp The CircuitPanel to pass to the constructor
+	 * Queues a logic process that is guaranteed to bring the circuit to a logically consistent state. This is done by starting
+	 * with all components that either have open input connections or 0 input connections. The starting components are found
+	 * on the calling thread so that the component list is not read while it is being edited.
+	 * @param cp The CircuitPanel
 	 */
 	public static void startLogic(CircuitPanel cp) {
-		LogicWorker worker = new LogicWorker(cp);
-		worker.execute();
+		//Currently used by Selection.deleteSelection, Clipboard.paste, CircuitState.editState
+		invalidate(cp);
+		ArrayList<LComponent> startingComps = new ArrayList<LComponent>();
+		for(int i = 0; i < cp.lcomps.size(); i++) {
+			LComponent lcomp = cp.lcomps.get(i);
+			IOManager io = lcomp.getIO();
+
+			//add component to active components if it has any open input connections or it has no input connections
+			if(io.getNumInputs() == 0) startingComps.add(lcomp);
+			else {
+				for(int c = 0; c < io.getNumInputs(); c++) {
+					if(io.inputConnection(c).numWires() == 0) {
+						startingComps.add(lcomp);
+						break;
+					}
+				}
+			}
+		}
+		getInstance().submit(startingComps);
 	}
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package com.logic.files;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.logic.engine.LogicWorker;
 import com.logic.input.Camera;
 import com.logic.input.CircuitState;
 import com.logic.input.RevisionManager;
@@ -147,6 +148,7 @@ public class FileManager {
 				JSONFile file = new ObjectMapper().readValue(Paths.get(path).toFile(), JSONFile.class);
 				FileData fileData = file.getFileData();
 				cp.addLComps(fileData.getLcomps());
+				LogicWorker.invalidate(cp);
 				cp.getEditor().getCustomCreator().setCustomTypes(fileData.getCustomTypes());
 				float[] camData = fileData.getCamera();
 				Camera cam = cp.getCamera();
@@ -66,12 +66,12 @@ public class WireEditor {
 	public void deleteWireOrPoint() {
 		if(selectedPoint == -1) {
 			Connection dest = selectedWire.getDestConnection();
-			if (dest != null) LogicWorker.startLogic(dest.getLcomp());
 			if (selectedWire != null) {
 				selectedWire.delete();
 				cp.removeWire(selectedWire);
 				selectedWire = null;
 			}
+			if (dest != null) LogicWorker.startLogic(dest.getLcomp());
 		}
 		else {
 			selectedWire.removeShapePoint(selectedPoint);
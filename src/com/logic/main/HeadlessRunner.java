@@ -0,0 +1,373 @@
+package com.logic.main;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.logic.components.LComponent;
+import com.logic.components.Light;
+import com.logic.components.Switch;
+import com.logic.custom.CompiledCircuit;
+import com.logic.custom.CustomType;
+import com.logic.custom.SimulatedCircuit;
+import com.logic.custom.TimedCircuit;
+import com.logic.engine.LogicEngine;
+import com.logic.engine.LogicFunctions;
+import com.logic.engine.LogicWorker;
+import com.logic.files.FileData;
+import com.logic.files.JSONFile;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Simulates a .gtw file without opening a window, for scripts and automated tests. Named switches are driven from a vector file
+ * and named lights are printed after each vector, or checked against expected values. No windows are created, so the runner
+ * works with -Djava.awt.headless=true, and no images are loaded.
+ *
+ * The vector file uses the same layout as the .cmp files in ChipTester. The first line names the columns, and each following line
+ * gives one vector:
+ * <pre>
+ * | a | b | sum |
+ * | 1 | 2 | 3   |
+ * | 0x10 | 0b11 | * |
+ * </pre>
+ * Columns that name a switch are inputs, and columns that name a light are outputs. An output value is the expected value for
+ * that vector, or * to not check it. Values are decimal unless they start with 0x or 0b. Blank lines and lines that start with #
+ * are ignored. The output uses the same layout, so it can be saved and used as the expected values of a later run.
+ * @author Hank Stennes
+ *
+ */
+public class HeadlessRunner {
+
+	private static final String USAGE = "Usage: HeadlessRunner <circuit.gtw> <vectors> [options]\n" +
+			"  --out <file>      write outputs to a file instead of standard output\n" +
+			"  --clock <name>    pulse the named switch low then high after applying each vector\n" +
+			"  --mode <mode>     event, compiled, lcc, or timed (default lcc)\n" +
+			"  --repeat <n>      run the vectors n times and report the speed (outputs are only written once)\n" +
+			"  --flatten         flatten nested custom chips\n" +
+			"  --bytecode        compile custom chips to bytecode\n" +
+			"  --packed          use packed custom chip signals";
+
+	/**
+	 * Value used in vectors for outputs that are not checked
+	 */
+	private static final int DONT_CARE = Integer.MIN_VALUE;
+
+	private final ArrayList<LComponent> lcomps;
+
+	/**
+	 * The switches and lights by name. Names shared by more than one component map to null.
+	 */
+	private final HashMap<String, Switch> switches;
+
+	private final HashMap<String, Light> lights;
+
+	/**
+	 * The simulation mode, using the LogicWorker mode constants
+	 */
+	private final int mode;
+
+	private final LogicEngine engine;
+
+	private SimulatedCircuit circuit;
+
+	/**
+	 * The number of logic passes that have been run
+	 */
+	private long cycles;
+
+	/**
+	 * The number of logic passes that were stopped because the circuit was oscillating
+	 */
+	private long oscillations;
+
+	/**
+	 * Loads a circuit
+	 * @param path The path of the .gtw file
+	 * @param mode The simulation mode (see LogicWorker.EVENT_MODE, COMPILED_MODE, LCC_MODE, and TIMED_MODE)
+	 * @throws IOException If the file can't be read or is not a circuit
+	 */
+	public HeadlessRunner(String path, int mode) throws IOException {
+		LogicFunctions.setFunctions();
+		FileData fileData;
+		try {
+			fileData = new ObjectMapper().readValue(Paths.get(path).toFile(), JSONFile.class).getFileData();
+		} catch (JsonParseException e) {
+			throw new IOException("File type not supported: " + path);
+		}
+		this.mode = mode;
+		lcomps = fileData.getLcomps();
+		switches = new HashMap<>();
+		lights = new HashMap<>();
+		for(LComponent lcomp : lcomps){
+			if(lcomp instanceof Switch) addName(switches, lcomp.getName(), (Switch) lcomp);
+			else if(lcomp instanceof Light) addName(lights, lcomp.getName(), (Light) lcomp);
+		}
+		engine = new LogicEngine();
+		ArrayList<LComponent> start = new ArrayList<>();
+		for(LComponent lcomp : lcomps) if(lcomp instanceof Switch) start.add(lcomp);
+		doLogic(start);
+		cycles = 0;
+		oscillations = 0;
+	}
+
+	private static <T> void addName(HashMap<String, T> map, String name, T lcomp){
+		if(map.containsKey(name)) map.put(name, null);
+		else map.put(name, lcomp);
+	}
+
+	/**
+	 * Runs one logic pass, starting with the given components
+	 * @param startingComps The components that changed
+	 */
+	private void doLogic(List<LComponent> startingComps){
+		int iterations;
+		if(mode == LogicWorker.EVENT_MODE) iterations = engine.doLogic(startingComps);
+		else {
+			if(circuit == null) {
+				circuit = mode == LogicWorker.TIMED_MODE ? new TimedCircuit(lcomps) :
+						new CompiledCircuit(lcomps, mode == LogicWorker.LCC_MODE);
+			}
+			iterations = circuit.doLogic(startingComps);
+		}
+		if(iterations == LogicEngine.OSCILLATION) oscillations++;
+		cycles++;
+	}
+
+	/**
+	 * Returns the switch with the given name
+	 * @param name The name
+	 * @return The switch
+	 * @throws IllegalArgumentException If there is no switch with the name, or more than one
+	 */
+	public Switch getSwitch(String name){
+		if(!switches.containsKey(name)) throw new IllegalArgumentException("No switch named \"" + name + "\"");
+		Switch s = switches.get(name);
+		if(s == null) throw new IllegalArgumentException("More than one switch is named \"" + name + "\"");
+		return s;
+	}
+
+	/**
+	 * Returns the light with the given name
+	 * @param name The name
+	 * @return The light
+	 * @throws IllegalArgumentException If there is no light with the name, or more than one
+	 */
+	public Light getLight(String name){
+		if(!lights.containsKey(name)) throw new IllegalArgumentException("No light named \"" + name + "\"");
+		Light light = lights.get(name);
+		if(light == null) throw new IllegalArgumentException("More than one light is named \"" + name + "\"");
+		return light;
+	}
+
+	/**
+	 * Sets switches to new values and runs one logic pass. If a clock is given, it is set low with the other switches, then set
+	 * high in a second pass.
+	 * @param inputs The switches
+	 * @param values The new value of each switch
+	 * @param clock The clock switch, or null
+	 */
+	public void apply(Switch[] inputs, int[] values, Switch clock){
+		ArrayList<LComponent> changed = new ArrayList<>();
+		for(int i = 0; i < inputs.length; i++) setSwitch(inputs[i], values[i], changed);
+		if(clock != null) setSwitch(clock, 0, changed);
+		doLogic(changed);
+		if(clock != null) {
+			changed.clear();
+			setSwitch(clock, 1, changed);
+			doLogic(changed);
+		}
+	}
+
+	private void setSwitch(Switch s, int value, ArrayList<LComponent> changed){
+		int masked = value & (int) ((1L << s.getBitWidth()) - 1);
+		if(s.getState() == masked) return;
+		s.setState(masked);
+		changed.add(s);
+	}
+
+	/**
+	 * Returns the value shown by a light
+	 * @param light The light
+	 * @return The value, masked to the light's bit width
+	 */
+	public int read(Light light){
+		return light.getIO().getInput(0) & (int) ((1L << light.getBitWidth()) - 1);
+	}
+
+	/**
+	 * Returns the number of logic passes that have been run, not counting the pass that settles the circuit after loading
+	 * @return The number of passes
+	 */
+	public long getCycles(){
+		return cycles;
+	}
+
+	/**
+	 * Returns the number of logic passes that were stopped because the circuit was oscillating
+	 * @return The number of stopped passes
+	 */
+	public long getOscillations(){
+		return oscillations;
+	}
+
+	/**
+	 * Parses one value from a vector file
+	 * @param s The text
+	 * @return The value, or DONT_CARE for *
+	 */
+	private static int parseValue(String s){
+		if(s.equals("*")) return DONT_CARE;
+		String lower = s.toLowerCase();
+		if(lower.startsWith("0x")) return (int) Long.parseLong(s.substring(2), 16);
+		if(lower.startsWith("0b")) return (int) Long.parseLong(s.substring(2), 2);
+		return (int) Long.parseLong(s);
+	}
+
+	private static String[] splitColumns(String line){
+		String trimmed = line.trim();
+		if(trimmed.startsWith("|")) trimmed = trimmed.substring(1);
+		if(trimmed.endsWith("|")) trimmed = trimmed.substring(0, trimmed.length() - 1);
+		String[] columns = trimmed.split("\\|");
+		for(int i = 0; i < columns.length; i++) columns[i] = columns[i].trim();
+		return columns;
+	}
+
+	private static void writeRow(Writer out, String[] columns) throws IOException {
+		StringBuilder row = new StringBuilder("|");
+		for(String column : columns) row.append(' ').append(column).append(" |");
+		out.write(row.append('\n').toString());
+	}
+
+	public static void main(String[] args) {
+		if(args.length < 2) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		//standard output only holds the output vectors, so that it can be saved as the expected values of a later run
+		CustomType.setCompileLogging(false);
+		String outPath = null, clockName = null;
+		int mode = LogicWorker.LCC_MODE, repeat = 1;
+		try {
+			for(int i = 2; i < args.length; i++){
+				switch (args[i]) {
+					case "--out": outPath = args[++i]; break;
+					case "--clock": clockName = args[++i]; break;
+					case "--repeat": repeat = Math.max(1, Integer.parseInt(args[++i])); break;
+					case "--flatten": CustomType.setFlattenNodeBoxes(true); break;
+					case "--bytecode": CustomType.setBytecodeNodeBoxes(true); break;
+					case "--packed": CustomType.setPackedNodeBoxes(true); break;
+					case "--mode":
+						String m = args[++i];
+						if(m.equals("event")) mode = LogicWorker.EVENT_MODE;
+						else if(m.equals("compiled")) mode = LogicWorker.COMPILED_MODE;
+						else if(m.equals("lcc")) mode = LogicWorker.LCC_MODE;
+						else if(m.equals("timed")) mode = LogicWorker.TIMED_MODE;
+						else throw new IllegalArgumentException("Unknown mode " + m);
+						break;
+					default: throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			System.exit(run(args[0], args[1], outPath, clockName, mode, repeat) ? 0 : 1);
+		} catch (IOException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Loads a circuit, runs a vector file on it, and writes the outputs and a speed report
+	 * @return True if every checked output matched and no pass oscillated
+	 */
+	private static boolean run(String circuitPath, String vectorPath, String outPath, String clockName, int mode, int repeat)
+			throws IOException {
+		HeadlessRunner runner = new HeadlessRunner(circuitPath, mode);
+
+		String[] header = null;
+		ArrayList<int[]> vectors = new ArrayList<>();
+		try(BufferedReader br = new BufferedReader(new FileReader(vectorPath))) {
+			String line;
+			while((line = br.readLine()) != null) {
+				if(line.trim().isEmpty() || line.trim().startsWith("#")) continue;
+				String[] columns = splitColumns(line);
+				if(header == null) {
+					header = columns;
+					continue;
+				}
+				if(columns.length != header.length)
+					throw new IllegalArgumentException("Expected " + header.length + " columns: " + line);
+				int[] vector = new int[columns.length];
+				for(int i = 0; i < columns.length; i++) vector[i] = parseValue(columns[i]);
+				vectors.add(vector);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value in " + vectorPath + ": " + e.getMessage());
+		}
+		if(header == null) throw new IllegalArgumentException(vectorPath + " is empty");
+
+		//columns that name a switch are inputs, and all others must name a light
+		ArrayList<Integer> inCols = new ArrayList<>(), outCols = new ArrayList<>();
+		HashSet<String> seen = new HashSet<>();
+		for(int i = 0; i < header.length; i++){
+			if(!seen.add(header[i])) throw new IllegalArgumentException("Duplicate column " + header[i]);
+			if(runner.switches.containsKey(header[i])) inCols.add(i);
+			else outCols.add(i);
+		}
+		Switch[] inputs = new Switch[inCols.size()];
+		for(int i = 0; i < inputs.length; i++) inputs[i] = runner.getSwitch(header[inCols.get(i)]);
+		Light[] outputs = new Light[outCols.size()];
+		for(int i = 0; i < outputs.length; i++) outputs[i] = runner.getLight(header[outCols.get(i)]);
+		Switch clock = clockName == null ? null : runner.getSwitch(clockName);
+
+		Writer out = outPath == null ? new PrintWriter(System.out) : new FileWriter(outPath);
+		writeRow(out, header);
+		int[] values = new int[inputs.length];
+		int[] results = new int[outputs.length];
+		String[] row = new String[header.length];
+		int failures = 0;
+		long start = System.nanoTime();
+		for(int rep = 0; rep < repeat; rep++){
+			for(int v = 0; v < vectors.size(); v++){
+				int[] vector = vectors.get(v);
+				//a * input keeps the switch's current value
+				for(int i = 0; i < inputs.length; i++){
+					int value = vector[inCols.get(i)];
+					values[i] = value == DONT_CARE ? inputs[i].getState() : value;
+				}
+				runner.apply(inputs, values, clock);
+				for(int i = 0; i < outputs.length; i++) results[i] = runner.read(outputs[i]);
+				if(rep > 0) continue;
+
+				for(int i = 0; i < inputs.length; i++) row[inCols.get(i)] = Integer.toString(values[i] & (int) ((1L << inputs[i].getBitWidth()) - 1));
+				for(int i = 0; i < outputs.length; i++){
+					int col = outCols.get(i);
+					int expected = vector[col];
+					row[col] = Integer.toString(results[i]);
+					if(expected != DONT_CARE && expected != results[i]) {
+						failures++;
+						System.err.println("Vector " + (v + 1) + ": " + header[col] + " was " + results[i] + ", expected " + expected);
+					}
+				}
+				writeRow(out, row);
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		out.flush();
+		if(outPath != null) out.close();
+
+		long numVectors = (long) vectors.size() * repeat;
+		System.err.println(String.format("%d vectors, %d cycles in %.3f s: %.0f vectors/s, %.0f cycles/s, %d failures, %d oscillations",
+				numVectors, runner.getCycles(), seconds, numVectors / seconds, runner.getCycles() / seconds, failures,
+				runner.getOscillations()));
+		return failures == 0 && runner.getOscillations() == 0;
+	}
+}
@@ -1,10 +1,13 @@
 package com.logic.main;
 
+import com.logic.engine.LogicWorker;
 import com.logic.files.FileManager;
 import com.logic.ui.*;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 /**
  * This class represents one window of the application. Each window holds completely separate data and is essentially its own program
@@ -93,6 +96,12 @@ public class Window extends JFrame {
 		setJMenuBar(menuBar);
 
 		cp.startRenderTimer();
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				LogicWorker.removePanel(cp);
+			}
+		});
 
 		add(mainPanel);
 		setVisible(true);
@@ -1,9 +1,14 @@
 package com.logic.test;
 
 import com.logic.components.*;
+import com.logic.custom.CustomType;
+import com.logic.custom.LCCNodeBox;
 import com.logic.custom.OpCustom2;
+import com.logic.custom.TimedCircuit;
+import com.logic.custom.VectorSimulator;
 import com.logic.engine.LogicEngine;
 import com.logic.engine.LogicWorker;
+import com.logic.util.CompUtils;
 
 import javax.swing.*;
 import java.awt.*;
@@ -11,9 +16,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class ChipTester extends SwingWorker<Void, Void> {
 
@@ -23,10 +32,36 @@ public class ChipTester extends SwingWorker<Void, Void> {
 
     private static final int maxValue = 65536;
 
+    private static final int benchmarkLength = 200;
+
+    private static final int allocationTestLength = 1000;
+
+    private static final int parallelBenchmarkLength = 2000;
+
+    private static final int glitchTestLength = 1000;
+
+    /**
+     * The parallel thresholds compared by benchmarkParallelLevels, from never parallel to always parallel
+     */
+    private static final int[] parallelThresholds = {Integer.MAX_VALUE, 65536, 16384, 4096, 1024, 1};
+
+    /**
+     * Modes for the ChipTester. TEST checks the outputs of known chips, BENCHMARK measures their speed, ALLOCATIONS checks
+     * that updating any custom chip does not allocate, and GLITCHES looks for glitches and races in any custom chip.
+     */
+    public static final int TEST = 0, BENCHMARK = 1, ALLOCATIONS = 2, GLITCHES = 3;
+
     private LComponent chip;
 
+    private int mode;
+
     public ChipTester(LComponent chip){
+        this(chip, TEST);
+    }
+
+    public ChipTester(LComponent chip, int mode){
         this.chip = chip;
+        this.mode = mode;
     }
 
     /**
@@ -83,6 +118,245 @@ public class ChipTester extends SwingWorker<Void, Void> {
         }
     }
 
+    /**
+     * Measures how many input events per second a RAM16K chip can process. Custom chips are measured with both object and
+     * packed NodeBoxes. Run this method on a worker thread.
+     * @param ram A Ram16K chip for the Hack platform
+     */
+    private void benchmarkRam16K(LComponent ram){
+        if(!(ram instanceof OpCustom2)) {
+            runRam16KBenchmark(ram, "RAM16K");
+            return;
+        }
+        CustomType type = ((OpCustom2) ram).getCustomType();
+        boolean wasPacked = type.isPacked(), wasBytecode = type.isBytecode();
+        type.setPacked(false);
+        type.setBytecode(false);
+        runRam16KBenchmark(ram, "RAM16K (object nodes)");
+        type.setPacked(true);
+        runRam16KBenchmark(ram, "RAM16K (packed nodes)");
+        type.setPacked(false);
+        type.setBytecode(true);
+        runRam16KBenchmark(ram, "RAM16K (bytecode)");
+        type.setPacked(wasPacked);
+        type.setBytecode(wasBytecode);
+    }
+
+    /**
+     * Runs the RAM16K benchmark once. Each cycle changes the clock, address, load, and value inputs, in the same order as
+     * testRam16K.
+     * @param ram A Ram16K chip for the Hack platform
+     * @param name The name to print with the result
+     */
+    private void runRam16KBenchmark(LComponent ram, String name){
+        ArrayList<LComponent> ramList = new ArrayList<>();
+        ramList.add(ram);
+        LogicEngine engine = new LogicEngine();
+
+        IOManager io = ram.getIO();
+        OutputPin wClock = io.inputConnection(0).getWire(0).getSourceConnection();
+        OutputPin wAddress = io.inputConnection(1).getWire(0).getSourceConnection();
+        OutputPin wLoad = io.inputConnection(2).getWire(0).getSourceConnection();
+        OutputPin wValue = io.inputConnection(3).getWire(0).getSourceConnection();
+
+        Random rand = new Random(0);
+        wClock.setSignal(1);
+        engine.doLogic(ramList);
+        long events = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < benchmarkLength; i++){
+            wClock.setSignal(0);
+            wAddress.setSignal(rand.nextInt(maxAddress));
+            engine.doLogic(ramList);
+            wLoad.setSignal(rand.nextInt(2));
+            wValue.setSignal(rand.nextInt(maxValue));
+            engine.doLogic(ramList);
+            wClock.setSignal(1);
+            engine.doLogic(ramList);
+            events += 5;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(name + " benchmark: " + benchmarkLength + " cycles in " + seconds + "s, " +
+                (int) (events / seconds) + " events/sec, " + (int) (benchmarkLength / seconds) + " cycles/sec");
+    }
+
+    /**
+     * Checks that updating a custom chip does not allocate once the simulation has warmed up. Random signals are put on every
+     * connected input, and the number of bytes allocated by this thread is measured. Run this method on a worker thread.
+     * @param chip The chip to test
+     */
+    private void testAllocations(LComponent chip){
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Allocation counting is not supported by this JVM");
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+
+        LogicEngine engine = new LogicEngine();
+        IOManager io = chip.getIO();
+        ArrayList<OutputPin> sources = new ArrayList<>();
+        for(int i = 0; i < io.getNumInputs(); i++) {
+            InputPin input = io.inputConnection(i);
+            if(input.numWires() > 0 && input.getWire().getSourceConnection() != null)
+                sources.add(input.getWire().getSourceConnection());
+        }
+
+        Random rand = new Random(0);
+        //the first runs warm up the engine and stack buffers, and the last is measured
+        long allocated = 0;
+        for(int run = 0; run < 3; run++) {
+            long start = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < allocationTestLength; i++) {
+                for (int s = 0; s < sources.size(); s++) sources.get(s).setSignal(rand.nextInt());
+                engine.mark(chip);
+                engine.doLogic();
+            }
+            allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+        }
+        if(allocated == 0) System.out.println("ALLOCATION TEST PASSED: " + allocationTestLength + " updates allocated 0 bytes");
+        else System.out.println("ALLOCATION TEST FAILED: " + allocationTestLength + " updates allocated " + allocated + " bytes");
+    }
+
+    /**
+     * Looks for glitches and races in the outputs of a custom chip. The components inside the chip are copied twice, and the
+     * same random input changes are run on one copy as a TimedCircuit with the default delays and on the other with a
+     * LogicEngine. An output glitches if it changes more than once after a single input change, and there is a race if its
+     * settled value is not the one that the LogicEngine gives. Run this method on a worker thread.
+     * @param chip The chip to test
+     */
+    private void testGlitches(LComponent chip){
+        CustomType type = ((OpCustom2) chip).getCustomType();
+        ArrayList<LComponent> timedComps = CompUtils.duplicate(type.lcomps), eventComps = CompUtils.duplicate(type.lcomps);
+        ArrayList<Switch> timedInputs = new ArrayList<>(), eventInputs = new ArrayList<>();
+        ArrayList<OutputPin> timedOutputs = new ArrayList<>(), eventOutputs = new ArrayList<>();
+        HashMap<OutputPin, Integer> outputIndex = new HashMap<>();
+        for(int i = 0; i < timedComps.size(); i++) {
+            LComponent lcomp = timedComps.get(i);
+            if(lcomp instanceof Switch) {
+                timedInputs.add((Switch) lcomp);
+                eventInputs.add((Switch) eventComps.get(i));
+            }
+            else if(lcomp instanceof Light && lcomp.getIO().inputConnection(0).numWires() > 0) {
+                OutputPin source = lcomp.getIO().inputConnection(0).getWire().getSourceConnection();
+                outputIndex.putIfAbsent(source, timedOutputs.size());
+                timedOutputs.add(source);
+                eventOutputs.add(eventComps.get(i).getIO().inputConnection(0).getWire().getSourceConnection());
+            }
+        }
+        if(timedInputs.isEmpty() || timedOutputs.isEmpty()) {
+            System.out.println(type.label + " has no connected inputs and outputs to test");
+            return;
+        }
+
+        new LogicEngine(timedComps).doLogic();
+        new LogicEngine(eventComps).doLogic();
+        TimedCircuit timed = new TimedCircuit(timedComps);
+        int[] changes = new int[timedOutputs.size()];
+        timed.setProbe((time, lcomp, output, value) -> {
+            Integer index = outputIndex.get(lcomp.getIO().outputConnection(output));
+            if(index != null) changes[index]++;
+        });
+        LogicEngine engine = new LogicEngine();
+        ArrayList<LComponent> start = new ArrayList<>();
+        Random rand = new Random(0);
+        int glitches = 0, races = 0;
+        String first = null;
+        for(int v = 0; v < glitchTestLength; v++) {
+            int i = rand.nextInt(timedInputs.size());
+            int width = timedInputs.get(i).getBitWidth();
+            int value = width == 1 ? 1 & ~timedInputs.get(i).getState() : rand.nextInt() & (width >= 32 ? -1 : (1 << width) - 1);
+            timedInputs.get(i).setState(value);
+            eventInputs.get(i).setState(value);
+
+            Arrays.fill(changes, 0);
+            start.clear();
+            start.add(timedInputs.get(i));
+            if(timed.doLogic(start) == LogicEngine.OSCILLATION) {
+                System.out.println(type.label + " glitch test: oscillation after input change " + (v + 1));
+                return;
+            }
+            start.clear();
+            start.add(eventInputs.get(i));
+            engine.doLogic(start);
+
+            for(int o = 0; o < changes.length; o++) {
+                int mask = timedOutputs.get(o).getBitWidth() >= 32 ? -1 : (1 << timedOutputs.get(o).getBitWidth()) - 1;
+                int timedValue = timedOutputs.get(o).getSignal() & mask, eventValue = eventOutputs.get(o).getSignal() & mask;
+                if(changes[outputIndex.get(timedOutputs.get(o))] > 1) {
+                    glitches++;
+                    if(first == null) first = "output " + o + " changed " + changes[outputIndex.get(timedOutputs.get(o))] +
+                            " times after input change " + (v + 1);
+                }
+                if(timedValue != eventValue) {
+                    races++;
+                    if(first == null) first = "output " + o + " settled to " + timedValue + " instead of " + eventValue +
+                            " after input change " + (v + 1);
+                }
+            }
+        }
+        System.out.println(type.label + " glitch test: " + glitchTestLength + " input changes, " + glitches + " glitches, " +
+                races + " races" + (first == null ? "" : " (first: " + first + ")"));
+    }
+
+    /**
+     * Measures how fast a custom chip is fully updated with each of several parallel thresholds (see LCCNodeBox), and with and
+     * without batched updates of its nested chips. Random signals are put on every connected input, so that every level is
+     * updated each time. Run this method on a worker thread.
+     * @param chip The chip to benchmark
+     */
+    private void benchmarkParallelLevels(LComponent chip){
+        CustomType type = ((OpCustom2) chip).getCustomType();
+        if(!(type.nodeBox instanceof LCCNodeBox)) {
+            System.out.println(type.label + " does not use an LCCNodeBox, so it is never updated in parallel");
+            return;
+        }
+        LCCNodeBox nodeBox = (LCCNodeBox) type.nodeBox;
+        LogicEngine engine = new LogicEngine();
+        IOManager io = chip.getIO();
+        ArrayList<OutputPin> sources = new ArrayList<>();
+        for(int i = 0; i < io.getNumInputs(); i++) {
+            InputPin input = io.inputConnection(i);
+            if(input.numWires() > 0 && input.getWire().getSourceConnection() != null)
+                sources.add(input.getWire().getSourceConnection());
+        }
+
+        int oldThreshold = LCCNodeBox.getParallelThreshold();
+        boolean wasBatching = LCCNodeBox.isBatching();
+        System.out.println(type.label + ": " + nodeBox.getNumLevels() + " levels, " + nodeBox.getBatchedInstances() +
+                " batched chips, " + ForkJoinPool.getCommonPoolParallelism() + " threads");
+        //the first pass warms up every update path and is not printed
+        for(int pass = 0; pass < 2; pass++) {
+            for(int threshold : parallelThresholds) {
+                LCCNodeBox.setParallelThreshold(threshold);
+                double micros = timeFullUpdates(chip, engine, sources);
+                if(pass == 1) System.out.println("Threshold " + (threshold == Integer.MAX_VALUE ? "off" : threshold) + ": " +
+                        nodeBox.getParallelLevels() + " parallel levels, " + String.format("%.1f", micros) + " us/update");
+            }
+            LCCNodeBox.setParallelThreshold(Integer.MAX_VALUE);
+            LCCNodeBox.setBatching(false);
+            double micros = timeFullUpdates(chip, engine, sources);
+            if(pass == 1) System.out.println("Threshold off, no batching: " + String.format("%.1f", micros) + " us/update");
+            LCCNodeBox.setBatching(wasBatching);
+        }
+        LCCNodeBox.setParallelThreshold(oldThreshold);
+    }
+
+    /**
+     * Puts random signals on every source and updates the chip, parallelBenchmarkLength times
+     * @return The average time of an update, in microseconds
+     */
+    private double timeFullUpdates(LComponent chip, LogicEngine engine, ArrayList<OutputPin> sources){
+        Random rand = new Random(0);
+        long start = System.nanoTime();
+        for(int i = 0; i < parallelBenchmarkLength; i++) {
+            for(int s = 0; s < sources.size(); s++) sources.get(s).setSignal(rand.nextInt());
+            engine.mark(chip);
+            engine.doLogic();
+        }
+        return (System.nanoTime() - start) / 1e3 / parallelBenchmarkLength;
+    }
+
     private void testALU(LComponent alu) {
         int[][] data = null;
         try {
@@ -123,6 +397,44 @@ public class ChipTester extends SwingWorker<Void, Void> {
             if(ng.getSignal() != test[10]) System.out.println("NG FAILED");
         }
         System.out.println("DONE TESTING");
+        testALUVectors(((OpCustom2) alu).getCustomType(), data);
+    }
+
+    /**
+     * Runs the ALU tests again with a VectorSimulator, 64 rows at a time, and compares its speed to the LogicEngine
+     * @param type The ALU type
+     * @param data The rows of ALU.cmp
+     */
+    private void testALUVectors(CustomType type, int[][] data) {
+        VectorSimulator sim;
+        try {
+            sim = new VectorSimulator(type);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Vector simulation not supported: " + e.getMessage());
+            return;
+        }
+        //cmp columns in the order of the ALU inputs
+        int[] columns = {0, 1, 3, 2, 5, 4, 6, 7};
+        int failures = 0;
+        long start = System.nanoTime();
+        for(int rep = 0; rep < testLength; rep++){
+            for(int row = 0; row < data.length; row += VectorSimulator.VECTORS){
+                int count = Math.min(VectorSimulator.VECTORS, data.length - row);
+                for(int v = 0; v < count; v++){
+                    for(int i = 0; i < columns.length; i++) sim.setInput(i, v, data[row + v][columns[i]]);
+                }
+                sim.evaluate();
+                if(rep > 0) continue;
+                for(int v = 0; v < count; v++){
+                    int[] test = data[row + v];
+                    if(sim.getOutput(0, v) != (test[8] & 0xFFFF) || (sim.getOutput(1, v) & 1) != (test[9] & 1) ||
+                            sim.getOutput(2, v) != test[10]) failures++;
+                }
+            }
+        }
+        double nsPerVector = (System.nanoTime() - start) / (double) testLength / data.length;
+        System.out.println("Vector test: " + failures + " failures, " + sim.getNumOperations() + " operations, " +
+                String.format("%.1f", nsPerVector) + " ns/vector");
     }
 
     private void simulateMaxClockSpeed(LComponent clock){
@@ -168,18 +480,30 @@ public class ChipTester extends SwingWorker<Void, Void> {
 
     @Override
     protected Void doInBackground() {
-        if(chip instanceof OpCustom2) {
+        if(mode == ALLOCATIONS) {
+            if(chip instanceof OpCustom2) testAllocations(chip);
+        }
+        else if(mode == GLITCHES) {
+            if(chip instanceof OpCustom2) testGlitches(chip);
+        }
+        else if(chip instanceof OpCustom2) {
             switch (((OpCustom2) chip).getCustomType().label) {
                 case "RAM16K":
-                    testRam16K(chip);
+                    if(mode == BENCHMARK) benchmarkRam16K(chip);
+                    else testRam16K(chip);
                     break;
                 case "ALU":
                     testALU(chip);
                     break;
+                default:
+                    if(mode == BENCHMARK) benchmarkParallelLevels(chip);
             }
         }
         else if(chip instanceof Clock) simulateMaxClockSpeed(chip);
-        else if(chip instanceof RAM) testRam16K(chip);
+        else if(chip instanceof RAM) {
+            if(mode == BENCHMARK) benchmarkRam16K(chip);
+            else testRam16K(chip);
+        }
         return null;
     }
 }
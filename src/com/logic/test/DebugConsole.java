@@ -4,6 +4,12 @@ import com.logic.components.CompType;
 import com.logic.components.LComponent;
 import com.logic.components.RAM;
 import com.logic.components.ROM;
+import com.logic.custom.CustomType;
+import com.logic.custom.MemoNodeBox;
+import com.logic.custom.ModelNodeBox;
+import com.logic.custom.ModelRegistry;
+import com.logic.custom.OpCustom2;
+import com.logic.engine.LogicWorker;
 import com.logic.ui.CircuitPanel;
 import com.logic.ui.UserMessage;
 import com.logic.util.CompUtils;
@@ -45,11 +51,65 @@ public class DebugConsole {
                     new ChipTester(cp.getEditor().getSelection().get(0)).execute();
                 } else badSelection(cp, split[0]);
                 break;
+            case "bench":
+                if (selection.size() == 1) {
+                    new ChipTester(cp.getEditor().getSelection().get(0), ChipTester.BENCHMARK).execute();
+                } else badSelection(cp, split[0]);
+                break;
+            case "alloc":
+                if (selection.size() == 1 && selection.get(0) instanceof OpCustom2) {
+                    new ChipTester(cp.getEditor().getSelection().get(0), ChipTester.ALLOCATIONS).execute();
+                } else badSelection(cp, split[0]);
+                break;
+            case "glitch":
+                if (selection.size() == 1 && selection.get(0) instanceof OpCustom2) {
+                    new ChipTester(cp.getEditor().getSelection().get(0), ChipTester.GLITCHES).execute();
+                } else badSelection(cp, split[0]);
+                break;
+            case "memo":
+                if (selection.size() == 1 && selection.get(0) instanceof OpCustom2) {
+                    CustomType type = ((OpCustom2) selection.get(0)).getCustomType();
+                    if (split.length > 1) {
+                        //the NodeBox is rebuilt on the simulation thread, and the result is shown once it is done
+                        boolean memoize = split[1].equals("on");
+                        LogicWorker.runLater(() -> {
+                            type.setMemoized(memoize);
+                            SwingUtilities.invokeLater(() -> showMemoStats(cp, type));
+                        });
+                        LogicWorker.startLogic(cp);
+                    }
+                    else showMemoStats(cp, type);
+                } else badSelection(cp, split[0]);
+                break;
+            case "model":
+                if (selection.size() == 1 && selection.get(0) instanceof OpCustom2) {
+                    CustomType type = ((OpCustom2) selection.get(0)).getCustomType();
+                    String fingerprint = type.getFingerprint();
+                    String rejection = ModelRegistry.getRejection(fingerprint);
+                    String status = type.nodeBox instanceof ModelNodeBox ? "simulated by " + type.nodeBox.getClass().getName() :
+                            rejection != null ? "model rejected: " + rejection :
+                            ModelRegistry.isRegistered(fingerprint) ? "model not used yet" : "no model registered";
+                    cp.dispMessage(new UserMessage(cp, type.label + " (" + fingerprint + ") " + status, 5000));
+                } else badSelection(cp, split[0]);
+                break;
+            case "stats":
+                LogicWorker worker = LogicWorker.getInstance();
+                cp.dispMessage(new UserMessage(cp, "Last pass: " + worker.getLastEvents() + " events, " +
+                        worker.getLastIterations() + " iterations, " + worker.getLastDuplicates() + " duplicate updates skipped, " +
+                        worker.getLastOscillating().size() + " oscillating", 5000));
+                break;
             default:
                 unknownBaseCommand(cp, split[0]);
         }
     }
 
+    private static void showMemoStats(CircuitPanel cp, CustomType type){
+        long hits = type.getMemoHits(), misses = type.getMemoMisses();
+        String rate = hits + misses == 0 ? "" : String.format(" (%.1f%% hit rate)", 100.0 * hits / (hits + misses));
+        cp.dispMessage(new UserMessage(cp, type.label + (type.nodeBox instanceof MemoNodeBox ? " memoized: " + hits +
+                " hits, " + misses + " misses" + rate : " not memoized"), 5000));
+    }
+
     private static void badSelection(CircuitPanel cp, String baseCommand){
         cp.dispMessage(new UserMessage(cp, baseCommand + " command not applicable to selection", 3000));
     }
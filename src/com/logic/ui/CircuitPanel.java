@@ -2,6 +2,7 @@ package com.logic.ui;
 
 import com.logic.components.*;
 import com.logic.custom.OpCustom2;
+import com.logic.engine.LogicWorker;
 import com.logic.input.Camera;
 import com.logic.input.CircuitEditor;
 import com.logic.main.Window;
@@ -33,6 +34,12 @@ public class CircuitPanel extends JPanel {
 	 * Determines rendering quality. High quality uses SVGs and AA, low quality uses PNGs with no AA.
 	 */
 	private boolean highQuality = true;
+
+	/**
+	 * The simulation mode used for this panel (LogicWorker.EVENT_MODE, LogicWorker.COMPILED_MODE, LogicWorker.LCC_MODE or
+	 * LogicWorker.TIMED_MODE)
+	 */
+	private volatile int simulationMode = LogicWorker.EVENT_MODE;
 	
 	/**
 	 * The list of all LComponents in the circuit
@@ -112,6 +119,7 @@ public class CircuitPanel extends JPanel {
 				repaint();
 			}
 		});
+		LogicWorker.addPanel(this);
 	}
 
 	public void startRenderTimer(){
@@ -133,12 +141,8 @@ public class CircuitPanel extends JPanel {
 	 * @param lcomp The LComponent to add
 	 */
 	public void addLComp(LComponent lcomp) {
-		lcomps.add(lcomp);
-		if(lcomp instanceof SComponent) ((SComponent) lcomp).start(this);
-		if(lcomp instanceof IComponent) addMouseListener((IComponent) lcomp);
-		//TODO spontaneous component support
-
-		if(lcomp instanceof OpCustom2) ((OpCustom2) lcomp).start(this);
+		startLComp(lcomp);
+		LogicWorker.updateComponents(this);
 	}
 
 	/**
@@ -152,8 +156,22 @@ public class CircuitPanel extends JPanel {
 				Connection connect = lcomp.getIO().inputConnection(x);
 				if(connect.numWires() > 0) addWire(connect.getWire(0));
 			}
-			addLComp(lcomp);
+			startLComp(lcomp);
 		}
+		LogicWorker.updateComponents(this);
+	}
+
+	/**
+	 * Adds an LComponent to the list and starts it, without telling the LogicWorker
+	 * @param lcomp The LComponent to add
+	 */
+	private void startLComp(LComponent lcomp) {
+		lcomps.add(lcomp);
+		if(lcomp instanceof SComponent) ((SComponent) lcomp).start(this);
+		if(lcomp instanceof IComponent) addMouseListener((IComponent) lcomp);
+		//TODO spontaneous component support
+
+		if(lcomp instanceof OpCustom2) ((OpCustom2) lcomp).start(this);
 	}
 
 	/**
@@ -302,6 +320,24 @@ public class CircuitPanel extends JPanel {
 		repaint();
 	}
 
+	/**
+	 * Returns the simulation mode
+	 * @return The simulation mode
+	 */
+	public int getSimulationMode(){
+		return simulationMode;
+	}
+
+	/**
+	 * Changes the simulation mode. The circuit is compiled from the current signals the next time logic runs, so switching
+	 * modes does not change the state of the circuit.
+	 * @param simulationMode The new simulation mode
+	 */
+	public void setSimulationMode(int simulationMode){
+		this.simulationMode = simulationMode;
+		LogicWorker.invalidate(this);
+	}
+
 	/**
 	 * Sets the ZoomSlider instance (used because the ZoomSlider is not yet constructed when the CircuitPanel is)
 	 * @param slider The ZoomSlider
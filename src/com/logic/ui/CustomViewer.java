@@ -4,6 +4,7 @@ import com.logic.components.Clock;
 import com.logic.components.LComponent;
 import com.logic.custom.CustomType;
 import com.logic.custom.OpCustom2;
+import com.logic.engine.LogicWorker;
 import com.logic.input.Camera;
 import com.logic.util.CompUtils;
 
@@ -71,6 +72,7 @@ public class CustomViewer {
 		cp.getEditor().getSelection().clear();
 		//TODO prevent user from modifying lights and switches
 		cp.addLComps(custom.getCustomType().lcomps);
+		LogicWorker.invalidate(cp);
 		
 		Camera cam = cp.getCamera();
 		oldCamZoom = cam.getZoom();
@@ -103,6 +105,7 @@ public class CustomViewer {
 		cp.addLComps(oldComps);
 
 		rebuildDependentComponents();
+		LogicWorker.invalidate(cp);
 
 		Camera cam = cp.getCamera();
 		cam.setZoom(oldCamZoom);
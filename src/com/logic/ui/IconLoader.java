@@ -39,14 +39,15 @@ public class IconLoader {
 	private final int numToolBarIcons = 16;
 
 	/**
-	 * Shows the width of each logic image
+	 * Shows the width of each logic image. The sizes are needed to lay out components, so they don't depend on the images being
+	 * loaded.
 	 */
-	public final int[] imageWidth = new int[] {80, 80, 80, 60, 60, 80, 80, 60, 60, 60, 60, 80, 80, 100, 80};
+	public static final int[] imageWidth = new int[] {80, 80, 80, 60, 60, 80, 80, 60, 60, 60, 60, 80, 80, 100, 80};
 
 	/**
 	 * Shows the height of each logic image
 	 */
-	public final int[] imageHeight = new int[] {80, 80, 80, 80, 80, 80, 80, 80, 80, 80, 80, 80, 80, 100, 60};
+	public static final int[] imageHeight = new int[] {80, 80, 80, 80, 80, 80, 80, 80, 80, 80, 80, 80, 80, 100, 60};
 
 	/**
 	 * The sprite sheet that contains all the images that the program uses
@@ -71,10 +72,9 @@ public class IconLoader {
 	public BufferedImage logo;
 	
 	/**
-	 * Constructs a new IconLoader and loads all of the images
+	 * Constructs a new IconLoader. The images are loaded by makeImageIcons.
 	 */
 	public IconLoader() {
-		iconSheet = loadImage("/icons.png");
 		logicSVGs = new GraphicsNode[numLogicImages];
 		logicIcons = new ImageIcon[numLogicIcons];
 		toolBarIcons = new ImageIcon[numToolBarIcons];
@@ -84,6 +84,7 @@ public class IconLoader {
 	 * Loads all the BufferedImages and SVG GraphicsNode objects that the program uses
 	 */
 	public void makeImageIcons() {
+		iconSheet = loadImage("/icons.png");
 		logicSVGs[0] = loadSvg("/buffer.svg");
 		logicSVGs[1] = loadSvg("/and.svg");
 		logicSVGs[2] = loadSvg("/or.svg");
@@ -1,5 +1,8 @@
 package com.logic.ui;
 
+import com.logic.custom.CustomType;
+import com.logic.engine.ClockDriver;
+import com.logic.engine.LogicWorker;
 import com.logic.files.FileManager;
 import com.logic.main.LogicSimApp;
 import com.logic.test.DebugConsole;
@@ -10,6 +13,8 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.function.Consumer;
 
 /**
  * A menu bar for the program
@@ -24,11 +29,16 @@ public class LMenuBar extends JMenuBar implements ActionListener {
 	 * The radio buttons in the tools menu
 	 */
 	private JRadioButtonMenuItem insert, pan, select;
+
+	/**
+	 * The radio buttons in the simulation menu
+	 */
+	private JRadioButtonMenuItem eventMode, compiledMode, levelizedMode, timedMode;
 	
 	/**
 	 * The check box buttons in the view menu
 	 */
-	private JCheckBoxMenuItem snap, showGrid, quality;
+	private JCheckBoxMenuItem snap, showGrid, quality, packed, flattened, bytecode;
 	
 	/**
 	 * The CircuitPanel
@@ -157,6 +167,63 @@ public class LMenuBar extends JMenuBar implements ActionListener {
 		menu.add(rbMenuItem);
 		insert = rbMenuItem;
 		add(menu);
+
+		menu = new JMenu("Simulation");
+		group = new ButtonGroup();
+		rbMenuItem = new JRadioButtonMenuItem("Event-driven");
+		rbMenuItem.setSelected(true);
+		addListener(rbMenuItem, "Event mode");
+		group.add(rbMenuItem);
+		menu.add(rbMenuItem);
+		eventMode = rbMenuItem;
+		rbMenuItem = new JRadioButtonMenuItem("Compiled");
+		addListener(rbMenuItem, "Compiled mode");
+		group.add(rbMenuItem);
+		menu.add(rbMenuItem);
+		compiledMode = rbMenuItem;
+		rbMenuItem = new JRadioButtonMenuItem("Levelized");
+		addListener(rbMenuItem, "Levelized mode");
+		group.add(rbMenuItem);
+		menu.add(rbMenuItem);
+		levelizedMode = rbMenuItem;
+		rbMenuItem = new JRadioButtonMenuItem("Timed");
+		addListener(rbMenuItem, "Timed mode");
+		group.add(rbMenuItem);
+		menu.add(rbMenuItem);
+		timedMode = rbMenuItem;
+		menu.addSeparator();
+		cbMenuItem = new JCheckBoxMenuItem("Packed custom chips");
+		cbMenuItem.setSelected(CustomType.isPackedNodeBoxes());
+		addListener(cbMenuItem, "Packed");
+		menu.add(cbMenuItem);
+		packed = cbMenuItem;
+		cbMenuItem = new JCheckBoxMenuItem("Flatten nested chips");
+		cbMenuItem.setSelected(CustomType.isFlattenNodeBoxes());
+		addListener(cbMenuItem, "Flatten");
+		menu.add(cbMenuItem);
+		flattened = cbMenuItem;
+		cbMenuItem = new JCheckBoxMenuItem("Bytecode custom chips");
+		cbMenuItem.setSelected(CustomType.isBytecodeNodeBoxes());
+		addListener(cbMenuItem, "Bytecode");
+		menu.add(cbMenuItem);
+		bytecode = cbMenuItem;
+		menu.addSeparator();
+		menuItem = new JMenuItem("Run clock...");
+		menuItem.getAccessibleContext().setAccessibleDescription("Ticks every clock at a chosen frequency");
+		addListener(menuItem, "Clock real time");
+		menu.add(menuItem);
+		menuItem = new JMenuItem("Run clock at max speed");
+		menuItem.getAccessibleContext().setAccessibleDescription("Ticks every clock as fast as possible");
+		addListener(menuItem, "Clock max speed");
+		menu.add(menuItem);
+		menuItem = new JMenuItem("Run clock cycles...");
+		menuItem.getAccessibleContext().setAccessibleDescription("Runs a chosen number of clock cycles as fast as possible");
+		addListener(menuItem, "Clock burst");
+		menu.add(menuItem);
+		menuItem = new JMenuItem("Stop clock");
+		addListener(menuItem, "Clock stop");
+		menu.add(menuItem);
+		add(menu);
 		
 		menu = new JMenu("Component");
 		menuItem = new JMenuItem("Delete");
@@ -223,6 +290,55 @@ public class LMenuBar extends JMenuBar implements ActionListener {
 		else if(command.equals("Counter")) cp.getEditor().getSelection().rotate(Constants.COUNTER_CLOCKWISE);
 		else if(command.equals("Custom")) cp.getEditor().getCustomCreator().createCustom();
 		else if(command.equals("Console")) DebugConsole.promptCommand(cp);
+		else if(command.equals("Event mode")) cp.setSimulationMode(LogicWorker.EVENT_MODE);
+		else if(command.equals("Compiled mode")) cp.setSimulationMode(LogicWorker.COMPILED_MODE);
+		else if(command.equals("Levelized mode")) cp.setSimulationMode(LogicWorker.LCC_MODE);
+		else if(command.equals("Timed mode")) cp.setSimulationMode(LogicWorker.TIMED_MODE);
+		else if(command.equals("Clock real time")) {
+			ClockDriver driver = LogicWorker.getClockDriver();
+			String hz = JOptionPane.showInputDialog(cp, "Clock frequency (Hz)", driver.getTargetHz());
+			try {
+				if(hz != null) driver.runRealTime(Double.parseDouble(hz.trim()));
+			} catch (IllegalArgumentException ex) {
+				cp.dispMessage(new UserMessage(cp, "Invalid clock frequency", 3000));
+			}
+		}
+		else if(command.equals("Clock max speed")) LogicWorker.getClockDriver().runMaxSpeed(ClockDriver.DEFAULT_FRAME_BUDGET);
+		else if(command.equals("Clock burst")) {
+			String cycles = JOptionPane.showInputDialog(cp, "Number of clock cycles", 1000);
+			try {
+				if(cycles != null) LogicWorker.getClockDriver().runBurst(Long.parseLong(cycles.trim()));
+			} catch (IllegalArgumentException ex) {
+				cp.dispMessage(new UserMessage(cp, "Invalid number of cycles", 3000));
+			}
+		}
+		else if(command.equals("Clock stop")) LogicWorker.getClockDriver().stop();
+		else if(command.equals("Packed")) {
+			boolean on = packed.isSelected();
+			rebuildCustomTypes(() -> CustomType.setPackedNodeBoxes(on), type -> type.setPacked(on));
+		}
+		else if(command.equals("Flatten")) {
+			boolean on = flattened.isSelected();
+			rebuildCustomTypes(() -> CustomType.setFlattenNodeBoxes(on), type -> type.setFlattened(on));
+		}
+		else if(command.equals("Bytecode")) {
+			boolean on = bytecode.isSelected();
+			rebuildCustomTypes(() -> CustomType.setBytecodeNodeBoxes(on), type -> type.setBytecode(on));
+		}
+	}
+
+	/**
+	 * Changes a NodeBox setting on the simulation thread, where it can't race with a pass, and then restarts logic in the panel
+	 * @param setDefault Changes the setting for types that are compiled from now on
+	 * @param rebuild Changes the setting for an existing type, which rebuilds its NodeBox
+	 */
+	private void rebuildCustomTypes(Runnable setDefault, Consumer<CustomType> rebuild) {
+		ArrayList<CustomType> types = new ArrayList<>(cp.getEditor().getCustomCreator().getCustomTypes());
+		LogicWorker.runLater(() -> {
+			setDefault.run();
+			for(CustomType type : types) rebuild.accept(type);
+		});
+		LogicWorker.startLogic(cp);
 	}
 	
 	/**
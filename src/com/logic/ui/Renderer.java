@@ -3,6 +3,8 @@ package com.logic.ui;
 import com.logic.components.*;
 import com.logic.custom.CustomType;
 import com.logic.custom.OpCustom2;
+import com.logic.engine.ClockDriver;
+import com.logic.engine.LogicWorker;
 import com.logic.input.WireEditor;
 import com.logic.main.LogicSimApp;
 import com.logic.util.CompUtils;
@@ -140,6 +142,7 @@ public class Renderer {
         renderCustomCreator(g2d);
         reverseTransform(g2d);
         renderUserMessage(g2d);
+        renderClockStatus(g2d);
     }
 
     private void renderGrid(Graphics2D g2d, Rectangle view){
@@ -206,6 +209,23 @@ public class Renderer {
                 message.getText());
     }
 
+    /**
+     * Shows the frequency that the clocks are running at in the bottom left corner while the ClockDriver is running
+     */
+    private void renderClockStatus(Graphics2D g2d){
+        ClockDriver driver = LogicWorker.getClockDriver();
+        int mode = driver.getMode();
+        if(mode == ClockDriver.STOPPED) return;
+        String detail = mode == ClockDriver.REAL_TIME ? "target " + ClockDriver.formatHz(driver.getTargetHz()) :
+                mode == ClockDriver.MAX_SPEED ? "max speed" : driver.getBurstCycles() + " cycles left";
+        userMessageDrawer.render(g2d,
+                UserMessage.Y_OFFSET,
+                cp.getHeight() - UserMessage.Y_OFFSET,
+                LabelDrawer.START,
+                LabelDrawer.END,
+                "Clock " + ClockDriver.formatHz(driver.getAchievedHz()) + " (" + detail + ")");
+    }
+
     private void renderWire(Graphics2D g2d, Wire wire){
         Path2D curve = wire.getCurveUpdate(cp);
         if(wire.isSelected()) {